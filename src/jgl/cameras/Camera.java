@@ -6,58 +6,93 @@ package jgl.cameras;
 import javax.media.opengl.GL2;
 import javax.media.opengl.fixedfunc.GLMatrixFunc;
 
+import jgl.core.BlockWriter;
 import jgl.math.vector.ConstVec3f;
 import jgl.math.vector.Mat4f;
 import jgl.math.vector.Transform;
 import jgl.math.vector.Vec3f;
 
 /**
- * Camera model.
+ * Camera model. The view and projection matrices are the source of truth; their inverses, the
+ * combined view-projection matrix (and its inverse), and the eye/direction vectors are derived
+ * lazily the first time they are requested after a change. A version number is incremented on
+ * every change so that dependent caches can tell when the camera has not moved.
  * 
  * @author justin
  */
 public class Camera {
 
-  protected Vec3f eye;
-  protected Vec3f forward;
-  protected Vec3f right;
-  protected Vec3f up;
-  protected Mat4f view;
-  protected Mat4f projection;
-  protected Mat4f viewInverse;
-  protected Mat4f projectionInverse;
-  
+  /** Tolerance used to decide whether a view matrix can be inverted as a rigid-body transform. */
+  private static final float RIGID_EPSILON = 1e-4f;
+
+  private static final int   VIEW_INVERSE            = 1;
+  private static final int   PROJECTION_INVERSE      = 2;
+  private static final int   VIEW_PROJECTION         = 4;
+  private static final int   VIEW_PROJECTION_INVERSE = 8;
+  private static final int   VECTORS                 = 16;
+  private static final int   ALL                     = 31;
+
+  protected Vec3f eye                   = new Vec3f();
+  protected Vec3f forward               = new Vec3f();
+  protected Vec3f right                 = new Vec3f();
+  protected Vec3f up                    = new Vec3f();
+  protected Mat4f view                  = new Mat4f();
+  protected Mat4f projection            = new Mat4f();
+  protected Mat4f viewInverse           = new Mat4f();
+  protected Mat4f projectionInverse     = new Mat4f();
+  protected Mat4f viewProjection        = new Mat4f();
+  protected Mat4f viewProjectionInverse = new Mat4f();
+
+  // scratch matrix used to build incremental transforms without allocating
+  private final Mat4f temp              = new Mat4f();
+
+  private int         dirty             = ALL;
+  private boolean     rigidView         = true;
+  private long        version;
+
   public Camera() {
     setView(Transform.identity());
     setProjection(Transform.identity());
   }
 
+  /**
+   * A number that changes whenever the view or projection changes. Two equal values mean the
+   * camera's matrices are identical.
+   */
+  public long getVersion() {
+    return version;
+  }
+
   public ConstVec3f getEye() {
+    updateVectors();
     return eye;
   }
 
   public ConstVec3f getForward() {
+    updateVectors();
     return forward;
   }
 
   public ConstVec3f getBackward() {
-    return forward.times(-1);
+    return getForward().times(-1);
   }
 
   public ConstVec3f getRight() {
+    updateVectors();
     return right;
   }
 
   public ConstVec3f getLeft() {
-    return right.times(-1);
+    return getRight().times(-1);
   }
 
   public ConstVec3f getUp() {
+    updateVectors();
     return up;
   }
 
   public ConstVec3f getDown() {
-    return up.times(-1);
+    return getUp().times(-1);
   }
 
   public Mat4f getProjection() {
@@ -65,6 +100,10 @@ public class Camera {
   }
   
   public Mat4f getProjectionInverse() {
+    if ((dirty & PROJECTION_INVERSE) != 0) {
+      projection.inverse(projectionInverse);
+      dirty &= ~PROJECTION_INVERSE;
+    }
     return projectionInverse;
   }
 
@@ -73,18 +112,88 @@ public class Camera {
   }
   
   public Mat4f getViewInverse() {
+    if ((dirty & VIEW_INVERSE) != 0) {
+      if (rigidView)
+        view.rigidInverse(viewInverse);
+      else
+        view.inverse(viewInverse);
+      dirty &= ~VIEW_INVERSE;
+    }
     return viewInverse;
   }
 
+  /**
+   * The combined matrix (projection) * (view).
+   */
+  public Mat4f getViewProjection() {
+    if ((dirty & VIEW_PROJECTION) != 0) {
+      Mat4f.mul(projection, view, viewProjection);
+      dirty &= ~VIEW_PROJECTION;
+    }
+    return viewProjection;
+  }
+
+  /**
+   * The inverse of the combined matrix: (view^-1) * (projection^-1).
+   */
+  public Mat4f getViewProjectionInverse() {
+    if ((dirty & VIEW_PROJECTION_INVERSE) != 0) {
+      Mat4f.mul(getViewInverse(), getProjectionInverse(), viewProjectionInverse);
+      dirty &= ~VIEW_PROJECTION_INVERSE;
+    }
+    return viewProjectionInverse;
+  }
+
+  /**
+   * Copies the values of the projection matrix into this camera.
+   */
   public void setProjection(Mat4f projection) {
-    this.projection = projection;
-    this.projectionInverse = projection.inverse();
+    this.projection.set(projection);
+    projectionChanged();
   }
 
+  /**
+   * Copies the values of the view matrix into this camera.
+   */
   public void setView(Mat4f view) {
-    this.view = view;
-    this.viewInverse = view.inverse();
-    updateVectors();
+    this.view.set(view);
+    rigidView = view.isRigid(RIGID_EPSILON);
+    viewChanged();
+  }
+
+  /**
+   * Marks values derived from the view matrix as stale. Subclasses that modify {@link #view}
+   * directly must call this afterwards.
+   */
+  protected void viewChanged() {
+    dirty |= VIEW_INVERSE | VIEW_PROJECTION | VIEW_PROJECTION_INVERSE | VECTORS;
+    version++;
+  }
+
+  /**
+   * Marks values derived from the projection matrix as stale. Subclasses that modify
+   * {@link #projection} directly must call this afterwards.
+   */
+  protected void projectionChanged() {
+    dirty |= PROJECTION_INVERSE | VIEW_PROJECTION | VIEW_PROJECTION_INVERSE;
+    version++;
+  }
+
+  /**
+   * Writes the camera to a uniform block (std140 or std430) declared as:
+   * 
+   * <pre>
+   * uniform Camera {
+   *   mat4 view;
+   *   mat4 projection;
+   *   mat4 viewProjection;
+   *   vec4 eye;
+   * };
+   * </pre>
+   */
+  public void write(BlockWriter w) {
+    ConstVec3f e = getEye();
+    w.put(view).put(projection).put(getViewProjection()).put(e.x(), e.y(), e.z(), 1);
   }
 
   public void apply(GL2 gl) {
@@ -95,27 +204,27 @@ public class Camera {
   }
 
   public void translateForward(float units) {
-    translate(forward.times(units));
+    translate(getForward().times(units));
   }
 
   public void translateBackward(float units) {
-    translate(forward.times(-units));
+    translate(getForward().times(-units));
   }
 
   public void translateRight(float units) {
-    translate(right.times(units));
+    translate(getRight().times(units));
   }
 
   public void translateLeft(float units) {
-    translate(right.times(-units));
+    translate(getRight().times(-units));
   }
 
   public void translateUp(float units) {
-    translate(up.times(units));
+    translate(getUp().times(units));
   }
 
   public void translateDown(float units) {
-    translate(up.times(-units));
+    translate(getUp().times(-units));
   }
 
   public void translate(ConstVec3f t) {
@@ -123,39 +232,38 @@ public class Camera {
   }
 
   public void translate(float x, float y, float z) {
-    view = view.times(Transform.translation(x, y, z));
-    viewInverse = Transform.translation(-x, -y, -z).times(viewInverse);
-    updateVectors();
+    view.translate(x, y, z);
+    viewChanged();
   }
   
   public void rotateX(double radians) {
-    view = view.times(Transform.rotationX(radians));
-    viewInverse = Transform.rotationX(-radians).times(viewInverse);
-    updateVectors();
+    view.rotateX(radians);
+    viewChanged();
   }
   
   public void rotateY(double radians) {
-    view = view.times(Transform.rotationY(radians));
-    viewInverse = Transform.rotationY(-radians).times(viewInverse);
-    updateVectors();
+    view.rotateY(radians);
+    viewChanged();
   }
   
   public void rotateZ(double radians) {
-    view = view.times(Transform.rotationZ(radians));
-    viewInverse = Transform.rotationZ(-radians).times(viewInverse);
-    updateVectors();
+    view.rotateZ(radians);
+    viewChanged();
   }
   
   public void rotate(ConstVec3f axis, double radians) {
-    view = view.times(Transform.rotation(axis, radians));
-    viewInverse = Transform.rotation(axis, -radians).times(viewInverse);
-    updateVectors();
+    Mat4f.mul(view, Transform.rotation(axis, radians, temp), view);
+    viewChanged();
   }
   
   private void updateVectors() {
-    right = viewInverse.col(0).xyz();
-    up = viewInverse.col(1).xyz();
-    forward = viewInverse.col(2).xyz().multiply(-1);
-    eye = viewInverse.col(3).xyz();
+    if ((dirty & VECTORS) != 0) {
+      float[] a = getViewInverse().a;
+      right.set(a[0], a[1], a[2]);
+      up.set(a[4], a[5], a[6]);
+      forward.set(-a[8], -a[9], -a[10]);
+      eye.set(a[12], a[13], a[14]);
+      dirty &= ~VECTORS;
+    }
   }
 }
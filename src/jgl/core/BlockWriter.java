@@ -0,0 +1,220 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jgl.math.vector.ConstVec2f;
+import jgl.math.vector.ConstVec3f;
+import jgl.math.vector.ConstVec4f;
+import jgl.math.vector.Mat4f;
+
+/**
+ * Packs values into a direct buffer following the std140 or std430 layout rules of GLSL interface
+ * blocks, so the buffer can be uploaded to a uniform (or shader storage) buffer as is. Each put
+ * first aligns the position to the member's base alignment: 4 bytes for scalars, 8 for vec2, and 16
+ * for vec3, vec4 and matrices (which are stored as arrays of column vectors).
+ * <p>
+ * Arrays of vec3, vec4 and matrices can be written one element at a time. Arrays of scalars and
+ * vec2 have a larger stride in std140 (16 bytes per element) and must be written with putArray.
+ * Structures are written member by member; in std140 a structure and the member that follows it
+ * start at a multiple of 16 bytes, which {@link #align(int)} provides. Positions can also be set
+ * explicitly, for instance to offsets reflected from a program (see {@link UniformBlock}).
+ *
+ * @author justin
+ */
+public class BlockWriter {
+
+  public enum Layout {
+    STD140, STD430
+  }
+
+  private final Layout layout;
+  private ByteBuffer   buf;
+  private int          size;
+
+  public BlockWriter(Layout layout) {
+    this(layout, 256);
+  }
+
+  public BlockWriter(Layout layout, int capacity) {
+    this.layout = layout;
+    this.buf = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+  }
+
+  public Layout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Number of bytes written: the furthest position reached.
+   */
+  public int size() {
+    return size;
+  }
+
+  public int position() {
+    return buf.position();
+  }
+
+  /**
+   * Moves to a byte offset from the start of the block. Bytes skipped over count as written.
+   */
+  public BlockWriter position(int offset) {
+    ensure(offset - buf.position());
+    buf.position(offset);
+    return end();
+  }
+
+  /**
+   * Moves back to the start of the block and forgets what was written.
+   */
+  public BlockWriter clear() {
+    buf.clear();
+    size = 0;
+    return this;
+  }
+
+  /**
+   * Moves forward to the next multiple of alignment bytes.
+   */
+  public BlockWriter align(int alignment) {
+    int position = buf.position();
+    int aligned = (position + alignment - 1) / alignment * alignment;
+    if (aligned != position)
+      position(aligned);
+    return this;
+  }
+
+  /**
+   * The bytes written, from the start of the block to {@link #size()}. Shares content with the
+   * writer until the next put.
+   */
+  public ByteBuffer data() {
+    ByteBuffer data = buf.duplicate();
+    data.position(0).limit(size);
+    return data.slice().order(buf.order());
+  }
+
+  public BlockWriter put(float x) {
+    begin(4, 4);
+    buf.putFloat(x);
+    return end();
+  }
+
+  public BlockWriter put(int x) {
+    begin(4, 4);
+    buf.putInt(x);
+    return end();
+  }
+
+  public BlockWriter put(boolean x) {
+    return put(x ? 1 : 0);
+  }
+
+  public BlockWriter put(float x, float y) {
+    begin(8, 8);
+    buf.putFloat(x).putFloat(y);
+    return end();
+  }
+
+  public BlockWriter put(float x, float y, float z) {
+    begin(16, 12);
+    buf.putFloat(x).putFloat(y).putFloat(z);
+    return end();
+  }
+
+  public BlockWriter put(float x, float y, float z, float w) {
+    begin(16, 16);
+    buf.putFloat(x).putFloat(y).putFloat(z).putFloat(w);
+    return end();
+  }
+
+  public BlockWriter put(ConstVec2f v) {
+    return put(v.x(), v.y());
+  }
+
+  public BlockWriter put(ConstVec3f v) {
+    return put(v.x(), v.y(), v.z());
+  }
+
+  public BlockWriter put(ConstVec4f v) {
+    return put(v.x(), v.y(), v.z(), v.w());
+  }
+
+  public BlockWriter put(Mat4f m) {
+    begin(16, 64);
+    for (int i = 0; i < 16; i++)
+      buf.putFloat(m.a[i]);
+    return end();
+  }
+
+  /**
+   * Writes a float array whose elements have n components (1 to 4), such as float[] or vec2[].
+   */
+  public BlockWriter putArray(float[] values, int n) {
+    int stride = arrayStride(n);
+    int count = values.length / n;
+    begin(arrayAlignment(n), stride * count);
+    int start = buf.position();
+    for (int i = 0; i < count; i++) {
+      buf.position(start + i * stride);
+      for (int j = 0; j < n; j++)
+        buf.putFloat(values[i * n + j]);
+    }
+    buf.position(start + stride * count);
+    return end();
+  }
+
+  /**
+   * Writes an int array whose elements have n components (1 to 4), such as int[] or ivec2[].
+   */
+  public BlockWriter putArray(int[] values, int n) {
+    int stride = arrayStride(n);
+    int count = values.length / n;
+    begin(arrayAlignment(n), stride * count);
+    int start = buf.position();
+    for (int i = 0; i < count; i++) {
+      buf.position(start + i * stride);
+      for (int j = 0; j < n; j++)
+        buf.putInt(values[i * n + j]);
+    }
+    buf.position(start + stride * count);
+    return end();
+  }
+
+  private int arrayAlignment(int n) {
+    int alignment = n == 1 ? 4 : n == 2 ? 8 : 16;
+    return layout == Layout.STD140 ? 16 : alignment;
+  }
+
+  private int arrayStride(int n) {
+    if (n < 1 || n > 4)
+      throw new IllegalArgumentException("Array elements must have 1 to 4 components: " + n);
+    return layout == Layout.STD140 || n > 2 ? 16 : n * 4;
+  }
+
+  private void begin(int alignment, int length) {
+    align(alignment);
+    ensure(length);
+  }
+
+  private BlockWriter end() {
+    size = Math.max(size, buf.position());
+    return this;
+  }
+
+  private void ensure(int length) {
+    if (buf.remaining() < length) {
+      int capacity = Math.max(buf.capacity() * 2, buf.position() + length);
+      ByteBuffer grown = ByteBuffer.allocateDirect(capacity).order(buf.order());
+      int position = buf.position();
+      buf.position(0).limit(Math.max(size, position));
+      grown.put(buf);
+      grown.position(position);
+      buf = grown;
+    }
+  }
+}
@@ -47,6 +47,7 @@ public class Framebuffer {
   public void delete(GL gl) {
     if (id != -1) {
       gl.glDeleteFramebuffers(1, new int[] { id }, 0);
+      GLState.get(gl).framebufferDeleted(id);
       id = -1;
     }
   }
@@ -57,11 +58,11 @@ public class Framebuffer {
       gl.glGenFramebuffers(1, temp, 0);
       id = temp[0];
     }
-    gl.glBindBuffer(target.value, id);
+    GLState.get(gl).bindFramebuffer(gl, target.value, id);
   }
 
   public void unbind(GL gl) {
-    gl.glBindBuffer(target.value, 0);
+    GLState.get(gl).bindFramebuffer(gl, target.value, 0);
   }
 
   /**
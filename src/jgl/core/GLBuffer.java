@@ -26,7 +26,8 @@ public class GLBuffer {
     ARRAY(GL2GL3.GL_ARRAY_BUFFER), 
     ELEMENT_ARRAY(GL2GL3.GL_ELEMENT_ARRAY_BUFFER), 
     PIXEL_PACK(GL2GL3.GL_PIXEL_PACK_BUFFER), 
-    PIXEL_UNPACK(GL2GL3.GL_PIXEL_UNPACK_BUFFER);
+    PIXEL_UNPACK(GL2GL3.GL_PIXEL_UNPACK_BUFFER),
+    UNIFORM(GL2GL3.GL_UNIFORM_BUFFER);
 
     public final int glConstant;
 
@@ -77,6 +78,10 @@ public class GLBuffer {
     return id;
   }
 
+  public Target getTarget() {
+    return target;
+  }
+
   public void setTarget(Target target) {
     this.target = target;
   }
@@ -88,6 +93,7 @@ public class GLBuffer {
   public void delete(GL gl) {
     if (id != -1) {
       gl.glDeleteBuffers(1, new int[] { id }, 0);
+      GLState.get(gl).bufferDeleted(id);
       id = -1;
     }
   }
@@ -98,11 +104,31 @@ public class GLBuffer {
       gl.glGenBuffers(1, temp, 0);
       id = temp[0];
     }
-    gl.glBindBuffer(target.glConstant, id);
+    GLState.get(gl).bindBuffer(gl, target.glConstant, id);
   }
 
   public void unbind(GL gl) {
-    gl.glBindBuffer(target.glConstant, 0);
+    GLState.get(gl).bindBuffer(gl, target.glConstant, 0);
+  }
+
+  /**
+   * Binds the buffer to an indexed binding point of its target (such as a uniform block binding),
+   * which also binds it to the target itself.
+   */
+  public void bindBase(GL2GL3 gl, int index) {
+    if (id == -1)
+      bind(gl);
+    GLState.get(gl).bindBufferBase(gl, target.glConstant, index, id);
+  }
+
+  /**
+   * Binds size bytes of the buffer starting at offset to an indexed binding point of its target.
+   * The offset must be a multiple of GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT for uniform buffers.
+   */
+  public void bindRange(GL2GL3 gl, int index, long offset, long size) {
+    if (id == -1)
+      bind(gl);
+    GLState.get(gl).bindBufferRange(gl, target.glConstant, index, id, offset, size);
   }
 
   /**
@@ -112,6 +138,13 @@ public class GLBuffer {
     gl.glBufferData(target.glConstant, sizeOf(data), data, usage.glConstant);
   }
 
+  /**
+   * Allocates size bytes of uninitialized storage, to be filled with setSubData or by mapping.
+   */
+  public void allocate(GL gl, long size) {
+    gl.glBufferData(target.glConstant, size, null, usage.glConstant);
+  }
+
   /**
    * Assigns the subset of the buffer's data starting at offset (in bytes).
    */
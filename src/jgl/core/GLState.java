@@ -0,0 +1,428 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.core;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2GL3;
+import javax.media.opengl.GLContext;
+
+/**
+ * Shadow copy of the binding and capability state of one OpenGL context. The wrappers in this
+ * package change state only through the context's GLState, so calls that would set a value the
+ * context already has are skipped. The numbers of issued and skipped calls are counted.
+ * <p>
+ * State that is unknown (initially, or after {@link #invalidate()}) is always set. Code that changes
+ * tracked state by calling GL directly must call invalidate afterwards. A GLState must only be used
+ * while its context is current, which makes it confined to one thread at a time.
+ *
+ * @author justin
+ */
+public class GLState {
+
+  private static final int                     UNKNOWN = -1;
+
+  private static final Map<GLContext, GLState> states  = new WeakHashMap<GLContext, GLState>();
+  private static final ThreadLocal<GLState>    current = new ThreadLocal<GLState>();
+
+  // weak, so neither the map's value nor a thread's current state keeps the context alive
+  private final WeakReference<GLContext>       context;
+  private int                                  activeUnit;
+  private Slots[]                              textures;
+  private int                                  program;
+  private final Slots                          buffers = new Slots();
+  private final Slots                          indexed = new Slots();
+  private int                                  vertexArray;
+  private int                                  readFramebuffer;
+  private int                                  drawFramebuffer;
+  private int                                  renderbuffer;
+  private final Slots                          enabled = new Slots();
+  private int                                  blendSrcRGB, blendDstRGB;
+  private int                                  blendSrcAlpha, blendDstAlpha;
+  private int                                  blendEquation;
+  private int                                  depthFunc;
+  private int                                  depthMask;
+  private long                                 issued;
+  private long                                 skipped;
+
+  private GLState(GLContext context) {
+    this.context = new WeakReference<GLContext>(context);
+    invalidate();
+  }
+
+  /**
+   * Returns the state of the context gl belongs to.
+   */
+  public static GLState get(GL gl) {
+    GLContext context = gl.getContext();
+    GLState state = current.get();
+    if (state == null || state.context.get() != context) {
+      synchronized (states) {
+        state = states.get(context);
+        if (state == null)
+          states.put(context, state = new GLState(context));
+      }
+      current.set(state);
+    }
+    return state;
+  }
+
+  /**
+   * Forgets all tracked state, so the next call for each value is issued.
+   */
+  public void invalidate() {
+    activeUnit = UNKNOWN;
+    textures = new Slots[0];
+    program = UNKNOWN;
+    buffers.clear();
+    indexed.clear();
+    vertexArray = UNKNOWN;
+    readFramebuffer = UNKNOWN;
+    drawFramebuffer = UNKNOWN;
+    renderbuffer = UNKNOWN;
+    enabled.clear();
+    blendSrcRGB = blendDstRGB = blendSrcAlpha = blendDstAlpha = UNKNOWN;
+    blendEquation = UNKNOWN;
+    depthFunc = UNKNOWN;
+    depthMask = UNKNOWN;
+  }
+
+  /**
+   * Number of state changes passed on to GL.
+   */
+  public long getIssued() {
+    return issued;
+  }
+
+  /**
+   * Number of state changes skipped because the context already had the value.
+   */
+  public long getSkipped() {
+    return skipped;
+  }
+
+  public void resetCounters() {
+    issued = 0;
+    skipped = 0;
+  }
+
+  /**
+   * Selects the texture unit (0 for GL_TEXTURE0) that texture bindings apply to.
+   */
+  public void activeTexture(GL gl, int unit) {
+    if (activeUnit == unit) {
+      skipped++;
+      return;
+    }
+    gl.glActiveTexture(GL.GL_TEXTURE0 + unit);
+    activeUnit = unit;
+    issued++;
+  }
+
+  /**
+   * Binds a texture to a target of the active texture unit.
+   */
+  public void bindTexture(GL gl, int target, int id) {
+    if (activeUnit == UNKNOWN) {
+      int[] unit = new int[1];
+      gl.glGetIntegerv(GL.GL_ACTIVE_TEXTURE, unit, 0);
+      activeUnit = unit[0] - GL.GL_TEXTURE0;
+    }
+    Slots unit = unit(activeUnit);
+    if (unit.get(target) == id) {
+      skipped++;
+      return;
+    }
+    gl.glBindTexture(target, id);
+    unit.put(target, id);
+    issued++;
+  }
+
+  /**
+   * Makes a texture unit active, then binds a texture to one of its targets.
+   */
+  public void bindTexture(GL gl, int unit, int target, int id) {
+    activeTexture(gl, unit);
+    bindTexture(gl, target, id);
+  }
+
+  /**
+   * Program in use, or -1 if unknown.
+   */
+  int program() {
+    return program;
+  }
+
+  public void useProgram(GL2GL3 gl, int id) {
+    if (program == id) {
+      skipped++;
+      return;
+    }
+    gl.glUseProgram(id);
+    program = id;
+    issued++;
+  }
+
+  public void bindBuffer(GL gl, int target, int id) {
+    if (buffers.get(target) == id) {
+      skipped++;
+      return;
+    }
+    gl.glBindBuffer(target, id);
+    buffers.put(target, id);
+    issued++;
+  }
+
+  /**
+   * Binds a vertex array object. The element array binding belongs to the vertex array, so it
+   * becomes unknown when a different one is bound.
+   */
+  public void bindVertexArray(GL2GL3 gl, int id) {
+    if (vertexArray == id) {
+      skipped++;
+      return;
+    }
+    gl.glBindVertexArray(id);
+    vertexArray = id;
+    buffers.put(GL.GL_ELEMENT_ARRAY_BUFFER, UNKNOWN);
+    issued++;
+  }
+
+  /**
+   * Binds a whole buffer to an indexed binding point of a target (glBindBufferBase), which also
+   * binds it to the target.
+   */
+  public void bindBufferBase(GL2GL3 gl, int target, int index, int id) {
+    int key = indexKey(target, index);
+    if (indexed.get(key) == id && buffers.get(target) == id) {
+      skipped++;
+      return;
+    }
+    gl.glBindBufferBase(target, index, id);
+    indexed.put(key, id);
+    buffers.put(target, id);
+    issued++;
+  }
+
+  /**
+   * Binds a range of a buffer to an indexed binding point of a target (glBindBufferRange). Ranges
+   * are not tracked, so this is always issued.
+   */
+  public void bindBufferRange(GL2GL3 gl, int target, int index, int id, long offset, long size) {
+    gl.glBindBufferRange(target, index, id, offset, size);
+    indexed.put(indexKey(target, index), UNKNOWN);
+    buffers.put(target, id);
+    issued++;
+  }
+
+  private static int indexKey(int target, int index) {
+    // targets are 16-bit enums, and implementations have far fewer than 256 binding points
+    return target << 8 | index;
+  }
+
+  /**
+   * Binds a framebuffer. GL_FRAMEBUFFER sets both the read and the draw binding.
+   */
+  public void bindFramebuffer(GL gl, int target, int id) {
+    boolean read = target != GL2GL3.GL_DRAW_FRAMEBUFFER;
+    boolean draw = target != GL2GL3.GL_READ_FRAMEBUFFER;
+    if ((!read || readFramebuffer == id) && (!draw || drawFramebuffer == id)) {
+      skipped++;
+      return;
+    }
+    gl.glBindFramebuffer(target, id);
+    if (read)
+      readFramebuffer = id;
+    if (draw)
+      drawFramebuffer = id;
+    issued++;
+  }
+
+  public void bindRenderbuffer(GL gl, int id) {
+    if (renderbuffer == id) {
+      skipped++;
+      return;
+    }
+    gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, id);
+    renderbuffer = id;
+    issued++;
+  }
+
+  public void enable(GL gl, int capability) {
+    setEnabled(gl, capability, true);
+  }
+
+  public void disable(GL gl, int capability) {
+    setEnabled(gl, capability, false);
+  }
+
+  /**
+   * Enables or disables a server-side capability (glEnable / glDisable).
+   */
+  public void setEnabled(GL gl, int capability, boolean enable) {
+    int value = enable ? 1 : 0;
+    if (enabled.get(capability) == value) {
+      skipped++;
+      return;
+    }
+    if (enable)
+      gl.glEnable(capability);
+    else
+      gl.glDisable(capability);
+    enabled.put(capability, value);
+    issued++;
+  }
+
+  public void blendFunc(GL gl, int src, int dst) {
+    if (blendSrcRGB == src && blendDstRGB == dst && blendSrcAlpha == src && blendDstAlpha == dst) {
+      skipped++;
+      return;
+    }
+    gl.glBlendFunc(src, dst);
+    blendSrcRGB = blendSrcAlpha = src;
+    blendDstRGB = blendDstAlpha = dst;
+    issued++;
+  }
+
+  public void blendFuncSeparate(GL gl, int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {
+    if (blendSrcRGB == srcRGB && blendDstRGB == dstRGB && blendSrcAlpha == srcAlpha
+        && blendDstAlpha == dstAlpha) {
+      skipped++;
+      return;
+    }
+    gl.glBlendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+    blendSrcRGB = srcRGB;
+    blendDstRGB = dstRGB;
+    blendSrcAlpha = srcAlpha;
+    blendDstAlpha = dstAlpha;
+    issued++;
+  }
+
+  public void blendEquation(GL gl, int mode) {
+    if (blendEquation == mode) {
+      skipped++;
+      return;
+    }
+    gl.glBlendEquation(mode);
+    blendEquation = mode;
+    issued++;
+  }
+
+  public void depthFunc(GL gl, int func) {
+    if (depthFunc == func) {
+      skipped++;
+      return;
+    }
+    gl.glDepthFunc(func);
+    depthFunc = func;
+    issued++;
+  }
+
+  public void depthMask(GL gl, boolean flag) {
+    int value = flag ? 1 : 0;
+    if (depthMask == value) {
+      skipped++;
+      return;
+    }
+    gl.glDepthMask(flag);
+    depthMask = value;
+    issued++;
+  }
+
+  /**
+   * Records that a texture was deleted, which unbinds it from every unit it was bound to.
+   */
+  void textureDeleted(int id) {
+    for (Slots unit : textures)
+      unit.replace(id, 0);
+  }
+
+  void bufferDeleted(int id) {
+    buffers.replace(id, 0);
+    indexed.replace(id, 0);
+  }
+
+  void vertexArrayDeleted(int id) {
+    if (vertexArray == id) {
+      vertexArray = 0;
+      buffers.put(GL.GL_ELEMENT_ARRAY_BUFFER, UNKNOWN);
+    }
+  }
+
+  void programDeleted(int id) {
+    // a program in use is deleted once it is replaced, after which its name may be reused
+    if (program == id)
+      program = UNKNOWN;
+  }
+
+  void framebufferDeleted(int id) {
+    if (readFramebuffer == id)
+      readFramebuffer = 0;
+    if (drawFramebuffer == id)
+      drawFramebuffer = 0;
+  }
+
+  void renderbufferDeleted(int id) {
+    if (renderbuffer == id)
+      renderbuffer = 0;
+  }
+
+  private Slots unit(int unit) {
+    if (unit >= textures.length) {
+      Slots[] grown = new Slots[Math.max(unit + 1, textures.length * 2)];
+      System.arraycopy(textures, 0, grown, 0, textures.length);
+      for (int i = textures.length; i < grown.length; i++)
+        grown[i] = new Slots();
+      textures = grown;
+    }
+    return textures[unit];
+  }
+
+  /**
+   * Values keyed by GL enum (a binding target or capability). Only a handful of keys are used, so
+   * they are searched linearly.
+   */
+  private static class Slots {
+
+    int[] keys   = new int[8];
+    int[] values = new int[8];
+    int   size;
+
+    int get(int key) {
+      for (int i = 0; i < size; i++)
+        if (keys[i] == key)
+          return values[i];
+      return UNKNOWN;
+    }
+
+    void put(int key, int value) {
+      for (int i = 0; i < size; i++) {
+        if (keys[i] == key) {
+          values[i] = value;
+          return;
+        }
+      }
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      keys[size] = key;
+      values[size++] = value;
+    }
+
+    void replace(int value, int replacement) {
+      for (int i = 0; i < size; i++)
+        if (values[i] == value)
+          values[i] = replacement;
+    }
+
+    void clear() {
+      size = 0;
+    }
+  }
+}
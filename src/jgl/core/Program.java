@@ -5,9 +5,11 @@ package jgl.core;
 
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -15,18 +17,23 @@ import javax.media.opengl.GL2GL3;
 
 /**
  * GLSL shader program.
+ * <p>
+ * Uniforms can be looked up by name, or by a handle resolved once after linking with
+ * {@link #uniformHandle(String)}, which avoids hashing the name every frame. Uniform values set
+ * while the program is not in use are uploaded together when it is next bound.
  * 
  * @author justin
  */
 public class Program {
 
-  private static int             bound      = 0;
-
-  private int                    id         = -1;
-  private Set<Shader>            attached   = new HashSet<Shader>();
-  private Map<String, Attribute> attributes = new HashMap<String, Attribute>();
-  private Map<String, Uniform>   uniforms   = new HashMap<String, Uniform>();
-  private String                 log;
+  private int                       id         = -1;
+  private Set<Shader>               attached   = new HashSet<Shader>();
+  private Map<String, Attribute>    attributes = new HashMap<String, Attribute>();
+  private Map<String, Uniform>      uniforms   = new HashMap<String, Uniform>();
+  private Uniform[]                 handles    = new Uniform[0];
+  private List<Uniform>             dirty      = new ArrayList<Uniform>();
+  private Map<String, UniformBlock> blocks     = new HashMap<String, UniformBlock>();
+  private String                    log;
 
   public Program() {
   }
@@ -35,24 +42,63 @@ public class Program {
     return id;
   }
 
+  /**
+   * Makes this the current program and uploads uniform values that were set since it was last in
+   * use.
+   */
   public void bind(GL2GL3 gl) {
-    if (id != bound) {
-      gl.glUseProgram(id);
-      bound = id;
+    GLState.get(gl).useProgram(gl, id);
+    if (!dirty.isEmpty()) {
+      for (int i = 0; i < dirty.size(); i++)
+        dirty.get(i).apply(gl);
+      dirty.clear();
     }
   }
 
   public void unbind(GL2GL3 gl) {
-    if (bound != 0) {
-      gl.glUseProgram(0);
-      bound = 0;
-    }
+    GLState.get(gl).useProgram(gl, 0);
   }
 
   public Uniform uniform(String name) {
     return uniforms.get(name);
   }
 
+  /**
+   * Handle of an active uniform for {@link #uniform(int)}, or -1 if there is none with the name.
+   * Handles stay valid until the program is linked again.
+   */
+  public int uniformHandle(String name) {
+    Uniform uniform = uniforms.get(name);
+    return uniform == null ? -1 : uniform.handle;
+  }
+
+  public Uniform uniform(int handle) {
+    return handles[handle];
+  }
+
+  /**
+   * Uploads a changed uniform now if the program is in use, or else when it is next bound.
+   */
+  void uniformChanged(GL2GL3 gl, Uniform uniform) {
+    if (GLState.get(gl).program() == id) {
+      uniform.apply(gl);
+    } else if (!uniform.dirty) {
+      uniform.dirty = true;
+      dirty.add(uniform);
+    }
+  }
+
+  /**
+   * Active uniform block with the given name, or null.
+   */
+  public UniformBlock uniformBlock(String name) {
+    return blocks.get(name);
+  }
+
+  public Collection<UniformBlock> getUniformBlocks() {
+    return blocks.values();
+  }
+
   public Attribute attribute(String name) {
     return attributes.get(name);
   }
@@ -128,20 +174,70 @@ public class Program {
 
     // read uniform variables
     uniforms.clear();
+    dirty.clear();
     gl.glGetProgramiv(id, GL2GL3.GL_ACTIVE_UNIFORMS, numActive);
     gl.glGetProgramiv(id, GL2GL3.GL_ACTIVE_UNIFORM_MAX_LENGTH, bufSize);
     nameBuf = ByteBuffer.allocate(bufSize.get(0));
+    handles = new Uniform[numActive.get(0)];
     for (int i = 0; i < numActive.get(0); i++) {
       gl.glGetActiveUniform(id, i, bufSize.get(0), length, size, type, nameBuf);
       String name = new String(nameBuf.array(), 0, length.get(0));
       int loc = gl.glGetUniformLocation(id, name);
-      uniforms.put(name, new Uniform(name, size.get(0), type.get(0), loc));
+      handles[i] = new Uniform(this, i, name, size.get(0), type.get(0), loc);
+      uniforms.put(name, handles[i]);
     }
 
+    readUniformBlocks(gl);
+
     log = null;
     return true;
   }
 
+  /**
+   * Reads the active uniform blocks and the offsets of their members, and binds each block to the
+   * binding point shared by blocks of its name.
+   */
+  private void readUniformBlocks(GL2GL3 gl) {
+    blocks.clear();
+    if (!gl.isFunctionAvailable("glGetActiveUniformBlockiv"))
+      return;
+    int[] params = new int[1];
+    gl.glGetProgramiv(id, GL2GL3.GL_ACTIVE_UNIFORM_BLOCKS, params, 0);
+    int numBlocks = params[0];
+    if (numBlocks == 0)
+      return;
+
+    int numUniforms = handles.length;
+    int[] indices = new int[numUniforms];
+    int[] blockIndices = new int[numUniforms];
+    int[] offsets = new int[numUniforms];
+    for (int i = 0; i < numUniforms; i++)
+      indices[i] = i;
+    if (numUniforms > 0) {
+      gl.glGetActiveUniformsiv(id, numUniforms, indices, 0, GL2GL3.GL_UNIFORM_BLOCK_INDEX,
+          blockIndices, 0);
+      gl.glGetActiveUniformsiv(id, numUniforms, indices, 0, GL2GL3.GL_UNIFORM_OFFSET, offsets, 0);
+    }
+
+    for (int b = 0; b < numBlocks; b++) {
+      gl.glGetActiveUniformBlockiv(id, b, GL2GL3.GL_UNIFORM_BLOCK_NAME_LENGTH, params, 0);
+      byte[] nameBuf = new byte[Math.max(params[0], 1)];
+      int[] length = new int[1];
+      gl.glGetActiveUniformBlockName(id, b, nameBuf.length, length, 0, nameBuf, 0);
+      String name = new String(nameBuf, 0, length[0]);
+      gl.glGetActiveUniformBlockiv(id, b, GL2GL3.GL_UNIFORM_BLOCK_DATA_SIZE, params, 0);
+
+      Map<String, Integer> members = new HashMap<String, Integer>();
+      for (int i = 0; i < numUniforms; i++)
+        if (blockIndices[i] == b)
+          members.put(handles[i].name, offsets[i]);
+
+      UniformBlock block = new UniformBlock(id, name, b, params[0], members);
+      block.setBinding(gl, UniformBlock.bindingPoint(name));
+      blocks.put(name, block);
+    }
+  }
+
   public boolean validate(GL2GL3 gl) {
     gl.glValidateProgram(id);
     IntBuffer status = IntBuffer.allocate(1);
@@ -175,6 +271,7 @@ public class Program {
         }
       }
       gl.glDeleteProgram(id);
+      GLState.get(gl).programDeleted(id);
       id = -1;
     }
   }
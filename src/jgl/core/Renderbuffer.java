@@ -43,6 +43,7 @@ public class Renderbuffer {
   public void delete(GL gl) {
     if (id != -1) {
       gl.glDeleteRenderbuffers(1, new int[] { id }, 0);
+      GLState.get(gl).renderbufferDeleted(id);
       id = -1;
     }
   }
@@ -54,14 +55,14 @@ public class Renderbuffer {
       gl.glGenRenderbuffers(1, temp, 0);
       id = temp[0];
     }
-    gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, id);
+    GLState.get(gl).bindRenderbuffer(gl, id);
   }
 
   /**
    * Binds NULL or 0 to this renderbuffer's target.
    */
   public void unbind(GL gl) {
-    gl.glBindRenderbuffer(GL.GL_RENDERBUFFER, 0);
+    GLState.get(gl).bindRenderbuffer(gl, 0);
   }
 
   /**
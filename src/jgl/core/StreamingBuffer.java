@@ -0,0 +1,208 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.media.opengl.GL2GL3;
+import javax.media.opengl.GL3;
+
+/**
+ * Buffer for data that is rewritten every frame, such as dynamic geometry, per-frame uniforms or
+ * debug lines. The storage is split into a ring of regions (three by default), one per frame in
+ * flight. Each frame sub-allocates from its own region with unsynchronized mapping, so writing
+ * never waits for the GPU to finish reading earlier data.
+ * <p>
+ * A fence is inserted at the end of each frame. Before a region is reused, its fence is waited on,
+ * which only blocks if the GPU is more frames behind than there are regions. Without sync objects
+ * (contexts older than GL 3.2), the whole buffer is orphaned when the ring wraps around instead.
+ * If a frame needs more than its region, the buffer is also orphaned and the frame continues at
+ * the start of fresh storage.
+ * <p>
+ * Usage per frame:
+ *
+ * <pre>
+ * stream.beginFrame(gl);
+ * ByteBuffer vertices = stream.map(gl, size, 16);
+ * ... fill vertices ...
+ * stream.unmap(gl);
+ * gl.glVertexAttribPointer(..., stream.offset());
+ * ...
+ * stream.endFrame(gl);
+ * </pre>
+ *
+ * @author justin
+ */
+public class StreamingBuffer {
+
+  private final GLBuffer buffer;
+  private final long     regionSize;
+  private final long[]   fences;
+  private boolean        allocated;
+  private boolean        sync;
+  private int            region;
+  private long           next;
+  private long           offset;
+  private long           waits;
+  private long           orphans;
+
+  /**
+   * Creates a buffer of three regions of regionSize bytes.
+   */
+  public StreamingBuffer(GLBuffer.Target target, long regionSize) {
+    this(target, regionSize, 3);
+  }
+
+  public StreamingBuffer(GLBuffer.Target target, long regionSize, int regions) {
+    if (regions < 1)
+      throw new IllegalArgumentException("Region count must be at least 1: " + regions);
+    this.buffer = new GLBuffer(target, GLBuffer.Usage.STREAM_DRAW);
+    this.regionSize = regionSize;
+    this.fences = new long[regions];
+  }
+
+  public GLBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Byte offset of the last allocation in the buffer, to be passed as a pointer offset or range
+   * start to GL.
+   */
+  public long offset() {
+    return offset;
+  }
+
+  /**
+   * Number of times the CPU had to wait for the GPU before reusing a region.
+   */
+  public long getWaits() {
+    return waits;
+  }
+
+  /**
+   * Number of times the storage was orphaned.
+   */
+  public long getOrphans() {
+    return orphans;
+  }
+
+  /**
+   * Moves to the next region of the ring, waiting until the GPU has finished with it.
+   */
+  public void beginFrame(GL2GL3 gl) {
+    if (!allocated) {
+      sync = gl.isGL3() && gl.isFunctionAvailable("glFenceSync");
+      orphan(gl);
+      allocated = true;
+      orphans = 0;
+    }
+    region = (region + 1) % fences.length;
+    next = region * regionSize;
+    if (sync) {
+      if (fences[region] != 0) {
+        GL3 gl3 = gl.getGL3();
+        int status = gl3.glClientWaitSync(fences[region], 0, 0);
+        if (status == GL3.GL_TIMEOUT_EXPIRED) {
+          waits++;
+          do {
+            status = gl3.glClientWaitSync(fences[region], GL3.GL_SYNC_FLUSH_COMMANDS_BIT,
+                1000000000L);
+          } while (status == GL3.GL_TIMEOUT_EXPIRED);
+        }
+        gl3.glDeleteSync(fences[region]);
+        fences[region] = 0;
+      }
+    } else if (region == 0) {
+      orphan(gl);
+    }
+  }
+
+  /**
+   * Marks the end of the commands that read the current region.
+   */
+  public void endFrame(GL2GL3 gl) {
+    if (sync) {
+      GL3 gl3 = gl.getGL3();
+      if (fences[region] != 0)
+        gl3.glDeleteSync(fences[region]);
+      fences[region] = gl3.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+  }
+
+  /**
+   * Allocates size bytes of the current region, starting at a multiple of alignment, and maps them
+   * for writing. The buffer stays bound until {@link #unmap(GL2GL3)}; the allocation's offset is
+   * returned by {@link #offset()}.
+   */
+  public ByteBuffer map(GL2GL3 gl, long size, int alignment) {
+    if (size > regionSize)
+      throw new IllegalArgumentException("Allocation exceeds the region size: " + size);
+    if (!allocated)
+      beginFrame(gl);
+
+    long start = (next + alignment - 1) / alignment * alignment;
+    if (start + size > (region + 1) * regionSize) {
+      // the region is full: continue this frame in fresh storage
+      orphan(gl);
+      start = region * regionSize;
+    }
+    offset = start;
+    next = start + size;
+
+    buffer.bind(gl);
+    int access = GL2GL3.GL_MAP_WRITE_BIT | GL2GL3.GL_MAP_UNSYNCHRONIZED_BIT
+        | GL2GL3.GL_MAP_INVALIDATE_RANGE_BIT;
+    ByteBuffer mapped = gl.glMapBufferRange(buffer.getTarget().glConstant, start, size, access);
+    return mapped.order(ByteOrder.nativeOrder());
+  }
+
+  public void unmap(GL2GL3 gl) {
+    buffer.unmap(gl);
+  }
+
+  /**
+   * Copies data (from its position to its limit) into a new allocation. Returns its offset.
+   */
+  public long write(GL2GL3 gl, ByteBuffer data, int alignment) {
+    ByteBuffer mapped = map(gl, data.remaining(), alignment);
+    mapped.put(data.duplicate());
+    unmap(gl);
+    return offset;
+  }
+
+  public void delete(GL2GL3 gl) {
+    if (sync) {
+      for (int i = 0; i < fences.length; i++) {
+        if (fences[i] != 0) {
+          gl.getGL3().glDeleteSync(fences[i]);
+          fences[i] = 0;
+        }
+      }
+    }
+    buffer.delete(gl);
+    allocated = false;
+  }
+
+  /**
+   * Replaces the storage with new storage of the same size. The driver keeps the old storage alive
+   * until the GPU is done with it, so the fences no longer apply.
+   */
+  private void orphan(GL2GL3 gl) {
+    buffer.bind(gl);
+    gl.glBufferData(buffer.getTarget().glConstant, regionSize * fences.length, null,
+        GL2GL3.GL_STREAM_DRAW);
+    orphans++;
+    if (sync) {
+      GL3 gl3 = gl.getGL3();
+      for (int i = 0; i < fences.length; i++) {
+        if (fences[i] != 0) {
+          gl3.glDeleteSync(fences[i]);
+          fences[i] = 0;
+        }
+      }
+    }
+  }
+}
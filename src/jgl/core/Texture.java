@@ -6,12 +6,10 @@ package jgl.core;
 import java.nio.Buffer;
 
 import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
 import javax.media.opengl.GL2GL3;
 
 public class Texture {
-  
-  // OpenGL texture state
-  private static int bound;
 
   /** Texture target */
   public enum Target {
@@ -32,6 +30,8 @@ public class Texture {
   private int    width;
   private int    height;
   private int    depth;
+  private int    internalFormat;
+  private int    levels;
 
   public Texture(Target target) {
     this.target = target;
@@ -57,6 +57,53 @@ public class Texture {
     return depth;
   }
 
+  public int getInternalFormat() {
+    return internalFormat;
+  }
+
+  /**
+   * Number of mipmap levels specified so far, including the base level.
+   */
+  public int getLevels() {
+    return levels;
+  }
+
+  /**
+   * Estimated GPU memory used by the texture: the texels of every level specified, at the size
+   * drivers typically store the internal format with (3-component formats are padded to 4 bytes).
+   */
+  public long getSizeInBytes() {
+    long size = 0;
+    for (int i = 0; i < levels; i++)
+      size += (long) Math.max(1, width >> i) * Math.max(1, height >> i);
+    return size * bytesPerTexel(internalFormat);
+  }
+
+  private static int bytesPerTexel(int internalFormat) {
+    switch (internalFormat) {
+    case GL2GL3.GL_RED:
+    case GL2GL3.GL_R8:
+    case GL2.GL_ALPHA:
+    case GL2.GL_LUMINANCE:
+      return 1;
+    case GL2GL3.GL_RG:
+    case GL2GL3.GL_RG8:
+    case GL2GL3.GL_R16F:
+    case GL2.GL_LUMINANCE_ALPHA:
+    case GL.GL_DEPTH_COMPONENT16:
+      return 2;
+    case GL2GL3.GL_RGBA16F:
+    case GL2GL3.GL_RGB16F:
+    case GL2GL3.GL_RG32F:
+      return 8;
+    case GL2GL3.GL_RGBA32F:
+    case GL2GL3.GL_RGB32F:
+      return 16;
+    default:
+      return 4;
+    }
+  }
+
   public Target getTarget() {
     return target;
   }
@@ -66,8 +113,7 @@ public class Texture {
   }
   
   public void set(GL gl, int parameter, int value) {
-    if (id != bound)
-      bind(gl);
+    bind(gl);
     gl.glTexParameteri(target.glConstant, parameter, value);
   }
 
@@ -79,11 +125,14 @@ public class Texture {
   
   public void setData2D(GL gl, int level, int internalFormat, int width, int height, int format,
       int type, Buffer data) {
-    if (id != bound)
-      bind(gl);
-    this.width = width;
-    this.height = height;
-    this.depth = 0;
+    bind(gl);
+    if (level == 0) {
+      this.width = width;
+      this.height = height;
+      this.depth = 0;
+      this.internalFormat = internalFormat;
+    }
+    levels = Math.max(levels, level + 1);
     gl.glTexImage2D(target.glConstant, level, internalFormat, width, height, 0, format, type, data);
   }
 
@@ -98,25 +147,35 @@ public class Texture {
   public void delete(GL gl) {
     if (id != -1) {
       gl.glDeleteTextures(1, new int[] { id }, 0);
+      GLState.get(gl).textureDeleted(id);
       id = -1;
+      levels = 0;
     }
   }
 
   /**
-   * Binds this texture object to it's target.
+   * Binds this texture object to it's target of the active texture unit.
    */
   public void bind(GL gl) {
     if (id == -1)
       generate(gl);
-    gl.glBindTexture(target.glConstant, id);
-    bound = id;
+    GLState.get(gl).bindTexture(gl, target.glConstant, id);
+  }
+
+  /**
+   * Binds this texture object to it's target of a texture unit (0 for GL_TEXTURE0), which becomes
+   * the active unit.
+   */
+  public void bind(GL gl, int unit) {
+    if (id == -1)
+      generate(gl);
+    GLState.get(gl).bindTexture(gl, unit, target.glConstant, id);
   }
 
   /**
-   * Binds NULL or 0 to this texture object's target.
+   * Binds NULL or 0 to this texture object's target of the active texture unit.
    */
   public void unbind(GL gl) {
-    gl.glBindTexture(target.glConstant, 0);
-    bound = 0;
+    GLState.get(gl).bindTexture(gl, target.glConstant, 0);
   }
 }
@@ -11,18 +11,31 @@ import jgl.math.vector.ConstVec3f;
 import jgl.math.vector.ConstVec4f;
 
 /**
- * GLSL uniform variable.
- * 
+ * GLSL uniform variable. The last value set is kept, and setting a value equal to it does nothing.
+ * A changed value is uploaded immediately if the program is in use; otherwise it is uploaded when
+ * the program is next bound, so uniforms can be set without binding the program first.
+ *
  * @author justin
  */
 public class Uniform {
 
-  public final String name;
-  public final int    size;
-  public final int    type;
-  public final int    loc;
-
-  Uniform(String name, int size, int type, int loc) {
+  public final String     name;
+  public final int        size;
+  public final int        type;
+  public final int        loc;
+  public final int        handle;
+
+  private final Program   program;
+  private int[]           ints   = new int[4];
+  private float[]         floats = new float[4];
+  private boolean         floating;
+  private int             components;
+  private int             length;
+  boolean                 dirty;
+
+  Uniform(Program program, int handle, String name, int size, int type, int loc) {
+    this.program = program;
+    this.handle = handle;
     this.name = name;
     this.size = size;
     this.type = type;
@@ -30,59 +43,59 @@ public class Uniform {
   }
 
   public void set(GL2GL3 gl, int x) {
-    gl.glUniform1i(loc, x);
+    setInts(gl, 1, x, 0, 0, 0);
   }
 
   public void set(GL2GL3 gl, int x, int y) {
-    gl.glUniform2i(loc, x, y);
+    setInts(gl, 2, x, y, 0, 0);
   }
 
   public void set(GL2GL3 gl, int x, int y, int z) {
-    gl.glUniform3i(loc, x, y, z);
+    setInts(gl, 3, x, y, z, 0);
   }
 
   public void set(GL2GL3 gl, int x, int y, int z, int w) {
-    gl.glUniform4i(loc, x, y, z, w);
+    setInts(gl, 4, x, y, z, w);
   }
 
   public void set2(GL2GL3 gl, int[] v) {
-    gl.glUniform2iv(loc, v.length / 2, v, 0);
+    setInts(gl, 2, v);
   }
 
   public void set3(GL2GL3 gl, int[] v) {
-    gl.glUniform3iv(loc, v.length / 3, v, 0);
+    setInts(gl, 3, v);
   }
 
   public void set4(GL2GL3 gl, int[] v) {
-    gl.glUniform4iv(loc, v.length / 4, v, 0);
+    setInts(gl, 4, v);
   }
 
   public void set(GL2GL3 gl, float x) {
-    gl.glUniform1f(loc, x);
+    setFloats(gl, 1, x, 0, 0, 0);
   }
 
   public void set(GL2GL3 gl, float x, float y) {
-    gl.glUniform2f(loc, x, y);
+    setFloats(gl, 2, x, y, 0, 0);
   }
 
   public void set(GL2GL3 gl, float x, float y, float z) {
-    gl.glUniform3f(loc, x, y, z);
+    setFloats(gl, 3, x, y, z, 0);
   }
 
   public void set(GL2GL3 gl, float x, float y, float z, float w) {
-    gl.glUniform4f(loc, x, y, z, w);
+    setFloats(gl, 4, x, y, z, w);
   }
 
   public void set2(GL2GL3 gl, float[] v) {
-    gl.glUniform2fv(loc, v.length / 2, v, 0);
+    setFloats(gl, 2, v);
   }
 
   public void set3(GL2GL3 gl, float[] v) {
-    gl.glUniform3fv(loc, v.length / 3, v, 0);
+    setFloats(gl, 3, v);
   }
 
   public void set4(GL2GL3 gl, float[] v) {
-    gl.glUniform4fv(loc, v.length / 4, v, 0);
+    setFloats(gl, 4, v);
   }
 
   public void set(GL2GL3 gl, ConstVec2f v) {
@@ -98,22 +111,127 @@ public class Uniform {
   }
 
   public void set(GL2GL3 gl, boolean x) {
-    gl.glUniform1i(loc, x ? 1 : 0);
+    set(gl, x ? 1 : 0);
   }
 
   public void set(GL2GL3 gl, boolean x, boolean y) {
-    gl.glUniform2i(loc, x ? 1 : 0, y ? 1 : 0);
+    set(gl, x ? 1 : 0, y ? 1 : 0);
   }
 
   public void set(GL2GL3 gl, boolean x, boolean y, boolean z) {
-    gl.glUniform3i(loc, x ? 1 : 0, y ? 1 : 0, z ? 1 : 0);
+    set(gl, x ? 1 : 0, y ? 1 : 0, z ? 1 : 0);
   }
 
   public void set(GL2GL3 gl, boolean x, boolean y, boolean z, boolean w) {
-    gl.glUniform4i(loc, x ? 1 : 0, y ? 1 : 0, z ? 1 : 0, w ? 1 : 0);
+    set(gl, x ? 1 : 0, y ? 1 : 0, z ? 1 : 0, w ? 1 : 0);
   }
 
   public void set(GL2GL3 gl, Mat4f m) {
-    gl.glUniformMatrix4fv(loc, 1, false, m.a, 0);
+    setFloats(gl, 16, m.a);
+  }
+
+  /**
+   * Forgets the last value, so the next set is uploaded even if the value is the same.
+   */
+  public void invalidate() {
+    components = 0;
+  }
+
+  private void setInts(GL2GL3 gl, int n, int x, int y, int z, int w) {
+    boolean changed = reshape(false, n, n);
+    changed |= put(0, x);
+    if (n > 1)
+      changed |= put(1, y);
+    if (n > 2)
+      changed |= put(2, z);
+    if (n > 3)
+      changed |= put(3, w);
+    if (changed)
+      program.uniformChanged(gl, this);
+  }
+
+  private void setInts(GL2GL3 gl, int n, int[] v) {
+    int count = v.length / n * n;
+    boolean changed = reshape(false, n, count);
+    for (int i = 0; i < count; i++)
+      changed |= put(i, v[i]);
+    if (changed)
+      program.uniformChanged(gl, this);
+  }
+
+  private void setFloats(GL2GL3 gl, int n, float x, float y, float z, float w) {
+    boolean changed = reshape(true, n, n);
+    changed |= put(0, x);
+    if (n > 1)
+      changed |= put(1, y);
+    if (n > 2)
+      changed |= put(2, z);
+    if (n > 3)
+      changed |= put(3, w);
+    if (changed)
+      program.uniformChanged(gl, this);
+  }
+
+  private void setFloats(GL2GL3 gl, int n, float[] v) {
+    int count = v.length / n * n;
+    boolean changed = reshape(true, n, count);
+    for (int i = 0; i < count; i++)
+      changed |= put(i, v[i]);
+    if (changed)
+      program.uniformChanged(gl, this);
+  }
+
+  /**
+   * Prepares the shadow copy for count values set n at a time. Returns true if the previous value
+   * had a different shape (or there was none), in which case it no longer counts as the same.
+   */
+  private boolean reshape(boolean floating, int n, int count) {
+    boolean changed = this.floating != floating || components != n || length != count;
+    if (floating && floats.length < count)
+      floats = new float[count];
+    else if (!floating && ints.length < count)
+      ints = new int[count];
+    this.floating = floating;
+    this.components = n;
+    this.length = count;
+    return changed;
+  }
+
+  private boolean put(int i, int x) {
+    if (ints[i] == x)
+      return false;
+    ints[i] = x;
+    return true;
+  }
+
+  private boolean put(int i, float x) {
+    if (floats[i] == x)
+      return false;
+    floats[i] = x;
+    return true;
+  }
+
+  /**
+   * Uploads the value to the program, which must be in use.
+   */
+  void apply(GL2GL3 gl) {
+    dirty = false;
+    int count = length / components;
+    if (floating) {
+      switch (components) {
+      case 1: gl.glUniform1fv(loc, count, floats, 0); break;
+      case 2: gl.glUniform2fv(loc, count, floats, 0); break;
+      case 3: gl.glUniform3fv(loc, count, floats, 0); break;
+      case 4: gl.glUniform4fv(loc, count, floats, 0); break;
+      case 16: gl.glUniformMatrix4fv(loc, count, false, floats, 0); break;
+      }
+    } else {
+      switch (components) {
+      case 1: gl.glUniform1iv(loc, count, ints, 0); break;
+      case 2: gl.glUniform2iv(loc, count, ints, 0); break;
+      case 3: gl.glUniform3iv(loc, count, ints, 0); break;
+      case 4: gl.glUniform4iv(loc, count, ints, 0); break;
+      }
+    }
   }
 }
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.core;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL2GL3;
+
+/**
+ * GLSL uniform block of a linked program: its size, the offsets of its members, and the binding
+ * point its data is read from.
+ * <p>
+ * Binding points are assigned per block name: the first block linked with a name gets the next free
+ * point, and every later block with the same name gets the same one. A buffer bound to that point
+ * (see {@link UniformBuffer}) is therefore shared by all programs that declare the block, and is
+ * uploaded once rather than once per program.
+ *
+ * @author justin
+ */
+public class UniformBlock {
+
+  private static final Map<String, Integer> points    = new HashMap<String, Integer>();
+  private static int                        nextPoint = 0;
+
+  public final String                       name;
+  public final int                          index;
+  public final int                          size;
+  private final int                         program;
+  private final Map<String, Integer>        offsets;
+  private int                               binding   = -1;
+
+  UniformBlock(int program, String name, int index, int size, Map<String, Integer> offsets) {
+    this.program = program;
+    this.name = name;
+    this.index = index;
+    this.size = size;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Binding point shared by all blocks with the given name.
+   */
+  public static synchronized int bindingPoint(String blockName) {
+    Integer point = points.get(blockName);
+    if (point == null) {
+      while (points.containsValue(nextPoint))
+        nextPoint++;
+      points.put(blockName, point = nextPoint++);
+    }
+    return point;
+  }
+
+  /**
+   * Assigns a binding point to a block name, for instance to match a layout(binding = N)
+   * qualifier. Must be called before any program with the block is linked.
+   */
+  public static synchronized void reserveBindingPoint(String blockName, int point) {
+    points.put(blockName, point);
+  }
+
+  /**
+   * Byte offset of a member in the block, or -1 if the block has no active member with the name.
+   */
+  public int offset(String member) {
+    Integer offset = offsets.get(member);
+    return offset == null ? -1 : offset;
+  }
+
+  public Map<String, Integer> getOffsets() {
+    return Collections.unmodifiableMap(offsets);
+  }
+
+  public int getBinding() {
+    return binding;
+  }
+
+  /**
+   * Makes the block read its data from a binding point.
+   */
+  public void setBinding(GL2GL3 gl, int point) {
+    if (point != binding) {
+      gl.glUniformBlockBinding(program, index, point);
+      binding = point;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.core;
+
+import java.nio.ByteBuffer;
+
+import javax.media.opengl.GL2GL3;
+
+/**
+ * Buffer holding the data of a uniform block, bound to the binding point of the block's name so
+ * that every program declaring the block reads from it. Data is written with the writer returned
+ * by {@link #begin()} and sent to GL by {@link #upload(GL2GL3)}, typically once per frame:
+ *
+ * <pre>
+ * camera.write(cameraBuffer.begin());
+ * cameraBuffer.upload(gl);
+ * </pre>
+ *
+ * @author justin
+ */
+public class UniformBuffer {
+
+  private final GLBuffer    buffer;
+  private final BlockWriter writer;
+  private final int         binding;
+  private int               capacity;
+  private int               alignment;
+
+  /**
+   * Creates a buffer for the block with std140 layout.
+   */
+  public UniformBuffer(String blockName) {
+    this(blockName, BlockWriter.Layout.STD140);
+  }
+
+  public UniformBuffer(String blockName, BlockWriter.Layout layout) {
+    this.buffer = new GLBuffer(GLBuffer.Target.UNIFORM, GLBuffer.Usage.DYNAMIC_DRAW);
+    this.writer = new BlockWriter(layout);
+    this.binding = UniformBlock.bindingPoint(blockName);
+  }
+
+  public GLBuffer getBuffer() {
+    return buffer;
+  }
+
+  public int getBinding() {
+    return binding;
+  }
+
+  /**
+   * Clears the writer and returns it for writing the block's data.
+   */
+  public BlockWriter begin() {
+    return writer.clear();
+  }
+
+  /**
+   * Uploads the data written since {@link #begin()} and binds the buffer to the block's binding
+   * point. The buffer is only reallocated when the data grows.
+   */
+  public void upload(GL2GL3 gl) {
+    ByteBuffer data = writer.data();
+    buffer.bind(gl);
+    if (data.capacity() > capacity) {
+      buffer.setData(gl, data);
+      capacity = data.capacity();
+    } else {
+      buffer.setSubData(gl, 0, data);
+    }
+    buffer.bindBase(gl, binding);
+  }
+
+  /**
+   * Copies the data written since {@link #begin()} into the current frame of a uniform stream, and
+   * binds that range to the block's binding point instead of this object's own buffer. Avoids
+   * stalling when the block is updated more than once per frame.
+   */
+  public void upload(GL2GL3 gl, StreamingBuffer stream) {
+    if (alignment == 0) {
+      int[] value = new int[1];
+      gl.glGetIntegerv(GL2GL3.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT, value, 0);
+      alignment = Math.max(value[0], 1);
+    }
+    ByteBuffer data = writer.data();
+    long offset = stream.write(gl, data, alignment);
+    stream.getBuffer().bindRange(gl, binding, offset, data.remaining());
+  }
+
+  public void delete(GL2GL3 gl) {
+    buffer.delete(gl);
+    capacity = 0;
+  }
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.core;
+
+import javax.media.opengl.GL2GL3;
+
+/**
+ * Reference to an OpenGL vertex array object (VAO), which records the vertex pointers and the
+ * element array buffer binding so they can be restored with a single bind.
+ * 
+ * @author justin
+ */
+public class VertexArray {
+
+  private int id = -1;
+
+  /**
+   * Vertex array's name in the OpenGL context.
+   */
+  public int id() {
+    return id;
+  }
+
+  /**
+   * Returns true if the context supports vertex array objects.
+   */
+  public static boolean isAvailable(GL2GL3 gl) {
+    return gl.isFunctionAvailable("glGenVertexArrays");
+  }
+
+  /**
+   * Deletes the vertex array from the OpenGL context.
+   */
+  public void delete(GL2GL3 gl) {
+    if (id != -1) {
+      gl.glDeleteVertexArrays(1, new int[] { id }, 0);
+      GLState.get(gl).vertexArrayDeleted(id);
+      id = -1;
+    }
+  }
+
+  /**
+   * Binds this vertex array, generating it first if needed.
+   */
+  public void bind(GL2GL3 gl) {
+    if (id == -1) {
+      int[] temp = new int[1];
+      gl.glGenVertexArrays(1, temp, 0);
+      id = temp[0];
+    }
+    GLState.get(gl).bindVertexArray(gl, id);
+  }
+
+  /**
+   * Binds the default vertex array (0).
+   */
+  public void unbind(GL2GL3 gl) {
+    GLState.get(gl).bindVertexArray(gl, 0);
+  }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Strided float view of one attribute of interleaved vertex data, for bulk algorithms that only
+ * need positions, normals or texture coordinates. The view shares content with the vertex buffer
+ * but has its own position, so any number of views can be read by different threads at once.
+ * Component c of vertex i is at float index i * stride + offset + c of {@link #floats}.
+ *
+ * @author justin
+ */
+public class AttributeView {
+
+  public final FloatBuffer floats;
+  public final int         stride;
+  public final int         offset;
+  public final int         count;
+  public final int         numVertices;
+
+  /**
+   * Creates a view of a float attribute.
+   *
+   * @param vertices - interleaved vertex data.
+   * @param numVertices - number of vertices in use.
+   * @param format - layout of the vertex data.
+   * @param attribute - attribute of the format; its components must be floats.
+   */
+  public AttributeView(ByteBuffer vertices, int numVertices, VertexFormat format,
+      VertexFormat.Attribute attribute) {
+    if (attribute.type != VertexFormat.ComponentType.FLOAT)
+      throw new IllegalArgumentException("Attribute " + attribute.name + " is not a float");
+    ByteBuffer b = vertices.duplicate().order(vertices.order());
+    b.clear();
+    this.floats = b.slice().order(vertices.order()).asFloatBuffer();
+    this.stride = format.stride() / 4;
+    this.offset = attribute.offset / 4;
+    this.count = attribute.count;
+    this.numVertices = numVertices;
+  }
+
+  /**
+   * Float index of the first component of a vertex.
+   */
+  public int index(int vertex) {
+    return vertex * stride + offset;
+  }
+
+  public float get(int vertex, int component) {
+    return floats.get(vertex * stride + offset + component);
+  }
+
+  public void set(int vertex, int component, float value) {
+    floats.put(vertex * stride + offset + component, value);
+  }
+
+  /**
+   * Copies the attribute of all vertices into a packed array (count floats per vertex).
+   */
+  public float[] toArray() {
+    float[] packed = new float[numVertices * count];
+    for (int v = 0, i = offset, j = 0; v < numVertices; v++, i += stride)
+      for (int c = 0; c < count; c++)
+        packed[j++] = floats.get(i + c);
+    return packed;
+  }
+}
@@ -0,0 +1,315 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import jgl.math.vector.Mat4f;
+import jgl.math.vector.Vec3f;
+
+/**
+ * Bulk transformation of interleaved vertex data. Positions are multiplied by the matrix and
+ * normals by the inverse-transpose of its upper 3x3 (then renormalized). The kernels read and write
+ * the vertex buffer directly with absolute float offsets, so no vertex objects are created and the
+ * buffer's position is never modified; disjoint ranges can therefore be processed concurrently.
+ *
+ * @author justin
+ */
+public final class BatchTransform {
+
+  /** Ranges with fewer vertices than this are not split any further across worker threads. */
+  public static final int PARALLEL_THRESHOLD = 16384;
+
+  /** Normal matrix of the last matrix passed to transformNormal on each thread. */
+  private static final ThreadLocal<NormalMatrix> LAST_NORMAL_MATRIX =
+      new ThreadLocal<NormalMatrix>() {
+        @Override
+        protected NormalMatrix initialValue() {
+          return new NormalMatrix();
+        }
+      };
+
+  /**
+   * A normal matrix and the upper 3x3 it was computed from.
+   */
+  private static class NormalMatrix {
+    final float[] source = new float[9];
+    final float[] n      = new float[9];
+    boolean       valid;
+
+    float[] of(Mat4f m) {
+      float[] a = m.a;
+      boolean same = valid;
+      for (int c = 0; c < 3 && same; c++)
+        for (int r = 0; r < 3 && same; r++)
+          same = source[c * 3 + r] == a[c * 4 + r];
+      if (!same) {
+        for (int c = 0; c < 3; c++)
+          System.arraycopy(a, c * 4, source, c * 3, 3);
+        normalMatrix(m, n);
+        valid = true;
+      }
+      return n;
+    }
+  }
+
+  /**
+   * Transforms all vertices of the geometry on the calling thread.
+   */
+  public static void transform(Geometry<?> geometry, Mat4f matrix) {
+    transform(geometry, matrix, null);
+  }
+
+  /**
+   * Transforms all vertices of the geometry, splitting the work across the pool. If pool is null
+   * the work is done on the calling thread. The geometry's format must have a position of 3 floats;
+   * a normal is transformed if it is also 3 floats.
+   */
+  public static void transform(Geometry<?> geometry, Mat4f matrix, ForkJoinPool pool) {
+    VertexFormat format = geometry.getFormat();
+    if (format == null)
+      throw new IllegalArgumentException("Vertex type has no format");
+    int positionOffset = format.floatOffset(VertexFormat.Semantic.POSITION, 3);
+    if (positionOffset < 0)
+      throw new IllegalArgumentException("Vertex format has no 3 float position");
+    int normalOffset = format.floatOffset(VertexFormat.Semantic.NORMAL, 3);
+    int stride = format.stride();
+    ChunkedBuffer vertices = geometry.getVertexData();
+    int remaining = geometry.numVertices();
+    for (int i = 0; remaining > 0; i++) {
+      ByteBuffer chunk = vertices.chunk(i);
+      int count = Math.min(chunk.capacity() / stride, remaining);
+      transform(chunk, stride, positionOffset, normalOffset, 0, count, matrix, pool);
+      remaining -= count;
+    }
+  }
+
+  /**
+   * Transforms a range of vertices stored in an interleaved buffer.
+   *
+   * @param vertices - interleaved vertex data; float attributes in the buffer's byte order.
+   * @param stride - size of one vertex in bytes (multiple of 4).
+   * @param positionOffset - byte offset of the 3-component position within a vertex.
+   * @param normalOffset - byte offset of the 3-component normal within a vertex, or -1 if none.
+   * @param first - index of the first vertex to transform.
+   * @param count - number of vertices to transform.
+   * @param matrix - transformation applied to positions.
+   * @param pool - pool used to split the range, or null to run on the calling thread.
+   */
+  public static void transform(ByteBuffer vertices, int stride, int positionOffset,
+      int normalOffset, int first, int count, Mat4f matrix, ForkJoinPool pool) {
+
+    if ((stride & 3) != 0 || (positionOffset & 3) != 0 || ((normalOffset & 3) != 0
+        && normalOffset >= 0))
+      throw new IllegalArgumentException("Stride and attribute offsets must be multiples of 4");
+
+    FloatBuffer floats = asFloats(vertices);
+    float[] normalMatrix = normalOffset < 0 ? null : normalMatrix(matrix);
+    Kernel kernel = new Kernel(floats, stride / 4, positionOffset / 4, normalOffset / 4, matrix.a,
+        normalMatrix, first, first + count);
+
+    if (pool == null || count <= PARALLEL_THRESHOLD)
+      kernel.compute();
+    else
+      pool.invoke(kernel);
+  }
+
+  /**
+   * Transforms one normal by the inverse-transpose of the matrix's upper 3x3 and renormalizes it,
+   * as the bulk kernels do. Used by the per-vertex {@link Vertex#transform(Mat4f)} methods, so the
+   * normal matrix is kept per thread and only recomputed when the matrix changes; transforming a
+   * whole geometry one vertex at a time computes it once.
+   */
+  public static void transformNormal(Mat4f matrix, Vec3f normal) {
+    transformNormal(LAST_NORMAL_MATRIX.get().of(matrix), normal);
+  }
+
+  /**
+   * Transforms one normal by a normal matrix from {@link #normalMatrix(Mat4f, float[])} and
+   * renormalizes it.
+   */
+  public static void transformNormal(float[] n, Vec3f normal) {
+    float x = normal.x, y = normal.y, z = normal.z;
+    float nx = n[0] * x + n[3] * y + n[6] * z;
+    float ny = n[1] * x + n[4] * y + n[7] * z;
+    float nz = n[2] * x + n[5] * y + n[8] * z;
+    float lengthSquared = nx * nx + ny * ny + nz * nz;
+    if (lengthSquared > 0) {
+      float s = 1.0f / (float) Math.sqrt(lengthSquared);
+      nx *= s;
+      ny *= s;
+      nz *= s;
+    }
+    normal.set(nx, ny, nz);
+  }
+
+  /**
+   * True if the bulk kernels give the same result as transforming each vertex with its own
+   * {@link Vertex#transform(Mat4f)}: the format has the vertex's stride and a 3 float position, any
+   * 3 component normal is made of floats, and transform is not overridden outside this package's
+   * vertex classes.
+   */
+  static boolean isBatchable(VertexFormat format, Vertex vertexType) {
+    if (format == null || format.stride() != vertexType.stride()
+        || format.floatOffset(VertexFormat.Semantic.POSITION, 3) < 0)
+      return false;
+    VertexFormat.Attribute normal = format.attribute(VertexFormat.Semantic.NORMAL);
+    if (normal != null && normal.count == 3
+        && format.floatOffset(VertexFormat.Semantic.NORMAL, 3) < 0)
+      return false;
+    try {
+      Class<?> c = vertexType.getClass().getMethod("transform", Mat4f.class).getDeclaringClass();
+      return c == VertexP.class || c == VertexPN.class || c == FormatVertex.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * A float view of the entire byte buffer that shares its content and byte order.
+   */
+  private static FloatBuffer asFloats(ByteBuffer bytes) {
+    ByteBuffer b = bytes.duplicate().order(bytes.order());
+    b.clear();
+    return b.asFloatBuffer();
+  }
+
+  private static float[] normalMatrix(Mat4f m) {
+    return normalMatrix(m, new float[9]);
+  }
+
+  /**
+   * Writes the inverse-transpose of the upper 3x3 of m to dest in column-major order, or the upper
+   * 3x3 itself if it is singular.
+   */
+  public static float[] normalMatrix(Mat4f m, float[] dest) {
+    float[] a = m.a;
+    float a00 = a[0], a10 = a[1], a20 = a[2];
+    float a01 = a[4], a11 = a[5], a21 = a[6];
+    float a02 = a[8], a12 = a[9], a22 = a[10];
+
+    // cofactors; the inverse-transpose is the cofactor matrix over the determinant
+    float c00 = a11 * a22 - a12 * a21;
+    float c01 = a12 * a20 - a10 * a22;
+    float c02 = a10 * a21 - a11 * a20;
+    float c10 = a02 * a21 - a01 * a22;
+    float c11 = a00 * a22 - a02 * a20;
+    float c12 = a01 * a20 - a00 * a21;
+    float c20 = a01 * a12 - a02 * a11;
+    float c21 = a02 * a10 - a00 * a12;
+    float c22 = a00 * a11 - a01 * a10;
+
+    float det = a00 * c00 + a01 * c01 + a02 * c02;
+    if (det == 0) {
+      dest[0] = a00;
+      dest[1] = a10;
+      dest[2] = a20;
+      dest[3] = a01;
+      dest[4] = a11;
+      dest[5] = a21;
+      dest[6] = a02;
+      dest[7] = a12;
+      dest[8] = a22;
+      return dest;
+    }
+
+    float s = 1.0f / det;
+    dest[0] = c00 * s;
+    dest[1] = c10 * s;
+    dest[2] = c20 * s;
+    dest[3] = c01 * s;
+    dest[4] = c11 * s;
+    dest[5] = c21 * s;
+    dest[6] = c02 * s;
+    dest[7] = c12 * s;
+    dest[8] = c22 * s;
+    return dest;
+  }
+
+  /**
+   * Transforms the vertex range [start, end); splits itself in half when run inside a pool.
+   */
+  @SuppressWarnings("serial")
+  private static class Kernel extends RecursiveAction {
+
+    final FloatBuffer buf;
+    final int         stride;
+    final int         position;
+    final int         normal;
+    final float[]     m;
+    final float[]     n;
+    final int         start;
+    final int         end;
+
+    Kernel(FloatBuffer buf, int stride, int position, int normal, float[] m, float[] n, int start,
+        int end) {
+      this.buf = buf;
+      this.stride = stride;
+      this.position = position;
+      this.normal = normal;
+      this.m = m;
+      this.n = n;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (getPool() != null && end - start > PARALLEL_THRESHOLD) {
+        int mid = (start + end) >>> 1;
+        invokeAll(new Kernel(buf, stride, position, normal, m, n, start, mid), new Kernel(buf,
+            stride, position, normal, m, n, mid, end));
+        return;
+      }
+
+      transformPositions();
+      if (n != null)
+        transformNormals();
+    }
+
+    private void transformPositions() {
+      float m00 = m[0], m10 = m[1], m20 = m[2];
+      float m01 = m[4], m11 = m[5], m21 = m[6];
+      float m02 = m[8], m12 = m[9], m22 = m[10];
+      float m03 = m[12], m13 = m[13], m23 = m[14];
+
+      for (int i = start * stride + position, last = end * stride; i < last; i += stride) {
+        float x = buf.get(i);
+        float y = buf.get(i + 1);
+        float z = buf.get(i + 2);
+        buf.put(i, m00 * x + m01 * y + m02 * z + m03);
+        buf.put(i + 1, m10 * x + m11 * y + m12 * z + m13);
+        buf.put(i + 2, m20 * x + m21 * y + m22 * z + m23);
+      }
+    }
+
+    private void transformNormals() {
+      float n00 = n[0], n10 = n[1], n20 = n[2];
+      float n01 = n[3], n11 = n[4], n21 = n[5];
+      float n02 = n[6], n12 = n[7], n22 = n[8];
+
+      for (int i = start * stride + normal, last = end * stride; i < last; i += stride) {
+        float x = buf.get(i);
+        float y = buf.get(i + 1);
+        float z = buf.get(i + 2);
+        float nx = n00 * x + n01 * y + n02 * z;
+        float ny = n10 * x + n11 * y + n12 * z;
+        float nz = n20 * x + n21 * y + n22 * z;
+        float lengthSquared = nx * nx + ny * ny + nz * nz;
+        if (lengthSquared > 0) {
+          float s = 1.0f / (float) Math.sqrt(lengthSquared);
+          nx *= s;
+          ny *= s;
+          nz *= s;
+        }
+        buf.put(i, nx);
+        buf.put(i + 1, ny);
+        buf.put(i + 2, nz);
+      }
+    }
+  }
+}
@@ -0,0 +1,375 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+
+import jgl.core.GLBuffer;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Stores many small geometries of one vertex format in a few large vertex and index buffers (arenas),
+ * so that drawing them does not need a buffer switch per geometry. Each geometry is given a range
+ * of vertices and a range of indices within an arena, found first-fit in a free list that merges
+ * adjacent free ranges when an allocation is freed. A new arena is created when none has room.
+ * <p>
+ * Indices are stored as unsigned ints, rebased at upload by the first vertex of the geometry's
+ * range, so an arena is drawn with plain glDrawElements and byte offsets. (glDrawElementsBaseVertex
+ * would avoid the rebasing, but this JOGL version only accepts client-side indices for it.)
+ * Non-indexed geometry is drawn from its first vertex with glDrawArrays.
+ * <p>
+ * Allocations are drawn between {@link #begin(GL2)} and {@link #end(GL2)}; vertex pointers are only
+ * set up again when consecutive draws come from different arenas, so other vertex arrays must not
+ * be used in between. Freeing allocations can leave arenas fragmented; {@link #defragment(GL2)}
+ * packs all live allocations into as few arenas as possible by uploading them again from their
+ * geometry.
+ *
+ * @author justin
+ */
+public class BufferPool {
+
+  private final VertexFormat format;
+  private final int          arenaVertices;
+  private final int          arenaIndices;
+  private final List<Arena>  arenas = new ArrayList<Arena>();
+  private Arena              current;
+
+  /**
+   * Creates a pool whose arenas hold arenaVertices vertices and arenaIndices indices (or more, if
+   * a single geometry needs it).
+   */
+  public BufferPool(VertexFormat format, int arenaVertices, int arenaIndices) {
+    this.format = format;
+    this.arenaVertices = arenaVertices;
+    this.arenaIndices = arenaIndices;
+  }
+
+  /**
+   * A geometry's ranges within an arena.
+   */
+  public class Allocation {
+
+    private final Geometry<?> geometry;
+    private final int         numVertices;
+    private final int         numIndices;
+    private Arena             arena;
+    private int               firstVertex;
+    private int               firstIndex;
+
+    Allocation(Geometry<?> geometry) {
+      this.geometry = geometry;
+      this.numVertices = geometry.numVertices();
+      this.numIndices = geometry.numIndices();
+    }
+
+    public Geometry<?> getGeometry() {
+      return geometry;
+    }
+
+    /**
+     * Index of the geometry's first vertex in the arena's vertex buffer.
+     */
+    public int firstVertex() {
+      return firstVertex;
+    }
+
+    /**
+     * Position of the geometry's first index in the arena's index buffer.
+     */
+    public int firstIndex() {
+      return firstIndex;
+    }
+
+    public boolean isFreed() {
+      return arena == null;
+    }
+
+    /**
+     * Draws the whole geometry.
+     */
+    public void draw(GL2 gl) {
+      draw(gl, 0, numIndices > 0 ? numIndices : numVertices);
+    }
+
+    /**
+     * Draws count elements (indices, or vertices if the geometry has no indices) starting at
+     * offset, like a {@link Mesh.MeshPart}.
+     */
+    public void draw(GL2 gl, int offset, int count) {
+      bind(gl, arena);
+      int mode = geometry.getPrimitive().glConstant;
+      if (numIndices > 0)
+        gl.glDrawElements(mode, count, GL.GL_UNSIGNED_INT, (firstIndex + offset) * 4L);
+      else
+        gl.glDrawArrays(mode, firstVertex + offset, count);
+    }
+
+    /**
+     * Returns the ranges to the pool.
+     */
+    public void free() {
+      if (arena != null) {
+        arena.vertices.free(firstVertex, numVertices);
+        arena.indices.free(firstIndex, numIndices);
+        arena.allocations.remove(this);
+        arena = null;
+      }
+    }
+  }
+
+  /**
+   * Copies a geometry into the pool. The geometry's vertex format must be the pool's, and it must
+   * not be chunked.
+   */
+  public Allocation allocate(GL2 gl, Geometry<?> geometry) {
+    if (!format.equals(geometry.getFormat()))
+      throw new IllegalArgumentException("Geometry has a different vertex format than the pool");
+    if (geometry.isChunked())
+      throw new IllegalArgumentException("Chunked geometry is too large to pool");
+    Allocation allocation = new Allocation(geometry);
+    place(gl, allocation);
+    return allocation;
+  }
+
+  /**
+   * Starts drawing allocations.
+   */
+  public void begin(GL2 gl) {
+    current = null;
+  }
+
+  /**
+   * Ends drawing allocations and clears the vertex pointers.
+   */
+  public void end(GL2 gl) {
+    if (current != null) {
+      format.endArrays(gl);
+      current = null;
+    }
+  }
+
+  public int numArenas() {
+    return arenas.size();
+  }
+
+  /**
+   * Fraction of free vertex space that is not part of the largest free range of its arena: 0 if
+   * every arena's free space is contiguous, approaching 1 if it is scattered in small pieces.
+   */
+  public float fragmentation() {
+    long free = 0;
+    long largest = 0;
+    for (Arena arena : arenas) {
+      free += arena.vertices.available();
+      largest += arena.vertices.largest();
+    }
+    return free == 0 ? 0 : 1 - (float) largest / free;
+  }
+
+  /**
+   * Packs all live allocations into new arenas, largest first, and deletes the old ones.
+   */
+  public void defragment(GL2 gl) {
+    List<Allocation> live = new ArrayList<Allocation>();
+    for (Arena arena : arenas) {
+      live.addAll(arena.allocations);
+      arena.delete(gl);
+    }
+    arenas.clear();
+    current = null;
+
+    Collections.sort(live, new Comparator<Allocation>() {
+      public int compare(Allocation a, Allocation b) {
+        return b.numVertices - a.numVertices;
+      }
+    });
+    for (Allocation allocation : live)
+      place(gl, allocation);
+  }
+
+  /**
+   * Deletes all arenas; every allocation becomes freed.
+   */
+  public void dispose(GL2 gl) {
+    for (Arena arena : arenas) {
+      for (Allocation allocation : arena.allocations)
+        allocation.arena = null;
+      arena.delete(gl);
+    }
+    arenas.clear();
+    current = null;
+  }
+
+  private void place(GL2 gl, Allocation allocation) {
+    for (Arena arena : arenas)
+      if (arena.place(allocation))
+        break;
+    if (allocation.arena == null) {
+      Arena arena = new Arena(gl, Math.max(arenaVertices, allocation.numVertices), Math.max(
+          arenaIndices, allocation.numIndices));
+      arenas.add(arena);
+      arena.place(allocation);
+    }
+    upload(gl, allocation);
+  }
+
+  private void upload(GL2 gl, Allocation allocation) {
+    Arena arena = allocation.arena;
+    Geometry<?> geometry = allocation.geometry;
+    int stride = format.stride();
+
+    ByteBuffer vertices = Mesh.range(geometry.getVertices(), 0, allocation.numVertices * stride);
+    arena.vbo.bind(gl);
+    arena.vbo.setSubData(gl, (long) allocation.firstVertex * stride, vertices);
+
+    if (allocation.numIndices > 0) {
+      ByteBuffer src = geometry.getIndices();
+      IntBuffer indices = Buffers.newDirectIntBuffer(allocation.numIndices);
+      int base = allocation.firstVertex;
+      for (int i = 0; i < allocation.numIndices; i++) {
+        switch (geometry.getIndexType()) {
+        case UBYTE:
+          indices.put(i, base + (src.get(i) & 0xFF));
+          break;
+        case USHORT:
+          indices.put(i, base + (src.getShort(i * 2) & 0xFFFF));
+          break;
+        default:
+          indices.put(i, base + src.getInt(i * 4));
+        }
+      }
+      arena.ibo.bind(gl);
+      arena.ibo.setSubData(gl, allocation.firstIndex * 4L, indices);
+    }
+    current = null;
+  }
+
+  private void bind(GL2 gl, Arena arena) {
+    if (arena == null)
+      throw new IllegalStateException("Allocation has been freed");
+    if (current != arena) {
+      arena.vbo.bind(gl);
+      format.startArrays(gl);
+      arena.ibo.bind(gl);
+      current = arena;
+    }
+  }
+
+  private class Arena {
+
+    final GLBuffer         vbo         = new GLBuffer(GLBuffer.Target.ARRAY,
+                                           GLBuffer.Usage.STATIC_DRAW);
+    final GLBuffer         ibo         = new GLBuffer(GLBuffer.Target.ELEMENT_ARRAY,
+                                           GLBuffer.Usage.STATIC_DRAW);
+    final Ranges           vertices;
+    final Ranges           indices;
+    final List<Allocation> allocations = new ArrayList<Allocation>();
+
+    Arena(GL2 gl, int numVertices, int numIndices) {
+      vertices = new Ranges(numVertices);
+      indices = new Ranges(numIndices);
+      vbo.bind(gl);
+      gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) numVertices * format.stride(), null,
+          GL.GL_STATIC_DRAW);
+      ibo.bind(gl);
+      gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, numIndices * 4L, null, GL.GL_STATIC_DRAW);
+    }
+
+    boolean place(Allocation allocation) {
+      int firstVertex = vertices.allocate(allocation.numVertices);
+      if (firstVertex < 0)
+        return false;
+      int firstIndex = indices.allocate(allocation.numIndices);
+      if (firstIndex < 0) {
+        vertices.free(firstVertex, allocation.numVertices);
+        return false;
+      }
+      allocation.arena = this;
+      allocation.firstVertex = firstVertex;
+      allocation.firstIndex = firstIndex;
+      allocations.add(allocation);
+      return true;
+    }
+
+    void delete(GL2 gl) {
+      vbo.delete(gl);
+      ibo.delete(gl);
+    }
+  }
+
+  /**
+   * Free ranges of [0, capacity), keyed by start. Allocation is first-fit; freed ranges are merged
+   * with adjacent free ranges.
+   */
+  static class Ranges {
+
+    final TreeMap<Integer, Integer> free = new TreeMap<Integer, Integer>();
+    final int                       capacity;
+    int                             used;
+
+    Ranges(int capacity) {
+      this.capacity = capacity;
+      if (capacity > 0)
+        free.put(0, capacity);
+    }
+
+    /**
+     * Returns the start of a free range of size units, or -1 if there is none.
+     */
+    int allocate(int size) {
+      if (size == 0)
+        return 0;
+      for (Map.Entry<Integer, Integer> range : free.entrySet()) {
+        int start = range.getKey();
+        int length = range.getValue();
+        if (length >= size) {
+          free.remove(start);
+          if (length > size)
+            free.put(start + size, length - size);
+          used += size;
+          return start;
+        }
+      }
+      return -1;
+    }
+
+    void free(int start, int size) {
+      if (size == 0)
+        return;
+      used -= size;
+      int end = start + size;
+      Map.Entry<Integer, Integer> before = free.floorEntry(start);
+      if (before != null && before.getKey() + before.getValue() == start) {
+        start = before.getKey();
+        free.remove(start);
+      }
+      Integer after = free.remove(end);
+      if (after != null)
+        end += after;
+      free.put(start, end - start);
+    }
+
+    int available() {
+      return capacity - used;
+    }
+
+    int largest() {
+      int largest = 0;
+      for (int length : free.values())
+        largest = Math.max(largest, length);
+      return largest;
+    }
+  }
+}
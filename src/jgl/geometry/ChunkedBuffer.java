@@ -0,0 +1,182 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import javax.media.opengl.GL;
+
+import jgl.core.GLBuffer;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Byte storage addressed by long offsets, for data larger than the 2 GB a single ByteBuffer can
+ * hold. The storage is split into direct or memory-mapped chunks whose size is a multiple of an
+ * element size (such as a vertex stride), so an element never spans two chunks and can be accessed
+ * through a single ByteBuffer. {@link Geometry} keeps vertex or index data in one when the data is
+ * too large for a single buffer.
+ *
+ * @author justin
+ */
+public class ChunkedBuffer {
+
+  /** Chunks hold at most this many bytes, rounded down to a whole number of elements. */
+  public static final long MAX_CHUNK_SIZE = 1L << 30;
+
+  private final ByteBuffer[] chunks;
+  private final long         chunkSize;
+  private final long         size;
+  private final int          elementSize;
+
+  private ChunkedBuffer(ByteBuffer[] chunks, long chunkSize, long size, int elementSize) {
+    this.chunks = chunks;
+    this.chunkSize = chunkSize;
+    this.size = size;
+    this.elementSize = elementSize;
+  }
+
+  /**
+   * Allocates size bytes of direct memory in native byte order.
+   */
+  public static ChunkedBuffer allocate(long size, int elementSize) {
+    long chunkSize = chunkSize(elementSize);
+    ByteBuffer[] chunks = new ByteBuffer[numChunks(size, chunkSize)];
+    for (int i = 0; i < chunks.length; i++)
+      chunks[i] = Buffers.newDirectByteBuffer((int) Math.min(chunkSize, size - i * chunkSize));
+    return new ChunkedBuffer(chunks, chunkSize, size, elementSize);
+  }
+
+  /**
+   * Maps size bytes of a file starting at offset, one mapping per chunk. Only READ_WRITE mappings
+   * may extend the file. Mapped buffers remain valid after the channel is closed.
+   */
+  public static ChunkedBuffer map(FileChannel channel, MapMode mode, long offset, long size,
+      int elementSize) throws IOException {
+    if (offset + size > channel.size() && mode != MapMode.READ_WRITE)
+      throw new IOException("File is too short to map " + size + " bytes at " + offset);
+    long chunkSize = chunkSize(elementSize);
+    ByteBuffer[] chunks = new ByteBuffer[numChunks(size, chunkSize)];
+    for (int i = 0; i < chunks.length; i++) {
+      long start = i * chunkSize;
+      chunks[i] = channel.map(mode, offset + start, Math.min(chunkSize, size - start));
+      chunks[i].order(ByteOrder.nativeOrder());
+    }
+    return new ChunkedBuffer(chunks, chunkSize, size, elementSize);
+  }
+
+  /**
+   * A single chunk that shares content and byte order with an existing buffer.
+   */
+  public static ChunkedBuffer wrap(ByteBuffer buffer, int elementSize) {
+    return new ChunkedBuffer(new ByteBuffer[] { buffer }, Math.max(buffer.capacity(), 1),
+        buffer.capacity(), elementSize);
+  }
+
+  private static long chunkSize(int elementSize) {
+    if (elementSize <= 0)
+      throw new IllegalArgumentException("Element size must be positive: " + elementSize);
+    return MAX_CHUNK_SIZE / elementSize * elementSize;
+  }
+
+  private static int numChunks(long size, long chunkSize) {
+    return (int) Math.max((size + chunkSize - 1) / chunkSize, 1);
+  }
+
+  /**
+   * Total size in bytes.
+   */
+  public long size() {
+    return size;
+  }
+
+  public int elementSize() {
+    return elementSize;
+  }
+
+  public int numChunks() {
+    return chunks.length;
+  }
+
+  /**
+   * Size in bytes of every chunk but the last.
+   */
+  public long chunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Chunk i itself; absolute offsets into it are relative to i * chunkSize().
+   */
+  public ByteBuffer chunk(int i) {
+    return chunks[i];
+  }
+
+  /**
+   * View of the element that starts at offset: a buffer of elementSize bytes with its own position,
+   * sharing content with the chunk that holds it.
+   */
+  public ByteBuffer element(long offset) {
+    ByteBuffer chunk = chunks[(int) (offset / chunkSize)];
+    ByteBuffer b = chunk.duplicate().order(chunk.order());
+    int start = (int) (offset % chunkSize);
+    b.position(start).limit(start + elementSize);
+    return b;
+  }
+
+  public byte get(long offset) {
+    return chunks[(int) (offset / chunkSize)].get((int) (offset % chunkSize));
+  }
+
+  public void put(long offset, byte value) {
+    chunks[(int) (offset / chunkSize)].put((int) (offset % chunkSize), value);
+  }
+
+  public short getShort(long offset) {
+    return chunks[(int) (offset / chunkSize)].getShort((int) (offset % chunkSize));
+  }
+
+  public void putShort(long offset, short value) {
+    chunks[(int) (offset / chunkSize)].putShort((int) (offset % chunkSize), value);
+  }
+
+  public int getInt(long offset) {
+    return chunks[(int) (offset / chunkSize)].getInt((int) (offset % chunkSize));
+  }
+
+  public void putInt(long offset, int value) {
+    chunks[(int) (offset / chunkSize)].putInt((int) (offset % chunkSize), value);
+  }
+
+  public float getFloat(long offset) {
+    return chunks[(int) (offset / chunkSize)].getFloat((int) (offset % chunkSize));
+  }
+
+  public void putFloat(long offset, float value) {
+    chunks[(int) (offset / chunkSize)].putFloat((int) (offset % chunkSize), value);
+  }
+
+  /**
+   * Allocates the buffer object's storage and copies the data into it with glBufferSubData calls
+   * of at most maxRange bytes each, since drivers may fail or stall on very large single uploads.
+   * The buffer is left bound.
+   */
+  public void upload(GL gl, GLBuffer buffer, long maxRange) {
+    buffer.bind(gl);
+    buffer.allocate(gl, size);
+    for (int i = 0; i < chunks.length; i++) {
+      ByteBuffer chunk = chunks[i];
+      for (long start = 0; start < chunk.capacity(); start += maxRange) {
+        long end = Math.min(chunk.capacity(), start + maxRange);
+        ByteBuffer range = chunk.duplicate();
+        range.position((int) start).limit((int) end);
+        buffer.setSubData(gl, i * chunkSize + start, range.slice());
+      }
+    }
+  }
+}
@@ -0,0 +1,386 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import jgl.geometry.Vertex.Constructor;
+import jgl.math.vector.Mat4f;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Geometry whose vertices and indices can be appended and removed after creation. The buffers have
+ * a capacity larger than the number of vertices and indices in use, and are reallocated at twice
+ * the size when full. Indices start as unsigned bytes and are promoted to shorts and then ints
+ * once the vertex count needs it.
+ * <p>
+ * Writes are recorded as dirty byte ranges of the vertex and index buffers, so a copy of the data
+ * in a buffer object can be updated with glBufferSubData for just those ranges (see
+ * {@link Mesh#drawVBO(javax.media.opengl.GL2)}). If the buffers were reallocated or the index type
+ * changed, {@link #isResized()} is true and the whole buffers must be uploaded again. The consumer
+ * of the ranges calls {@link #clearDirty()} after uploading.
+ * <p>
+ * Reallocation replaces the buffers, so cursors and attribute views created earlier no longer see
+ * new writes.
+ *
+ * @author justin
+ */
+public class DynamicGeometry<T extends Vertex> extends Geometry<T> {
+
+  private final DirtyRanges dirtyVertices = new DirtyRanges();
+  private final DirtyRanges dirtyIndices  = new DirtyRanges();
+  private final boolean     indexed;
+  private int               numVertices;
+  private int               numIndices;
+  private boolean           resized;
+
+  /**
+   * Creates empty geometry with room for 16 vertices (and 16 indices if indexed).
+   */
+  public DynamicGeometry(Primitive type, Constructor<T> constructor, boolean indexed) {
+    this(type, constructor, 16, indexed ? 16 : 0);
+  }
+
+  /**
+   * Creates empty geometry with initial capacities. The geometry is indexed if indexCapacity is
+   * greater than 0.
+   */
+  public DynamicGeometry(Primitive type, Constructor<T> constructor, int vertexCapacity,
+      int indexCapacity) {
+    super(type, constructor);
+    this.indexed = indexCapacity > 0;
+    int stride = getVertexType().stride();
+    ByteBuffer vertices = Buffers.newDirectByteBuffer(Math.max(vertexCapacity, 1) * stride);
+    if (indexed)
+      setBuffers(vertices, IndexType.UBYTE, Buffers.newDirectByteBuffer(indexCapacity));
+    else
+      setBuffers(vertices, IndexType.NONE, null);
+    resized = true;
+  }
+
+  @Override
+  public int numVertices() {
+    return numVertices;
+  }
+
+  @Override
+  public int numIndices() {
+    return numIndices;
+  }
+
+  public int vertexCapacity() {
+    return getVertices().capacity() / getVertexType().stride();
+  }
+
+  public int indexCapacity() {
+    return indexed ? getIndices().capacity() / getIndexType().size : 0;
+  }
+
+  /**
+   * True if the buffers were reallocated (or the index type changed) since the last
+   * {@link #clearDirty()}.
+   */
+  public boolean isResized() {
+    return resized;
+  }
+
+  /**
+   * Byte ranges of the vertex buffer written since the last {@link #clearDirty()}.
+   */
+  public DirtyRanges getDirtyVertices() {
+    return dirtyVertices;
+  }
+
+  /**
+   * Byte ranges of the index buffer written since the last {@link #clearDirty()}.
+   */
+  public DirtyRanges getDirtyIndices() {
+    return dirtyIndices;
+  }
+
+  public void clearDirty() {
+    dirtyVertices.clear();
+    dirtyIndices.clear();
+    resized = false;
+  }
+
+  /**
+   * Adds a vertex after the last one and returns its position.
+   */
+  public int appendVertex(T vertex) {
+    putVertex(numVertices, vertex);
+    return numVertices - 1;
+  }
+
+  /**
+   * Adds indices after the last one.
+   */
+  public void appendIndices(int... values) {
+    ensureIndexCapacity(numIndices + values.length);
+    int first = numIndices;
+    for (int i = 0; i < values.length; i++)
+      writeIndex(first + i, values[i]);
+    numIndices += values.length;
+    markIndices(first, numIndices);
+    super.markDirty();
+  }
+
+  /**
+   * Removes count vertices starting at first, moving the following vertices down. Indices that refer
+   * to the moved vertices are adjusted; indices that refer to the removed vertices are not, so the
+   * primitives using them should be removed first.
+   */
+  public void removeVertices(int first, int count) {
+    int stride = getVertexType().stride();
+    move(getVertices(), (first + count) * stride, first * stride, (numVertices - first - count)
+        * stride);
+    markVertices(first, numVertices);
+    numVertices -= count;
+    for (int i = 0; i < numIndices; i++) {
+      int index = getIndex(i);
+      if (index >= first + count) {
+        writeIndex(i, index - count);
+        markIndices(i, i + 1);
+      }
+    }
+    super.markDirty();
+  }
+
+  /**
+   * Removes count indices starting at first, moving the following indices down.
+   */
+  public void removeIndices(int first, int count) {
+    int size = getIndexType().size;
+    move(getIndices(), (first + count) * size, first * size, (numIndices - first - count) * size);
+    markIndices(first, numIndices);
+    numIndices -= count;
+    super.markDirty();
+  }
+
+  /**
+   * Removes all vertices and indices. Capacity is kept.
+   */
+  public void clear() {
+    numVertices = 0;
+    numIndices = 0;
+    rewind();
+    super.markDirty();
+  }
+
+  /**
+   * Writes vertex at the current vertex position, then increments the position. Writing past the
+   * last vertex appends.
+   */
+  @Override
+  public void putVertex(T vertex) {
+    int position = vertexPosition();
+    grow(position + 1);
+    super.putVertex(vertex);
+    markVertices(position, position + 1);
+  }
+
+  /**
+   * Writes vertex at the specified vertex position. Writing past the last vertex appends.
+   */
+  @Override
+  public void putVertex(int position, T vertex) {
+    grow(position + 1);
+    super.putVertex(position, vertex);
+    markVertices(position, position + 1);
+  }
+
+  /**
+   * Writes index at the current index position, then increments the position. Writing past the
+   * last index appends.
+   */
+  @Override
+  public void putIndex(int value) {
+    int position = indexPosition();
+    ensureIndexCapacity(position + 1);
+    numIndices = Math.max(numIndices, position + 1);
+    super.putIndex(value);
+    markIndices(position, position + 1);
+  }
+
+  /**
+   * Writes index at the specified index position. Writing past the last index appends.
+   */
+  @Override
+  public void putIndex(int position, int value) {
+    ensureIndexCapacity(position + 1);
+    numIndices = Math.max(numIndices, position + 1);
+    writeIndex(position, value);
+    markIndices(position, position + 1);
+    super.markDirty();
+  }
+
+  /**
+   * Marks all vertices and indices in use as dirty.
+   */
+  @Override
+  public void markDirty() {
+    super.markDirty();
+    markVertices(0, numVertices);
+    markIndices(0, numIndices);
+  }
+
+  @Override
+  public void transform(Mat4f matrix) {
+    super.transform(matrix);
+    markVertices(0, numVertices);
+  }
+
+  @Override
+  public void transform(Mat4f matrix, ForkJoinPool pool) {
+    super.transform(matrix, pool);
+    markVertices(0, numVertices);
+  }
+
+  /**
+   * Makes room for at least numVertices vertices and counts them as in use, promoting the index
+   * type if needed.
+   */
+  private void grow(int numVertices) {
+    if (numVertices > vertexCapacity()) {
+      int capacity = Math.max(numVertices, vertexCapacity() * 2);
+      ByteBuffer vertices = copy(getVertices(), capacity * getVertexType().stride());
+      setBuffers(vertices, getIndexType(), getIndices());
+      resized = true;
+    }
+    this.numVertices = Math.max(this.numVertices, numVertices);
+
+    if (indexed) {
+      IndexType required = IndexType.fromVertexCount(this.numVertices);
+      if (required.size > getIndexType().size) {
+        ByteBuffer indices = Buffers.newDirectByteBuffer(indexCapacity() * required.size);
+        for (int i = 0; i < numIndices; i++)
+          putIndex(indices, required, i, getIndex(i));
+        indices.position(indexPosition() * required.size);
+        setBuffers(getVertices(), required, indices);
+        resized = true;
+      }
+    }
+  }
+
+  private void ensureIndexCapacity(int numIndices) {
+    if (!indexed)
+      throw new IllegalStateException("Geometry has no indices");
+    if (numIndices > indexCapacity()) {
+      int capacity = Math.max(numIndices, indexCapacity() * 2);
+      ByteBuffer indices = copy(getIndices(), capacity * getIndexType().size);
+      setBuffers(getVertices(), getIndexType(), indices);
+      resized = true;
+    }
+  }
+
+  private void writeIndex(int position, int value) {
+    putIndex(getIndices(), getIndexType(), position, value);
+  }
+
+  private void markVertices(int first, int end) {
+    int stride = getVertexType().stride();
+    dirtyVertices.add(first * stride, end * stride);
+  }
+
+  private void markIndices(int first, int end) {
+    int size = getIndexType().size;
+    dirtyIndices.add(first * size, end * size);
+  }
+
+  private static void putIndex(ByteBuffer indices, IndexType type, int position, int value) {
+    switch (type) {
+    case UBYTE:
+      indices.put(position, (byte) value);
+      break;
+    case USHORT:
+      indices.putShort(position * 2, (short) value);
+      break;
+    default:
+      indices.putInt(position * 4, value);
+    }
+  }
+
+  /**
+   * Copies a buffer into a new buffer of a larger capacity, keeping its position.
+   */
+  private static ByteBuffer copy(ByteBuffer src, int capacity) {
+    ByteBuffer dst = Buffers.newDirectByteBuffer(capacity);
+    ByteBuffer b = src.duplicate();
+    b.clear();
+    dst.put(b);
+    dst.position(src.position());
+    return dst;
+  }
+
+  private static void move(ByteBuffer buffer, int from, int to, int length) {
+    if (length <= 0)
+      return;
+    ByteBuffer src = buffer.duplicate();
+    src.position(from).limit(from + length);
+    byte[] moved = new byte[length];
+    src.get(moved);
+    ByteBuffer dst = buffer.duplicate();
+    dst.position(to);
+    dst.put(moved);
+  }
+
+  /**
+   * Merged list of [start, end) byte ranges. When more than a few disjoint ranges have been added,
+   * they are merged into the range that covers all of them, since a few large uploads are cheaper
+   * than many small ones.
+   */
+  public static class DirtyRanges {
+
+    private static final int MAX_RANGES = 8;
+
+    private final int[]      starts     = new int[MAX_RANGES];
+    private final int[]      ends       = new int[MAX_RANGES];
+    private int              size;
+
+    public int size() {
+      return size;
+    }
+
+    public boolean isEmpty() {
+      return size == 0;
+    }
+
+    public int start(int i) {
+      return starts[i];
+    }
+
+    public int end(int i) {
+      return ends[i];
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    void add(int start, int end) {
+      // merge with every range it overlaps or touches
+      for (int i = 0; i < size; i++) {
+        if (start <= ends[i] && end >= starts[i]) {
+          start = Math.min(start, starts[i]);
+          end = Math.max(end, ends[i]);
+          starts[i] = starts[size - 1];
+          ends[i] = ends[size - 1];
+          size--;
+          i = -1;
+        }
+      }
+      if (size == MAX_RANGES) {
+        for (int i = 0; i < size; i++) {
+          start = Math.min(start, starts[i]);
+          end = Math.max(end, ends[i]);
+        }
+        size = 0;
+      }
+      starts[size] = start;
+      ends[size++] = end;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.media.opengl.GL2;
+
+import jgl.geometry.VertexFormat.Attribute;
+import jgl.math.vector.Mat4f;
+import jgl.math.vector.Vec3f;
+
+/**
+ * A vertex of any {@link VertexFormat}, stored as the raw bytes of one interleaved vertex. Used by
+ * geometry created from a format rather than from one of the fixed vertex classes.
+ *
+ * @author justin
+ */
+public class FormatVertex implements Vertex {
+
+  private final VertexFormat format;
+  private final ByteBuffer   data;
+  private final Vec3f        temp = new Vec3f(0);
+
+  public FormatVertex(VertexFormat format) {
+    this.format = format;
+    this.data = ByteBuffer.allocate(format.stride()).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Reads one component of an attribute.
+   */
+  public float get(Attribute a, int component) {
+    return format.get(data, a, 0, component);
+  }
+
+  /**
+   * Writes an attribute. Components beyond the attribute's count are ignored.
+   */
+  public FormatVertex set(Attribute a, float x, float y, float z, float w) {
+    format.put(data, a, 0, x, y, z, w);
+    return this;
+  }
+
+  public VertexFormat format() {
+    return format;
+  }
+
+  @Override
+  public int stride() {
+    return format.stride();
+  }
+
+  @Override
+  public void put(ByteBuffer buffer) {
+    data.clear();
+    buffer.put(data);
+  }
+
+  @Override
+  public void get(ByteBuffer buffer) {
+    data.clear();
+    ByteBuffer src = buffer.duplicate();
+    src.limit(src.position() + data.capacity());
+    data.put(src);
+    buffer.position(src.position());
+  }
+
+  @Override
+  public void drawImmediate(GL2 gl) {
+    format.drawImmediate(gl, data, 0);
+  }
+
+  @Override
+  public void startArrays(GL2 gl) {
+    format.startArrays(gl);
+  }
+
+  @Override
+  public void startArrays(GL2 gl, Buffer vertices) {
+    format.startArrays(gl, (ByteBuffer) vertices);
+  }
+
+  @Override
+  public void endArrays(GL2 gl) {
+    format.endArrays(gl);
+  }
+
+  @Override
+  public void transform(Mat4f matrix) {
+    Attribute position = format.attribute(VertexFormat.Semantic.POSITION);
+    Attribute normal = format.attribute(VertexFormat.Semantic.NORMAL);
+    Vec3f v = temp;
+    if (position != null && position.count == 3) {
+      v.set(get(position, 0), get(position, 1), get(position, 2));
+      matrix.transformPoint(v, v);
+      set(position, v.x, v.y, v.z, 0);
+    }
+    if (normal != null && normal.count == 3) {
+      v.set(get(normal, 0), get(normal, 1), get(normal, 2));
+      BatchTransform.transformNormal(matrix, v);
+      set(normal, v.x, v.y, v.z, 0);
+    }
+  }
+
+  /**
+   * Geometry with vertices of a format.
+   */
+  public static class FormatGeometry extends Geometry<FormatVertex> {
+    public FormatGeometry(Primitive type, VertexFormat format, int numVertices, int numIndices) {
+      super(type, constructor(format), numVertices, numIndices);
+    }
+  }
+
+  /**
+   * Constructor of empty vertices of a format.
+   */
+  public static Constructor<FormatVertex> constructor(final VertexFormat format) {
+    return new Constructor<FormatVertex>() {
+      public FormatVertex construct() {
+        return new FormatVertex(format);
+      }
+    };
+  }
+}
@@ -4,6 +4,7 @@
 package jgl.geometry;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
@@ -17,6 +18,11 @@ import com.jogamp.common.nio.Buffers;
  * Generic storage of vertices and indices. Vertex data is stored interleaved in a single buffer;
  * its layout is determined by the vertex type parameter. Actual storage is done in direct byte
  * buffers, but this class provides convenience methods for manipulating vertices rather than bytes.
+ * <p>
+ * Vertex or index data larger than a single buffer can hold (2 GB) is stored in a
+ * {@link ChunkedBuffer} instead; see {@link #isChunked()}. The vertex and index methods work the
+ * same for both kinds of storage, but chunked data has no raw buffer and is only drawn from buffer
+ * objects.
  * 
  * @author justin
  */
@@ -27,7 +33,12 @@ public class Geometry<T extends Vertex> {
   private IndexType                   indexType;
   private ByteBuffer                  vertices;
   private ByteBuffer                  indices;
+  private ChunkedBuffer               chunkedVertices;
+  private ChunkedBuffer               chunkedIndices;
+  private int                         nextVertex;
+  private int                         nextIndex;
   protected Primitive                 primitive;
+  private int                         version;
 
   /**
    * Creates empty geometry and allocates buffers to fixed sizes.
@@ -44,6 +55,45 @@ public class Geometry<T extends Vertex> {
     allocate(numVertices, numIndices);
   }
 
+  /**
+   * Creates geometry around existing buffers without copying them (for example, regions of a
+   * memory-mapped file). The vertex data must be interleaved for the constructor's vertex type and
+   * the indices (which may be null) must be of the given type.
+   */
+  public Geometry(Primitive type, Constructor<T> constructor, ByteBuffer vertices,
+      IndexType indexType, ByteBuffer indices) {
+    this.primitive = type;
+    this.constructor = constructor;
+    this.vertexType = constructor.construct();
+    this.vertices = vertices;
+    this.indexType = indexType;
+    this.indices = indices;
+  }
+
+  /**
+   * Creates geometry around existing storage that may exceed a single buffer (for example, a large
+   * mesh file mapped with {@link ChunkedBuffer#map}). Storage of a single chunk is used as a raw
+   * buffer. The vertex storage's element size must be the stride of the constructor's vertex type,
+   * and the indices (which may be null) must be of the given type.
+   */
+  public Geometry(Primitive type, Constructor<T> constructor, ChunkedBuffer vertices,
+      IndexType indexType, ChunkedBuffer indices) {
+    this.primitive = type;
+    this.constructor = constructor;
+    this.vertexType = constructor.construct();
+    if (vertices.elementSize() != vertexType.stride())
+      throw new IllegalArgumentException("Vertex storage does not match the vertex stride");
+    this.indexType = indexType;
+    if (vertices.numChunks() == 1)
+      this.vertices = vertices.chunk(0);
+    else
+      this.chunkedVertices = vertices;
+    if (indices != null && indices.numChunks() == 1)
+      this.indices = indices.chunk(0);
+    else
+      this.chunkedIndices = indices;
+  }
+
   /**
    * Creates empty geometry without allocating space. Intended for subclasses so they can calculate
    * number of vertices & indices before calling the super constructor.
@@ -64,13 +114,32 @@ public class Geometry<T extends Vertex> {
   }
 
   /**
-   * Initialize buffers to required sizes.
+   * Initialize buffers to required sizes. Data too large for a single buffer is chunked.
    */
   protected void allocate(int numVertices, int numIndices) {
     indexType = IndexType.fromVertexCount(numVertices);
-    vertices = Buffers.newDirectByteBuffer(vertexType.stride() * numVertices);
-    if (numIndices > 0)
-      indices = Buffers.newDirectByteBuffer(indexType.size * numIndices);
+    int stride = vertexType.stride();
+    long vertexBytes = (long) stride * numVertices;
+    if (vertexBytes > Integer.MAX_VALUE)
+      chunkedVertices = ChunkedBuffer.allocate(vertexBytes, stride);
+    else
+      vertices = Buffers.newDirectByteBuffer((int) vertexBytes);
+    long indexBytes = (long) indexType.size * numIndices;
+    if (indexBytes > Integer.MAX_VALUE)
+      chunkedIndices = ChunkedBuffer.allocate(indexBytes, indexType.size);
+    else if (numIndices > 0)
+      indices = Buffers.newDirectByteBuffer((int) indexBytes);
+  }
+
+  /**
+   * Replaces the buffers, for subclasses that resize them. Positions are taken from the new buffers.
+   */
+  protected void setBuffers(ByteBuffer vertices, IndexType indexType, ByteBuffer indices) {
+    this.vertices = vertices;
+    this.indexType = indexType;
+    this.indices = indices;
+    this.chunkedVertices = null;
+    this.chunkedIndices = null;
   }
 
   /**
@@ -87,6 +156,14 @@ public class Geometry<T extends Vertex> {
     return vertexType;
   }
 
+  /**
+   * Returns the layout of the vertex data, or null if the vertex type has none (see
+   * {@link VertexFormat#of(Vertex)}).
+   */
+  public VertexFormat getFormat() {
+    return VertexFormat.of(vertexType);
+  }
+
   /**
    * Returns the index type.
    */
@@ -95,23 +172,76 @@ public class Geometry<T extends Vertex> {
   }
   
   /**
-   * Raw vertex buffer.
+   * True if the vertex or index data is larger than a single buffer can hold and is stored in a
+   * {@link ChunkedBuffer}. Such data has no raw buffer and cannot be drawn from client memory.
+   */
+  public boolean isChunked() {
+    return chunkedVertices != null || chunkedIndices != null;
+  }
+
+  public boolean isIndexed() {
+    return indices != null || chunkedIndices != null;
+  }
+
+  /**
+   * Raw vertex buffer. Chunked vertex data has none (see {@link #getVertexData()}).
    */
   public ByteBuffer getVertices() {
+    if (chunkedVertices != null)
+      throw new IllegalStateException("Vertex data exceeds a single buffer, use getVertexData");
     return vertices;
   }
 
   /**
-   * Raw index buffer.
+   * Raw index buffer, or null if the geometry is not indexed. Chunked index data has none (see
+   * {@link #getIndexData()}).
    */
   public ByteBuffer getIndices() {
+    if (chunkedIndices != null)
+      throw new IllegalStateException("Index data exceeds a single buffer, use getIndexData");
     return indices;
   }
 
+  /**
+   * Vertex data as chunks, which is a single chunk sharing the raw buffer unless the data is
+   * chunked.
+   */
+  public ChunkedBuffer getVertexData() {
+    if (chunkedVertices != null)
+      return chunkedVertices;
+    return ChunkedBuffer.wrap(vertices, vertexType.stride());
+  }
+
+  /**
+   * Index data as chunks (see {@link #getVertexData()}), or null if the geometry is not indexed.
+   */
+  public ChunkedBuffer getIndexData() {
+    if (chunkedIndices != null)
+      return chunkedIndices;
+    return indices == null ? null : ChunkedBuffer.wrap(indices, indexType.size);
+  }
+
+  /**
+   * Counter that changes whenever vertices or indices are written through this object. Copies of
+   * the data (such as buffer objects) compare it to know when they are stale.
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Changes the version, for callers that modified the raw buffers directly.
+   */
+  public void markDirty() {
+    version++;
+  }
+
   /**
    * Returns the total number of vertices the geometry can store.
    */
   public int numVertices() {
+    if (chunkedVertices != null)
+      return (int) (chunkedVertices.size() / vertexType.stride());
     return vertices.capacity() / vertexType.stride();
   }
 
@@ -119,6 +249,8 @@ public class Geometry<T extends Vertex> {
    * Returns the total number of indices the geometry can store.
    */
   public int numIndices() {
+    if (chunkedIndices != null)
+      return (int) (chunkedIndices.size() / indexType.size);
     return indices == null ? 0 : indices.capacity() / indexType.size;
   }
 
@@ -126,13 +258,15 @@ public class Geometry<T extends Vertex> {
    * Returns the current vertex position.
    */
   public int vertexPosition() {
-    return vertices.position() / vertexType.stride();
+    return chunkedVertices != null ? nextVertex : vertices.position() / vertexType.stride();
   }
 
   /**
    * Returns the current index position.
    */
   public int indexPosition() {
+    if (chunkedIndices != null)
+      return nextIndex;
     return indices == null ? 0 : indices.position() / indexType.size;
   }
 
@@ -140,9 +274,12 @@ public class Geometry<T extends Vertex> {
    * Sets the vertex and index positions to the start.
    */
   public void rewind() {
-    vertices.rewind();
+    if (vertices != null)
+      vertices.rewind();
     if (indices != null)
       indices.rewind();
+    nextVertex = 0;
+    nextIndex = 0;
   }
 
   /**
@@ -150,6 +287,8 @@ public class Geometry<T extends Vertex> {
    */
   public T getVertex() {
     T vertex = constructor.construct();
+    if (chunkedVertices != null)
+      return getVertex(nextVertex++, vertex);
     vertex.get(vertices);
     return vertex;
   }
@@ -158,39 +297,86 @@ public class Geometry<T extends Vertex> {
    * Reads vertex at the specified vertex position. The position remains unchanged.
    */
   public T getVertex(int position) {
-    try {
-    int prevPosition = vertexPosition();
-    vertices.position(position * vertexType.stride());
-    T vertex = getVertex();
-    vertices.position(prevPosition);
-    return vertex;
-    } catch (Exception e) {
-      System.out.println("WTF");
-      return null;
+    return getVertex(position, constructor.construct());
+  }
+
+  /**
+   * Reads vertex at the specified vertex position into an existing vertex. The position remains
+   * unchanged, so different threads may read at the same time.
+   */
+  public T getVertex(int position, T dest) {
+    if (chunkedVertices != null) {
+      dest.get(chunkedVertices.element((long) position * vertexType.stride()));
+      return dest;
     }
+    ByteBuffer b = vertices.duplicate().order(vertices.order());
+    b.position(position * vertexType.stride());
+    dest.get(b);
+    return dest;
+  }
+
+  /**
+   * Creates a cursor for reading and writing vertices in place.
+   */
+  public VertexCursor cursor() {
+    return new VertexCursor(this);
+  }
+
+  /**
+   * Strided float view of the first attribute with the semantic, or null if the format has none.
+   */
+  public AttributeView view(VertexFormat.Semantic semantic) {
+    VertexFormat format = getFormat();
+    VertexFormat.Attribute attribute = format == null ? null : format.attribute(semantic);
+    return attribute == null ? null : new AttributeView(getVertices(), numVertices(), format,
+        attribute);
+  }
+
+  public AttributeView positions() {
+    return view(VertexFormat.Semantic.POSITION);
+  }
+
+  public AttributeView normals() {
+    return view(VertexFormat.Semantic.NORMAL);
+  }
+
+  public AttributeView texCoords() {
+    return view(VertexFormat.Semantic.TEXCOORD);
   }
 
   /**
    * Writes vertex at the current vertex position, then increments the position.
    */
   public void putVertex(T vertex) {
+    if (chunkedVertices != null) {
+      putVertex(nextVertex++, vertex);
+      return;
+    }
     vertex.put(vertices);
+    version++;
   }
 
   /**
    * Writes vertex at the specified vertex position. The position remains unchanged.
    */
   public void putVertex(int position, T vertex) {
-    int prevPosition = vertexPosition();
-    vertices.position(position * vertexType.stride());
-    putVertex(vertex);
-    vertices.position(prevPosition);
+    if (chunkedVertices != null) {
+      vertex.put(chunkedVertices.element((long) position * vertexType.stride()));
+      version++;
+      return;
+    }
+    ByteBuffer b = vertices.duplicate().order(vertices.order());
+    b.position(position * vertexType.stride());
+    vertex.put(b);
+    version++;
   }
   
   /**
    * Reads index at the current index position, then increments the position.
    */
   public int getIndex() {
+    if (chunkedIndices != null)
+      return getIndex(nextIndex++);
     switch (indexType) {
     case UBYTE:
       byte byteVal = indices.get();
@@ -206,10 +392,42 @@ public class Geometry<T extends Vertex> {
     }
   }
 
+  /**
+   * Reads index at the specified index position. The position remains unchanged.
+   */
+  public int getIndex(int position) {
+    if (chunkedIndices != null) {
+      switch (indexType) {
+      case UBYTE:
+        return chunkedIndices.get(position) & 0xFF;
+      case USHORT:
+        return chunkedIndices.getShort(position * 2L) & 0xFFFF;
+      default:
+        return chunkedIndices.getInt(position * 4L);
+      }
+    }
+    switch (indexType) {
+    case UBYTE:
+      return indices.get(position) & 0xFF;
+    case USHORT:
+      return indices.getShort(position * 2) & 0xFFFF;
+    case UINT:
+      return indices.getInt(position * 4);
+    case NONE:
+    default:
+      return 0;
+    }
+  }
+
   /**
    * Writes index at the current index position, then increments the position.
    */
   public void putIndex(int value) {
+    if (chunkedIndices != null) {
+      putIndex(nextIndex++, value);
+      return;
+    }
+    version++;
     switch (indexType) {
     case UBYTE:
       indices.put((byte) value);
@@ -229,10 +447,24 @@ public class Geometry<T extends Vertex> {
    * Writes index at the specified index position. The position remains unchanged.
    */
   public void putIndex(int position, int value) {
+    if (chunkedIndices != null) {
+      version++;
+      switch (indexType) {
+      case UBYTE:
+        chunkedIndices.put(position, (byte) value);
+        break;
+      case USHORT:
+        chunkedIndices.putShort(position * 2L, (short) value);
+        break;
+      default:
+        chunkedIndices.putInt(position * 4L, value);
+      }
+      return;
+    }
     int prevPosition = indexPosition();
     indices.position(position * indexType.size);
     putIndex(value);
-    vertices.position(prevPosition);
+    indices.position(prevPosition * indexType.size);
   }
 
   /**
@@ -245,37 +477,70 @@ public class Geometry<T extends Vertex> {
   }
 
   /**
-   * Applies a transformation matrix to all vertices.
+   * Applies a transformation matrix to all vertices. Positions are transformed by the matrix and
+   * normals (if present) by its inverse-transpose.
    */
   public void transform(Mat4f matrix) {
-    for (int i = 0; i < numVertices(); i++) {
-      T vertex = getVertex(i);
-      vertex.transform(matrix);
-      putVertex(i, vertex);
+    transform(matrix, null);
+  }
+
+  /**
+   * Applies a transformation matrix to all vertices, splitting the work across a fork/join pool.
+   * Vertices are transformed in the buffer by {@link BatchTransform} when that matches their own
+   * {@link Vertex#transform(Mat4f)}; otherwise (such as for a vertex type that overrides it, or
+   * has no 3 float position) each vertex is read, transformed and written back on the calling
+   * thread.
+   */
+  public void transform(Mat4f matrix, ForkJoinPool pool) {
+    if (BatchTransform.isBatchable(getFormat(), vertexType)) {
+      BatchTransform.transform(this, matrix, pool);
+    } else {
+      // a single vertex is reused as scratch storage for every element
+      T vertex = constructor.construct();
+      int stride = vertexType.stride();
+      ChunkedBuffer data = getVertexData();
+      int remaining = numVertices();
+      for (int c = 0; remaining > 0; c++) {
+        ByteBuffer b = data.chunk(c).duplicate().order(data.chunk(c).order());
+        int n = Math.min(b.capacity() / stride, remaining);
+        for (int i = 0; i < n; i++) {
+          b.position(i * stride);
+          vertex.get(b);
+          vertex.transform(matrix);
+          b.position(i * stride);
+          vertex.put(b);
+        }
+        remaining -= n;
+      }
     }
+    version++;
   }
 
   /**
    * Render the geometry using immediate mode.
    */
   public void drawImmediate(GL2 gl) {
-    rewind();
+    VertexFormat format = chunkedVertices == null ? getFormat() : null;
+    T vertex = format == null ? constructor.construct() : null;
     gl.glBegin(primitive.glConstant);
-    if (indices == null) {
-      for (int i = 0; i < numVertices(); i++)
-        getVertex().drawImmediate(gl);
-    } else {
-      for (int i = 0; i < numIndices(); i++)
-        getVertex(getIndex()).drawImmediate(gl);
+    boolean indexed = isIndexed();
+    int count = indexed ? numIndices() : numVertices();
+    for (int i = 0; i < count; i++) {
+      int v = indexed ? getIndex(i) : i;
+      if (format != null)
+        format.drawImmediate(gl, vertices, v);
+      else
+        getVertex(v, vertex).drawImmediate(gl);
     }
     gl.glEnd();
-    rewind();
   }
 
   /**
    * Render the geometry using vertex arrays.
    */
   public void drawArrays(GL2 gl) {
+    if (isChunked())
+      throw new IllegalStateException("Chunked geometry can only be drawn from buffer objects");
     rewind();
     vertexType.startArrays(gl, vertices);
     if (indices == null)
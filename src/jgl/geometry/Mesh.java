@@ -1,14 +1,24 @@
 package jgl.geometry;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.media.opengl.GL2;
 
+import jgl.core.GLBuffer;
+import jgl.core.VertexArray;
 import jgl.shading.Material;
 
 /**
- * Stores geometry and materials.
+ * Stores geometry and materials. The geometry can be drawn from client memory with
+ * {@link #drawArrays(GL2)} or from buffer objects with {@link #drawVBO(GL2)}. The buffer objects are
+ * created on the first drawVBO and uploaded again only when the geometry's version has changed.
+ * <p>
+ * Chunked geometry (see {@link Geometry#isChunked()}) can only be drawn with drawVBO. Its buffer
+ * objects are filled in ranges of at most {@link #setMaxUploadSize(long)} bytes, and indexed draws
+ * of any geometry are split into batches of whole primitives of at most
+ * {@link #setMaxDrawElements(int)} indices (strips, fans and loops are drawn in one call).
  * 
  * @author justin
  */
@@ -32,25 +42,64 @@ public class Mesh {
   Geometry<?>    geometry;
   List<MeshPart> parts;
   boolean        indexed;
+  GLBuffer       vbo;
+  GLBuffer       ibo;
+  VertexArray    vao;
+  int            uploadedVersion;
+  boolean        whole;
+  long           maxUploadSize   = 64 << 20;
+  int            maxDrawElements = 1 << 24;
 
+  /**
+   * Creates a mesh with a single part that always covers all of the geometry (including elements
+   * added later to a {@link DynamicGeometry}).
+   */
   public Mesh(Geometry<?> geometry, Material material) {
     this.geometry = geometry;
-    indexed = geometry.numIndices() > 0;
+    indexed = geometry.isIndexed();
     parts = new ArrayList<MeshPart>();
     parts.add(new MeshPart(material, 0, indexed ? geometry.numIndices() : geometry.numVertices()));
+    whole = true;
   }
 
   public Mesh(Geometry<?> geometry, List<MeshPart> parts) {
     this.geometry = geometry;
     this.parts = parts;
-    indexed = geometry.numIndices() > 0;
+    indexed = geometry.isIndexed();
   }
   
   public Geometry<?> getGeometry() {
     return geometry;
   }
 
+  /**
+   * The parts of the mesh. A part that covers all of the geometry is first updated to its current
+   * number of elements.
+   */
+  public List<MeshPart> getParts() {
+    updateWholePart();
+    return parts;
+  }
+
+  /**
+   * Largest number of bytes copied to a buffer object by one glBufferSubData call when uploading
+   * chunked geometry.
+   */
+  public void setMaxUploadSize(long maxUploadSize) {
+    this.maxUploadSize = maxUploadSize;
+  }
+
+  /**
+   * Largest number of indices drawn by one glDrawElements call.
+   */
+  public void setMaxDrawElements(int maxDrawElements) {
+    this.maxDrawElements = maxDrawElements;
+  }
+
   public void drawArrays(GL2 gl) {
+    if (geometry.isChunked())
+      throw new IllegalStateException("Chunked geometry can only be drawn from buffer objects");
+    updateWholePart();
     geometry.getVertexType().startArrays(gl, geometry.getVertices());
 
     for (MeshPart part : parts) {
@@ -71,11 +120,154 @@ public class Mesh {
   }
 
   public void drawVBO(GL2 gl) {
+    updateWholePart();
+    if (vbo == null || uploadedVersion != geometry.getVersion())
+      upload(gl);
+
+    if (vao != null) {
+      vao.bind(gl);
+    } else {
+      vbo.bind(gl);
+      geometry.getVertexType().startArrays(gl);
+      if (indexed)
+        ibo.bind(gl);
+    }
+
+    for (MeshPart part : parts) {
+      part.material.enable(gl);
+      if (indexed) {
+        drawElements(gl, part.offset, part.numElements);
+      } else {
+        gl.glDrawArrays(geometry.getPrimitive().glConstant, part.offset, part.numElements);
+      }
+      part.material.disable(gl);
+    }
+
+    if (vao != null)
+      vao.unbind(gl);
+    else
+      geometry.getVertexType().endArrays(gl);
+  }
+
+  /**
+   * Draws count indices from the bound index buffer in batches of whole primitives.
+   */
+  private void drawElements(GL2 gl, int first, int count) {
+    int mode = geometry.getPrimitive().glConstant;
+    Geometry.IndexType indexType = geometry.getIndexType();
+    int perPrimitive = verticesPerPrimitive(geometry.getPrimitive());
+    long batch = perPrimitive == 0 ? count : Math.max(maxDrawElements / perPrimitive, 1)
+        * perPrimitive;
+    for (long start = first, end = (long) first + count; start < end; start += batch) {
+      int n = (int) Math.min(batch, end - start);
+      gl.glDrawElements(mode, n, indexType.glConstant, start * indexType.size);
+    }
+  }
+
+  /**
+   * Number of indices per independent primitive, or 0 if primitives share indices.
+   */
+  private static int verticesPerPrimitive(Geometry.Primitive primitive) {
+    switch (primitive) {
+    case POINTS:
+      return 1;
+    case LINES:
+      return 2;
+    case TRIANGLES:
+      return 3;
+    default:
+      return 0;
+    }
+  }
+
+  private void updateWholePart() {
+    if (whole)
+      parts.get(0).numElements = indexed ? geometry.numIndices() : geometry.numVertices();
+  }
+
+  /**
+   * Copies the geometry into buffer objects, chunk by chunk if it is chunked. Dynamic geometry that
+   * has not been resized only has its dirty ranges copied. The first time, the vertex pointers and
+   * index buffer are also recorded in a vertex array object if the context supports them.
+   */
+  private void upload(GL2 gl) {
+    DynamicGeometry<?> dynamic = null;
+    if (geometry instanceof DynamicGeometry)
+      dynamic = (DynamicGeometry<?>) geometry;
+
+    boolean created = vbo == null;
+    if (created) {
+      GLBuffer.Usage usage = dynamic == null ? GLBuffer.Usage.STATIC_DRAW
+          : GLBuffer.Usage.DYNAMIC_DRAW;
+      vbo = new GLBuffer(GLBuffer.Target.ARRAY, usage);
+      if (indexed)
+        ibo = new GLBuffer(GLBuffer.Target.ELEMENT_ARRAY, usage);
+    }
+
+    // the VAO keeps its element array binding, so it must not be bound while uploading indices
+    if (vao != null)
+      vao.unbind(gl);
+    boolean full = created || dynamic == null || dynamic.isResized();
+    vbo.bind(gl);
+    if (geometry.isChunked())
+      geometry.getVertexData().upload(gl, vbo, maxUploadSize);
+    else if (full)
+      vbo.setData(gl, range(geometry.getVertices(), 0, geometry.getVertices().capacity()));
+    else
+      setRanges(gl, vbo, geometry.getVertices(), dynamic.getDirtyVertices());
+    if (indexed) {
+      ibo.bind(gl);
+      if (geometry.isChunked())
+        geometry.getIndexData().upload(gl, ibo, maxUploadSize);
+      else if (full)
+        ibo.setData(gl, range(geometry.getIndices(), 0, geometry.getIndices().capacity()));
+      else
+        setRanges(gl, ibo, geometry.getIndices(), dynamic.getDirtyIndices());
+    }
+    uploadedVersion = geometry.getVersion();
+    if (dynamic != null)
+      dynamic.clearDirty();
+
+    if (created && VertexArray.isAvailable(gl)) {
+      vao = new VertexArray();
+      vao.bind(gl);
+      vbo.bind(gl);
+      geometry.getVertexType().startArrays(gl);
+      if (indexed)
+        ibo.bind(gl);
+      vao.unbind(gl);
+    }
+  }
+
+  private static void setRanges(GL2 gl, GLBuffer buffer, ByteBuffer data,
+      DynamicGeometry.DirtyRanges ranges) {
+    for (int i = 0; i < ranges.size(); i++)
+      buffer.setSubData(gl, ranges.start(i), range(data, ranges.start(i), ranges.end(i)));
+  }
+
+  /**
+   * Bytes [start, end) of a buffer as a buffer of their own (buffer objects are sized by capacity).
+   */
+  static ByteBuffer range(ByteBuffer data, int start, int end) {
+    ByteBuffer b = data.duplicate();
+    b.position(start).limit(end);
+    return b.slice();
   }
 
   public void dispose(GL2 gl) {
     for (MeshPart part : parts)
       part.material.dispose(gl);
-    // delete vbo if they exist
+    if (vao != null) {
+      vao.delete(gl);
+      vao = null;
+    }
+    if (vbo != null) {
+      vbo.delete(gl);
+      vbo = null;
+    }
+    if (ibo != null) {
+      ibo.delete(gl);
+      ibo = null;
+    }
   }
 }
@@ -0,0 +1,485 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import jgl.geometry.Geometry.Primitive;
+import jgl.math.geometry.Ray;
+
+/**
+ * Bounding volume hierarchy over the triangles of a geometry, used for ray casting and picking.
+ * <p>
+ * The tree is built top-down with a binned surface area heuristic (optionally in parallel), then
+ * flattened depth-first into primitive arrays: node bounds, node links, and a copy of the triangle
+ * corners stored in leaf order. Queries only touch these arrays and a caller-supplied {@link Hit},
+ * so they do not allocate and several threads can query the same tree at once (each with its own
+ * hit object).
+ *
+ * @author justin
+ */
+public class TriangleBVH {
+
+  /** Leaves are never split below this many triangles. */
+  private static final int MIN_LEAF_SIZE      = 2;
+
+  /** Leaves are always split above this many triangles, even if the SAH would not. */
+  private static final int MAX_LEAF_SIZE      = 16;
+
+  /** Number of centroid bins evaluated per axis. */
+  private static final int BINS               = 16;
+
+  /** Maximum tree depth; keeps the traversal stack in {@link Hit} bounded. */
+  private static final int MAX_DEPTH          = 60;
+
+  /** Relative cost of visiting a node compared to intersecting a triangle. */
+  private static final float TRAVERSAL_COST   = 1.0f;
+
+  /** Subtrees with more triangles than this are built as separate fork/join tasks. */
+  public static final int  PARALLEL_THRESHOLD = 8192;
+
+  // node i: bounds at [6i, 6i+6) as (minX, minY, minZ, maxX, maxY, maxZ)
+  private final float[]    nodeBounds;
+
+  // leaf: (first triangle, triangle count); interior: (right child, -1 - split axis); the left
+  // child of an interior node is always the next node
+  private final int[]      nodeLinks;
+
+  // triangle corners in leaf order: 9 floats per triangle (a, b, c)
+  private final float[]    triangles;
+
+  // index of each leaf-ordered triangle in the source geometry
+  private final int[]      triangleIds;
+
+  /**
+   * Result of a closest-hit query. Also holds the traversal stack, so one instance per thread
+   * makes queries allocation-free.
+   */
+  public static class Hit {
+    /** Distance along the ray to the intersection. */
+    public float t;
+
+    /** Barycentric coordinates of the intersection (weights of corners b and c). */
+    public float u, v;
+
+    /** Index of the hit triangle in the source geometry (first index / 3), or -1. */
+    public int   triangle = -1;
+
+    final int[]  stack    = new int[MAX_DEPTH + 4];
+  }
+
+  /**
+   * Builds the hierarchy on the calling thread.
+   */
+  public TriangleBVH(Geometry<?> geometry) {
+    this(geometry, null);
+  }
+
+  /**
+   * Builds the hierarchy, splitting large subtrees across the pool (if not null). The geometry
+   * must store TRIANGLES, and its vertex format must have a position of 3 floats.
+   */
+  public TriangleBVH(Geometry<?> geometry, ForkJoinPool pool) {
+    if (geometry.getPrimitive() != Primitive.TRIANGLES)
+      throw new IllegalArgumentException("Geometry primitive must be TRIANGLES");
+    VertexFormat format = geometry.getFormat();
+    if (format == null || format.floatOffset(VertexFormat.Semantic.POSITION, 3) < 0)
+      throw new IllegalArgumentException("Vertex format has no 3 float position");
+
+    float[] corners = readTriangles(geometry);
+    int n = corners.length / 9;
+
+    // per-triangle bounds and centroids
+    float[] bounds = new float[n * 6];
+    float[] centroids = new float[n * 3];
+    int[] ids = new int[n];
+    for (int i = 0; i < n; i++) {
+      int c = i * 9, b = i * 6;
+      for (int k = 0; k < 3; k++) {
+        float v0 = corners[c + k], v1 = corners[c + 3 + k], v2 = corners[c + 6 + k];
+        float min = Math.min(v0, Math.min(v1, v2));
+        float max = Math.max(v0, Math.max(v1, v2));
+        bounds[b + k] = min;
+        bounds[b + 3 + k] = max;
+        centroids[i * 3 + k] = (min + max) * 0.5f;
+      }
+      ids[i] = i;
+    }
+
+    Builder root = new Builder(bounds, centroids, ids, 0, n, 0);
+    if (pool != null && n > PARALLEL_THRESHOLD)
+      pool.invoke(root);
+    else
+      root.compute();
+
+    int numNodes = root.countNodes();
+    nodeBounds = new float[numNodes * 6];
+    nodeLinks = new int[numNodes * 2];
+    flatten(root, 0);
+
+    triangles = new float[n * 9];
+    triangleIds = ids;
+    for (int i = 0; i < n; i++)
+      System.arraycopy(corners, ids[i] * 9, triangles, i * 9, 9);
+  }
+
+  /**
+   * Number of triangles in the hierarchy.
+   */
+  public int numTriangles() {
+    return triangleIds.length;
+  }
+
+  /**
+   * Number of nodes in the hierarchy.
+   */
+  public int numNodes() {
+    return nodeLinks.length / 2;
+  }
+
+  /**
+   * Finds the closest intersection along the ray. Returns true and fills in hit if one exists.
+   */
+  public boolean closestHit(Ray ray, Hit hit) {
+    return closestHit(ray.p.x(), ray.p.y(), ray.p.z(), ray.d.x(), ray.d.y(), ray.d.z(),
+        Float.POSITIVE_INFINITY, hit);
+  }
+
+  /**
+   * Finds the closest intersection with t in [0, maxT) along the ray o + t * d. Returns true and
+   * fills in hit if one exists; otherwise hit.triangle is set to -1.
+   */
+  public boolean closestHit(float ox, float oy, float oz, float dx, float dy, float dz,
+      float maxT, Hit hit) {
+    hit.t = maxT;
+    hit.triangle = -1;
+    if (triangleIds.length == 0)
+      return false;
+
+    float ix = 1.0f / dx, iy = 1.0f / dy, iz = 1.0f / dz;
+    int[] stack = hit.stack;
+    int sp = 0;
+    stack[sp++] = 0;
+
+    while (sp > 0) {
+      int node = stack[--sp];
+      if (!hitsNode(node, ox, oy, oz, ix, iy, iz, hit.t))
+        continue;
+
+      int first = nodeLinks[node * 2];
+      int count = nodeLinks[node * 2 + 1];
+      if (count > 0) {
+        for (int i = first, end = first + count; i < end; i++) {
+          if (intersectTriangle(i, ox, oy, oz, dx, dy, dz, hit.t, hit)) {
+            hit.triangle = triangleIds[i];
+          }
+        }
+      } else {
+        // visit the child on the near side of the split first
+        int axis = -1 - count;
+        float dir = axis == 0 ? dx : axis == 1 ? dy : dz;
+        if (dir < 0) {
+          stack[sp++] = node + 1;
+          stack[sp++] = first;
+        } else {
+          stack[sp++] = first;
+          stack[sp++] = node + 1;
+        }
+      }
+    }
+    return hit.triangle >= 0;
+  }
+
+  /**
+   * True if the ray hits any triangle at a distance in [0, maxT). Stops at the first hit found, so
+   * it is cheaper than a closest-hit query (useful for shadow / occlusion rays). The hit object
+   * only provides the traversal stack; its fields are not meaningful afterwards.
+   */
+  public boolean anyHit(float ox, float oy, float oz, float dx, float dy, float dz, float maxT,
+      Hit hit) {
+    if (triangleIds.length == 0)
+      return false;
+
+    float ix = 1.0f / dx, iy = 1.0f / dy, iz = 1.0f / dz;
+    int[] stack = hit.stack;
+    int sp = 0;
+    stack[sp++] = 0;
+
+    while (sp > 0) {
+      int node = stack[--sp];
+      if (!hitsNode(node, ox, oy, oz, ix, iy, iz, maxT))
+        continue;
+
+      int first = nodeLinks[node * 2];
+      int count = nodeLinks[node * 2 + 1];
+      if (count > 0) {
+        for (int i = first, end = first + count; i < end; i++)
+          if (intersectTriangle(i, ox, oy, oz, dx, dy, dz, maxT, hit))
+            return true;
+      } else {
+        stack[sp++] = first;
+        stack[sp++] = node + 1;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * True if the ray hits any triangle.
+   */
+  public boolean anyHit(Ray ray, Hit hit) {
+    return anyHit(ray.p.x(), ray.p.y(), ray.p.z(), ray.d.x(), ray.d.y(), ray.d.z(),
+        Float.POSITIVE_INFINITY, hit);
+  }
+
+  /**
+   * Slab test of the ray against the bounds of a node, limited to [0, maxT].
+   */
+  private boolean hitsNode(int node, float ox, float oy, float oz, float ix, float iy, float iz,
+      float maxT) {
+    int b = node * 6;
+    float t0 = (nodeBounds[b] - ox) * ix, t1 = (nodeBounds[b + 3] - ox) * ix;
+    float tmin = Math.min(t0, t1), tmax = Math.max(t0, t1);
+    t0 = (nodeBounds[b + 1] - oy) * iy;
+    t1 = (nodeBounds[b + 4] - oy) * iy;
+    tmin = Math.max(tmin, Math.min(t0, t1));
+    tmax = Math.min(tmax, Math.max(t0, t1));
+    t0 = (nodeBounds[b + 2] - oz) * iz;
+    t1 = (nodeBounds[b + 5] - oz) * iz;
+    tmin = Math.max(tmin, Math.min(t0, t1));
+    tmax = Math.min(tmax, Math.max(t0, t1));
+    return tmax >= Math.max(tmin, 0) && tmin < maxT;
+  }
+
+  /**
+   * Moller-Trumbore intersection with the i-th leaf-ordered triangle. If the triangle is hit at a
+   * distance in [0, maxT), stores the distance and barycentric coordinates in hit and returns true.
+   */
+  private boolean intersectTriangle(int i, float ox, float oy, float oz, float dx, float dy,
+      float dz, float maxT, Hit hit) {
+    float[] tri = triangles;
+    int j = i * 9;
+    float ax = tri[j], ay = tri[j + 1], az = tri[j + 2];
+    float e1x = tri[j + 3] - ax, e1y = tri[j + 4] - ay, e1z = tri[j + 5] - az;
+    float e2x = tri[j + 6] - ax, e2y = tri[j + 7] - ay, e2z = tri[j + 8] - az;
+
+    // p = d x e2
+    float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+    float det = e1x * px + e1y * py + e1z * pz;
+    if (det > -1e-12f && det < 1e-12f)
+      return false;
+    float invDet = 1.0f / det;
+
+    float sx = ox - ax, sy = oy - ay, sz = oz - az;
+    float u = (sx * px + sy * py + sz * pz) * invDet;
+    if (u < 0 || u > 1)
+      return false;
+
+    // q = s x e1
+    float qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+    float v = (dx * qx + dy * qy + dz * qz) * invDet;
+    if (v < 0 || u + v > 1)
+      return false;
+
+    float t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+    if (t < 0 || t >= maxT)
+      return false;
+
+    hit.t = t;
+    hit.u = u;
+    hit.v = v;
+    return true;
+  }
+
+  /**
+   * Writes node and its subtree depth-first starting at index i. Returns the next free index.
+   */
+  private int flatten(Builder node, int i) {
+    System.arraycopy(node.bounds, 0, nodeBounds, i * 6, 6);
+    if (node.left == null) {
+      nodeLinks[i * 2] = node.start;
+      nodeLinks[i * 2 + 1] = node.end - node.start;
+      return i + 1;
+    }
+    int right = flatten(node.left, i + 1);
+    nodeLinks[i * 2] = right;
+    nodeLinks[i * 2 + 1] = -1 - node.axis;
+    return flatten(node.right, right);
+  }
+
+  /**
+   * Reads the corners of every triangle as 9 floats each, following the index buffer if present.
+   */
+  private static float[] readTriangles(Geometry<?> geometry) {
+    ChunkedBuffer vertices = geometry.getVertexData();
+    VertexFormat format = geometry.getFormat();
+    int stride = format.stride();
+    int position = format.floatOffset(VertexFormat.Semantic.POSITION, 3);
+    boolean indexed = geometry.numIndices() > 0;
+    int numCorners = indexed ? geometry.numIndices() : geometry.numVertices();
+    int n = numCorners / 3;
+
+    float[] corners = new float[n * 9];
+    for (int i = 0; i < n * 3; i++) {
+      int vertex = indexed ? geometry.getIndex(i) : i;
+      long p = (long) vertex * stride + position;
+      corners[i * 3] = vertices.getFloat(p);
+      corners[i * 3 + 1] = vertices.getFloat(p + 4);
+      corners[i * 3 + 2] = vertices.getFloat(p + 8);
+    }
+    return corners;
+  }
+
+  private static float area(float[] b) {
+    float dx = b[3] - b[0], dy = b[4] - b[1], dz = b[5] - b[2];
+    return dx * dy + dy * dz + dz * dx;
+  }
+
+  private static void reset(float[] b) {
+    b[0] = b[1] = b[2] = Float.POSITIVE_INFINITY;
+    b[3] = b[4] = b[5] = Float.NEGATIVE_INFINITY;
+  }
+
+  private static void grow(float[] b, float[] src, int offset) {
+    for (int k = 0; k < 3; k++) {
+      b[k] = Math.min(b[k], src[offset + k]);
+      b[k + 3] = Math.max(b[k + 3], src[offset + 3 + k]);
+    }
+  }
+
+  /**
+   * Temporary tree node; builds its own subtree over ids[start, end) when computed.
+   */
+  @SuppressWarnings("serial")
+  private static class Builder extends RecursiveAction {
+
+    final float[] triBounds;
+    final float[] centroids;
+    final int[]   ids;
+    final int     start;
+    final int     end;
+    final int     depth;
+    final float[] bounds = new float[6];
+    int           axis;
+    Builder       left;
+    Builder       right;
+
+    Builder(float[] triBounds, float[] centroids, int[] ids, int start, int end, int depth) {
+      this.triBounds = triBounds;
+      this.centroids = centroids;
+      this.ids = ids;
+      this.start = start;
+      this.end = end;
+      this.depth = depth;
+    }
+
+    int countNodes() {
+      return left == null ? 1 : 1 + left.countNodes() + right.countNodes();
+    }
+
+    @Override
+    protected void compute() {
+      reset(bounds);
+      float[] cb = new float[6];
+      reset(cb);
+      for (int i = start; i < end; i++) {
+        int id = ids[i];
+        grow(bounds, triBounds, id * 6);
+        for (int k = 0; k < 3; k++) {
+          float c = centroids[id * 3 + k];
+          cb[k] = Math.min(cb[k], c);
+          cb[k + 3] = Math.max(cb[k + 3], c);
+        }
+      }
+
+      int count = end - start;
+      if (count <= MIN_LEAF_SIZE || depth >= MAX_DEPTH)
+        return;
+
+      // binned SAH: find the cheapest split plane over all axes
+      float bestCost = Float.POSITIVE_INFINITY;
+      int bestAxis = -1;
+      int bestBin = 0;
+      int[] binCounts = new int[BINS];
+      float[][] binBounds = new float[BINS][6];
+      float[] rightAreas = new float[BINS];
+      float[] acc = new float[6];
+
+      for (int k = 0; k < 3; k++) {
+        float extent = cb[k + 3] - cb[k];
+        if (extent <= 0)
+          continue;
+        float scale = BINS / extent;
+
+        for (int b = 0; b < BINS; b++) {
+          binCounts[b] = 0;
+          reset(binBounds[b]);
+        }
+        for (int i = start; i < end; i++) {
+          int id = ids[i];
+          int b = Math.min(BINS - 1, (int) ((centroids[id * 3 + k] - cb[k]) * scale));
+          binCounts[b]++;
+          grow(binBounds[b], triBounds, id * 6);
+        }
+
+        // sweep from the right to get the area of every right-hand partition
+        reset(acc);
+        for (int b = BINS - 1; b > 0; b--) {
+          grow(acc, binBounds[b], 0);
+          rightAreas[b] = area(acc);
+        }
+
+        // sweep from the left and evaluate the split after bin b - 1
+        reset(acc);
+        int leftCount = 0;
+        for (int b = 1; b < BINS; b++) {
+          grow(acc, binBounds[b - 1], 0);
+          leftCount += binCounts[b - 1];
+          int rightCount = count - leftCount;
+          if (leftCount == 0 || rightCount == 0)
+            continue;
+          float cost = area(acc) * leftCount + rightAreas[b] * rightCount;
+          if (cost < bestCost) {
+            bestCost = cost;
+            bestAxis = k;
+            bestBin = b;
+          }
+        }
+      }
+
+      float leafCost = area(bounds) * (count - TRAVERSAL_COST);
+      int mid;
+      if (bestAxis >= 0 && (bestCost < leafCost || count > MAX_LEAF_SIZE)) {
+        axis = bestAxis;
+        float scale = BINS / (cb[axis + 3] - cb[axis]);
+        float min = cb[axis];
+        mid = start;
+        for (int i = start; i < end; i++) {
+          int id = ids[i];
+          int b = Math.min(BINS - 1, (int) ((centroids[id * 3 + axis] - min) * scale));
+          if (b < bestBin) {
+            ids[i] = ids[mid];
+            ids[mid++] = id;
+          }
+        }
+      } else if (count > MAX_LEAF_SIZE) {
+        // all centroids coincide; split the range in half to keep leaves small
+        axis = 0;
+        mid = (start + end) >>> 1;
+      } else {
+        return;
+      }
+
+      left = new Builder(triBounds, centroids, ids, start, mid, depth + 1);
+      right = new Builder(triBounds, centroids, ids, mid, end, depth + 1);
+      if (getPool() != null && count > PARALLEL_THRESHOLD) {
+        invokeAll(left, right);
+      } else {
+        left.compute();
+        right.compute();
+      }
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import jgl.geometry.Geometry.Primitive;
+import jgl.geometry.Mesh.MeshPart;
+
+/**
+ * Reorders indexed triangle lists for the GPU's post-transform vertex cache, so that fewer vertices
+ * are transformed more than once, then renumbers the vertices in the order they are first used so
+ * that vertex fetches are close to sequential.
+ * <p>
+ * Triangles are reordered with Tom Forsyth's "Linear-Speed Vertex Cache Optimisation": each vertex
+ * is scored by its position in a simulated LRU cache and by how many of its triangles remain, and
+ * the triangle with the highest total score is emitted next. Triangles only move within their mesh
+ * part, so parts (and their materials) keep their index ranges.
+ * <p>
+ * Results are measured as ACMR (average cache miss ratio: transformed vertices per triangle, 0.5 at
+ * best for large regular meshes and 3 at worst) and ATVR (average transform to vertex ratio:
+ * transformed vertices per referenced vertex, 1 at best), simulated with a FIFO cache of
+ * {@link #FIFO_SIZE} entries.
+ *
+ * @author justin
+ */
+public final class VertexCacheOptimizer {
+
+  /** Entries of the FIFO cache used to measure ACMR and ATVR. */
+  public static final int      FIFO_SIZE          = 16;
+
+  /** Entries of the LRU cache modelled when scoring vertices. */
+  private static final int     CACHE_SIZE         = 32;
+  private static final float   CACHE_DECAY_POWER  = 1.5f;
+  private static final float   LAST_TRI_SCORE     = 0.75f;
+  private static final float   VALENCE_BOOST      = 2.0f;
+  private static final float   VALENCE_POWER      = -0.5f;
+  private static final float[] CACHE_SCORES       = new float[CACHE_SIZE];
+  private static final float[] VALENCE_SCORES     = new float[64];
+
+  static {
+    for (int i = 0; i < CACHE_SIZE; i++) {
+      if (i < 3) {
+        // the vertices of the last triangle are penalized, so the strip does not turn back on itself
+        CACHE_SCORES[i] = LAST_TRI_SCORE;
+      } else {
+        float scale = 1.0f - (float) (i - 3) / (CACHE_SIZE - 3);
+        CACHE_SCORES[i] = (float) Math.pow(scale, CACHE_DECAY_POWER);
+      }
+    }
+    for (int i = 1; i < VALENCE_SCORES.length; i++)
+      VALENCE_SCORES[i] = VALENCE_BOOST * (float) Math.pow(i, VALENCE_POWER);
+  }
+
+  /**
+   * ACMR and ATVR of a geometry before and after optimization.
+   */
+  public static class Report {
+
+    public final float acmrBefore;
+    public final float atvrBefore;
+    public final float acmrAfter;
+    public final float atvrAfter;
+
+    Report(float acmrBefore, float atvrBefore, float acmrAfter, float atvrAfter) {
+      this.acmrBefore = acmrBefore;
+      this.atvrBefore = atvrBefore;
+      this.acmrAfter = acmrAfter;
+      this.atvrAfter = atvrAfter;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("ACMR %.3f -> %.3f, ATVR %.3f -> %.3f", acmrBefore, acmrAfter,
+          atvrBefore, atvrAfter);
+    }
+  }
+
+  /**
+   * Optimizes the geometry of a mesh, keeping the index range of each of its parts.
+   */
+  public static Report optimize(Mesh mesh) {
+    return optimize(mesh.getGeometry(), mesh.getParts());
+  }
+
+  /**
+   * Optimizes a triangle geometry whose indices are split into parts (which may be null to treat
+   * all indices as one part).
+   */
+  public static Report optimize(Geometry<?> geometry, List<MeshPart> parts) {
+    if (geometry.getPrimitive() != Primitive.TRIANGLES || !geometry.isIndexed())
+      throw new IllegalArgumentException("Only indexed triangle lists can be optimized");
+
+    int[] indices = readIndices(geometry);
+    int numVertices = geometry.numVertices();
+    float acmrBefore = acmr(indices, numVertices, FIFO_SIZE);
+    float atvrBefore = atvr(indices, numVertices, FIFO_SIZE);
+
+    if (parts == null)
+      parts = Collections.singletonList(new MeshPart(null, 0, indices.length));
+    int[] local = new int[numVertices];
+    Arrays.fill(local, -1);
+    for (MeshPart part : parts)
+      reorderTriangles(indices, part.offset, part.offset + part.numElements / 3 * 3, local);
+
+    reorderVertices(geometry, indices);
+    for (int i = 0; i < indices.length; i++)
+      geometry.putIndex(i, indices[i]);
+    geometry.markDirty();
+
+    return new Report(acmrBefore, atvrBefore, acmr(indices, numVertices, FIFO_SIZE), atvr(
+        indices, numVertices, FIFO_SIZE));
+  }
+
+  /**
+   * Average number of vertices transformed per triangle with a FIFO cache of the given size.
+   */
+  public static float acmr(Geometry<?> geometry, int cacheSize) {
+    return acmr(readIndices(geometry), geometry.numVertices(), cacheSize);
+  }
+
+  /**
+   * Average number of times each referenced vertex is transformed with a FIFO cache of the given
+   * size.
+   */
+  public static float atvr(Geometry<?> geometry, int cacheSize) {
+    return atvr(readIndices(geometry), geometry.numVertices(), cacheSize);
+  }
+
+  private static float acmr(int[] indices, int numVertices, int cacheSize) {
+    int triangles = indices.length / 3;
+    return triangles == 0 ? 0 : (float) misses(indices, numVertices, cacheSize) / triangles;
+  }
+
+  private static float atvr(int[] indices, int numVertices, int cacheSize) {
+    boolean[] used = new boolean[numVertices];
+    int referenced = 0;
+    for (int index : indices) {
+      if (!used[index]) {
+        used[index] = true;
+        referenced++;
+      }
+    }
+    return referenced == 0 ? 0 : (float) misses(indices, numVertices, cacheSize) / referenced;
+  }
+
+  /**
+   * Number of cache misses when the indices are processed through a FIFO cache.
+   */
+  private static int misses(int[] indices, int numVertices, int cacheSize) {
+    // a vertex is cached if it entered the FIFO less than cacheSize misses ago
+    int[] entered = new int[numVertices];
+    Arrays.fill(entered, Integer.MIN_VALUE);
+    int misses = 0;
+    for (int index : indices) {
+      if (entered[index] == Integer.MIN_VALUE || misses - entered[index] > cacheSize) {
+        entered[index] = misses;
+        misses++;
+      }
+    }
+    return misses;
+  }
+
+  private static int[] readIndices(Geometry<?> geometry) {
+    int[] indices = new int[geometry.numIndices()];
+    for (int i = 0; i < indices.length; i++)
+      indices[i] = geometry.getIndex(i);
+    return indices;
+  }
+
+  /**
+   * Reorders the triangles of indices[start, end) with Forsyth's algorithm. Vertices are given
+   * dense ids local to the range through the local array (all -1 on entry and exit).
+   */
+  private static void reorderTriangles(int[] indices, int start, int end, int[] local) {
+    int numTriangles = (end - start) / 3;
+    if (numTriangles < 2)
+      return;
+
+    // dense vertex ids for this range
+    int[] global = new int[end - start];
+    int numVertices = 0;
+    int[] tris = new int[end - start];
+    for (int i = start; i < end; i++) {
+      int v = indices[i];
+      if (local[v] < 0) {
+        local[v] = numVertices;
+        global[numVertices++] = v;
+      }
+      tris[i - start] = local[v];
+    }
+
+    // triangles adjacent to each vertex (compressed rows)
+    int[] active = new int[numVertices];
+    for (int v : tris)
+      active[v]++;
+    int[] first = new int[numVertices + 1];
+    for (int v = 0; v < numVertices; v++)
+      first[v + 1] = first[v] + active[v];
+    int[] adjacent = new int[tris.length];
+    int[] fill = Arrays.copyOf(first, numVertices);
+    for (int i = 0; i < tris.length; i++)
+      adjacent[fill[tris[i]]++] = i / 3;
+
+    int[] cachePosition = new int[numVertices];
+    Arrays.fill(cachePosition, -1);
+    float[] vertexScore = new float[numVertices];
+    for (int v = 0; v < numVertices; v++)
+      vertexScore[v] = score(-1, active[v]);
+    float[] triangleScore = new float[numTriangles];
+    for (int t = 0; t < numTriangles; t++)
+      triangleScore[t] = vertexScore[tris[t * 3]] + vertexScore[tris[t * 3 + 1]]
+          + vertexScore[tris[t * 3 + 2]];
+    boolean[] emitted = new boolean[numTriangles];
+
+    // the cache holds up to CACHE_SIZE vertices plus the 3 being added
+    int[] cache = new int[CACHE_SIZE + 3];
+    int[] nextCache = new int[CACHE_SIZE + 3];
+    int cacheLength = 0;
+    int[] output = new int[end - start];
+    int scan = 0;
+    int best = bestTriangle(triangleScore, emitted, 0, numTriangles);
+
+    for (int n = 0; n < numTriangles; n++) {
+      if (best < 0) {
+        // no triangle touches the cache: take the best remaining one
+        while (emitted[scan])
+          scan++;
+        best = bestTriangle(triangleScore, emitted, scan, numTriangles);
+      }
+      emitted[best] = true;
+      System.arraycopy(tris, best * 3, output, n * 3, 3);
+
+      // move the triangle's vertices to the front of the cache
+      int nextLength = 0;
+      for (int k = 0; k < 3; k++) {
+        int v = tris[best * 3 + k];
+        nextCache[nextLength++] = v;
+        active[v]--;
+        // remove the triangle from the vertex's adjacency
+        for (int a = first[v], last = first[v] + active[v]; a <= last; a++) {
+          if (adjacent[a] == best) {
+            adjacent[a] = adjacent[last];
+            break;
+          }
+        }
+      }
+      for (int i = 0; i < cacheLength; i++) {
+        int v = cache[i];
+        if (v != nextCache[0] && v != nextCache[1] && v != nextCache[2])
+          nextCache[nextLength++] = v;
+      }
+      int[] swap = cache;
+      cache = nextCache;
+      nextCache = swap;
+      cacheLength = nextLength;
+
+      // rescore the cached vertices and the triangles around them; vertices pushed out of the
+      // cache are rescored once more to drop their cache bonus
+      for (int i = 0; i < cacheLength; i++) {
+        int v = cache[i];
+        cachePosition[v] = i < CACHE_SIZE ? i : -1;
+        float score = score(cachePosition[v], active[v]);
+        float delta = score - vertexScore[v];
+        vertexScore[v] = score;
+        for (int a = first[v], last = first[v] + active[v]; a < last; a++)
+          triangleScore[adjacent[a]] += delta;
+      }
+      if (cacheLength > CACHE_SIZE)
+        cacheLength = CACHE_SIZE;
+
+      best = -1;
+      float bestScore = -1;
+      for (int i = 0; i < cacheLength; i++) {
+        int v = cache[i];
+        for (int a = first[v], last = first[v] + active[v]; a < last; a++) {
+          int t = adjacent[a];
+          if (triangleScore[t] > bestScore) {
+            bestScore = triangleScore[t];
+            best = t;
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < output.length; i++)
+      indices[start + i] = global[output[i]];
+    for (int v = 0; v < numVertices; v++)
+      local[global[v]] = -1;
+  }
+
+  private static int bestTriangle(float[] scores, boolean[] emitted, int from, int to) {
+    int best = -1;
+    float bestScore = -1;
+    for (int t = from; t < to; t++) {
+      if (!emitted[t] && scores[t] > bestScore) {
+        bestScore = scores[t];
+        best = t;
+      }
+    }
+    return best;
+  }
+
+  private static float score(int cachePosition, int activeTriangles) {
+    if (activeTriangles == 0)
+      return -1;
+    float score = cachePosition < 0 ? 0 : CACHE_SCORES[cachePosition];
+    return score + (activeTriangles < VALENCE_SCORES.length ? VALENCE_SCORES[activeTriangles]
+        : VALENCE_BOOST * (float) Math.pow(activeTriangles, VALENCE_POWER));
+  }
+
+  /**
+   * Renumbers the vertices in order of first use by the indices (unused vertices go last), moving
+   * the vertex data and rewriting the indices to match.
+   */
+  private static void reorderVertices(Geometry<?> geometry, int[] indices) {
+    int numVertices = geometry.numVertices();
+    int[] remap = new int[numVertices];
+    Arrays.fill(remap, -1);
+    int next = 0;
+    for (int i = 0; i < indices.length; i++) {
+      int v = indices[i];
+      if (remap[v] < 0)
+        remap[v] = next++;
+      indices[i] = remap[v];
+    }
+    for (int v = 0; v < numVertices; v++)
+      if (remap[v] < 0)
+        remap[v] = next++;
+
+    int stride = geometry.getVertexType().stride();
+    if (geometry.isChunked()) {
+      // too large for an array, so the old order is kept in a chunked copy
+      ChunkedBuffer vertices = geometry.getVertexData();
+      ChunkedBuffer old = ChunkedBuffer.allocate(vertices.size(), stride);
+      for (int i = 0; i < vertices.numChunks(); i++) {
+        ByteBuffer chunk = vertices.chunk(i).duplicate();
+        chunk.clear();
+        old.chunk(i).put(chunk);
+      }
+      for (int v = 0; v < numVertices; v++)
+        vertices.element((long) remap[v] * stride).put(old.element((long) v * stride));
+      return;
+    }
+    ByteBuffer vertices = geometry.getVertices().duplicate();
+    byte[] old = new byte[numVertices * stride];
+    vertices.clear();
+    vertices.get(old);
+    for (int v = 0; v < numVertices; v++) {
+      vertices.position(remap[v] * stride);
+      vertices.put(old, v * stride, stride);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.nio.ByteBuffer;
+
+import jgl.geometry.VertexFormat.Attribute;
+import jgl.geometry.VertexFormat.Semantic;
+import jgl.math.vector.Vec2f;
+import jgl.math.vector.Vec3f;
+
+/**
+ * Flyweight over the vertices of a geometry: it points at one vertex at a time and reads or writes
+ * its attributes in place, so iterating over vertices creates no objects. Each cursor has its own
+ * view of the vertex buffer and never moves the geometry's positions, so separate cursors can be
+ * used by separate threads (as long as they do not write the same vertices).
+ *
+ * <pre>
+ * VertexCursor cursor = geometry.cursor();
+ * for (int i = 0; i &lt; geometry.numVertices(); i++)
+ *   cursor.moveTo(i).getPosition(p);
+ * </pre>
+ *
+ * @author justin
+ */
+public class VertexCursor {
+
+  private final Geometry<?>   geometry;
+  private final VertexFormat  format;
+  private final ChunkedBuffer data;
+  private final int           perChunk;
+  private final Attribute     position;
+  private final Attribute     normal;
+  private final Attribute     color;
+  private final Attribute     texCoords;
+  private int                 vertex;
+  private ByteBuffer          vertices;
+  private int                 first;
+
+  VertexCursor(Geometry<?> geometry) {
+    this.geometry = geometry;
+    this.format = geometry.getFormat();
+    if (format == null)
+      throw new IllegalArgumentException("Vertex type has no format");
+    this.data = geometry.getVertexData();
+    this.perChunk = (int) Math.max(data.chunkSize() / format.stride(), 1);
+    select(0);
+    this.position = format.attribute(Semantic.POSITION);
+    this.normal = format.attribute(Semantic.NORMAL);
+    this.color = format.attribute(Semantic.COLOR);
+    this.texCoords = format.attribute(Semantic.TEXCOORD);
+  }
+
+  /**
+   * Index of the vertex the cursor points at.
+   */
+  public int vertex() {
+    return vertex;
+  }
+
+  public VertexCursor moveTo(int vertex) {
+    this.vertex = vertex;
+    return this;
+  }
+
+  /**
+   * Moves to the next vertex; returns false once past the last one.
+   */
+  public boolean next() {
+    return ++vertex < geometry.numVertices();
+  }
+
+  public float get(Attribute a, int component) {
+    if (vertex - first >= perChunk || vertex < first)
+      select(vertex / perChunk);
+    return format.get(vertices, a, vertex - first, component);
+  }
+
+  /**
+   * Writes an attribute of the current vertex. Components beyond the attribute's count are ignored.
+   */
+  public VertexCursor set(Attribute a, float x, float y, float z, float w) {
+    if (vertex - first >= perChunk || vertex < first)
+      select(vertex / perChunk);
+    format.put(vertices, a, vertex - first, x, y, z, w);
+    geometry.markDirty();
+    return this;
+  }
+
+  public Vec3f getPosition(Vec3f dest) {
+    return get3(position, dest);
+  }
+
+  public Vec3f getNormal(Vec3f dest) {
+    return get3(normal, dest);
+  }
+
+  public Vec3f getColor(Vec3f dest) {
+    return get3(color, dest);
+  }
+
+  public Vec2f getTexCoords(Vec2f dest) {
+    dest.x = get(texCoords, 0);
+    dest.y = get(texCoords, 1);
+    return dest;
+  }
+
+  public VertexCursor setPosition(float x, float y, float z) {
+    return set(position, x, y, z, 1);
+  }
+
+  public VertexCursor setNormal(float x, float y, float z) {
+    return set(normal, x, y, z, 0);
+  }
+
+  public VertexCursor setColor(float x, float y, float z) {
+    return set(color, x, y, z, 1);
+  }
+
+  public VertexCursor setTexCoords(float u, float v) {
+    return set(texCoords, u, v, 0, 1);
+  }
+
+  /**
+   * Switches to the chunk that holds vertices from chunk * perChunk, for chunked geometry.
+   */
+  private void select(int chunk) {
+    vertices = data.chunk(chunk).duplicate().order(data.chunk(chunk).order());
+    first = chunk * perChunk;
+  }
+
+  private Vec3f get3(Attribute a, Vec3f dest) {
+    dest.x = get(a, 0);
+    dest.y = get(a, 1);
+    dest.z = get(a, 2);
+    return dest;
+  }
+}
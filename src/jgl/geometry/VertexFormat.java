@@ -0,0 +1,528 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.geometry;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL2GL3;
+
+import jgl.core.Program;
+
+/**
+ * Immutable description of an interleaved vertex layout: a list of attributes, each with a meaning
+ * (semantic), component type, component count and byte offset within the vertex. Attributes are
+ * laid out in order, each starting at a multiple of 4 bytes.
+ * <p>
+ * Pointer setup is driven by the attribute table. Fixed-function arrays are set up for the
+ * POSITION, NORMAL, COLOR and TEXCOORD attributes; generic shader attributes are matched to a
+ * program's active attributes by name. Attribute values can be read and written in bulk straight
+ * from the vertex buffer with {@link #put(ByteBuffer, Attribute, int, float[])} and
+ * {@link #get(ByteBuffer, Attribute, int, float[])}, converting to and from the component type.
+ *
+ * @author justin
+ */
+public final class VertexFormat {
+
+  public enum Semantic {
+    POSITION, NORMAL, COLOR, TEXCOORD, GENERIC
+  }
+
+  public enum ComponentType {
+    BYTE(1, GL.GL_BYTE),
+    UBYTE(1, GL.GL_UNSIGNED_BYTE),
+    SHORT(2, GL.GL_SHORT),
+    USHORT(2, GL.GL_UNSIGNED_SHORT),
+    INT(4, GL2GL3.GL_INT),
+    UINT(4, GL.GL_UNSIGNED_INT),
+    FLOAT(4, GL.GL_FLOAT);
+
+    public final int size;
+    public final int glConstant;
+
+    private ComponentType(int size, int glConstant) {
+      this.size = size;
+      this.glConstant = glConstant;
+    }
+  }
+
+  /**
+   * One attribute of a vertex. Attributes created with the public constructor have no offset until
+   * they are placed in a format; use the instances returned by the format.
+   */
+  public static final class Attribute {
+
+    public final Semantic      semantic;
+    public final String        name;
+    public final ComponentType type;
+    public final int           count;
+    public final boolean       normalized;
+    public final int           offset;
+
+    /**
+     * @param semantic - meaning of the attribute for fixed-function rendering.
+     * @param name - name of the matching shader attribute.
+     * @param type - type of each component.
+     * @param count - number of components (1 to 4).
+     * @param normalized - if integer components map to [0,1] (unsigned) or [-1,1] (signed).
+     */
+    public Attribute(Semantic semantic, String name, ComponentType type, int count,
+        boolean normalized) {
+      this(semantic, name, type, count, normalized, -1);
+    }
+
+    private Attribute(Semantic semantic, String name, ComponentType type, int count,
+        boolean normalized, int offset) {
+      if (count < 1 || count > 4)
+        throw new IllegalArgumentException("Attributes must have 1 to 4 components: " + count);
+      this.semantic = semantic;
+      this.name = name;
+      this.type = type;
+      this.count = count;
+      this.normalized = normalized;
+      this.offset = offset;
+    }
+
+    /**
+     * Size of the attribute in bytes.
+     */
+    public int size() {
+      return type.size * count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Attribute))
+        return false;
+      Attribute a = (Attribute) o;
+      return semantic == a.semantic && name.equals(a.name) && type == a.type && count == a.count
+          && normalized == a.normalized && offset == a.offset;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = semantic.hashCode();
+      hash = hash * 31 + name.hashCode();
+      hash = hash * 31 + type.hashCode();
+      hash = hash * 31 + count;
+      hash = hash * 31 + offset;
+      return normalized ? ~hash : hash;
+    }
+  }
+
+  public static final VertexFormat P   = new VertexFormat(position());
+  public static final VertexFormat PN  = new VertexFormat(position(), normal());
+  public static final VertexFormat PC  = new VertexFormat(position(), color());
+  public static final VertexFormat PNC = new VertexFormat(position(), normal(), color());
+  public static final VertexFormat PNT = new VertexFormat(position(), normal(), texCoords());
+
+  private static final Map<Class<?>, VertexFormat> REGISTERED;
+  static {
+    REGISTERED = new ConcurrentHashMap<Class<?>, VertexFormat>();
+  }
+
+  private final Attribute[]        attributes;
+  private final int                stride;
+
+  /**
+   * Creates a format with the attributes in the given order.
+   */
+  public VertexFormat(Attribute... attributes) {
+    this.attributes = new Attribute[attributes.length];
+    int offset = 0;
+    for (int i = 0; i < attributes.length; i++) {
+      Attribute a = attributes[i];
+      this.attributes[i] = new Attribute(a.semantic, a.name, a.type, a.count, a.normalized, offset);
+      offset += (a.size() + 3) & ~3;
+    }
+    this.stride = offset;
+  }
+
+  /**
+   * Declares the format of a vertex class that is not one of this package's vertex classes, or that
+   * extends one with more attributes, so that geometry of that type can be used by the algorithms
+   * that need a format (bulk transforms, cursors and views, buffer pools, mesh files). Registered
+   * formats take precedence over {@link VertexP#format()}. Subclasses of the type share its format
+   * unless they are registered themselves.
+   */
+  public static void register(Class<? extends Vertex> type, VertexFormat format) {
+    REGISTERED.put(type, format);
+  }
+
+  /**
+   * The format of a vertex: the one registered for its class (or closest registered superclass),
+   * otherwise its own for this package's vertex classes. Null if there is none, or if the vertex's
+   * stride does not match the format, as for a subclass that adds attributes by overriding stride
+   * without declaring a format.
+   */
+  public static VertexFormat of(Vertex vertex) {
+    VertexFormat format = null;
+    for (Class<?> c = vertex.getClass(); c != null && format == null; c = c.getSuperclass())
+      format = REGISTERED.get(c);
+    if (format == null && vertex instanceof VertexP)
+      format = ((VertexP) vertex).format();
+    if (format == null && vertex instanceof FormatVertex)
+      format = ((FormatVertex) vertex).format();
+    return format != null && format.stride() == vertex.stride() ? format : null;
+  }
+
+  /**
+   * 3 floats named "position".
+   */
+  public static Attribute position() {
+    return new Attribute(Semantic.POSITION, "position", ComponentType.FLOAT, 3, false);
+  }
+
+  /**
+   * 3 floats named "normal".
+   */
+  public static Attribute normal() {
+    return new Attribute(Semantic.NORMAL, "normal", ComponentType.FLOAT, 3, false);
+  }
+
+  /**
+   * 3 floats named "color".
+   */
+  public static Attribute color() {
+    return new Attribute(Semantic.COLOR, "color", ComponentType.FLOAT, 3, false);
+  }
+
+  /**
+   * 2 floats named "texCoords".
+   */
+  public static Attribute texCoords() {
+    return new Attribute(Semantic.TEXCOORD, "texCoords", ComponentType.FLOAT, 2, false);
+  }
+
+  /**
+   * Size of one vertex in bytes.
+   */
+  public int stride() {
+    return stride;
+  }
+
+  public List<Attribute> getAttributes() {
+    return Collections.unmodifiableList(Arrays.asList(attributes));
+  }
+
+  /**
+   * The first attribute with the semantic, or null if there is none.
+   */
+  public Attribute attribute(Semantic semantic) {
+    for (Attribute a : attributes)
+      if (a.semantic == semantic)
+        return a;
+    return null;
+  }
+
+  /**
+   * The attribute with the name, or null if there is none.
+   */
+  public Attribute attribute(String name) {
+    for (Attribute a : attributes)
+      if (a.name.equals(name))
+        return a;
+    return null;
+  }
+
+  /**
+   * Byte offset of the first attribute with the semantic if it has count float components, as bulk
+   * algorithms require of positions and normals; otherwise -1.
+   */
+  public int floatOffset(Semantic semantic, int count) {
+    Attribute a = attribute(semantic);
+    return a != null && a.type == ComponentType.FLOAT && a.count == count ? a.offset : -1;
+  }
+
+  /**
+   * Sets up fixed-function pointers into the bound vertex buffer object.
+   */
+  public void startArrays(GL2 gl) {
+    startArrays(gl, stride);
+  }
+
+  /**
+   * Sets up fixed-function pointers into the bound vertex buffer object for vertices that are
+   * stride bytes apart, which may be more than this format's stride if they have other attributes
+   * after it.
+   */
+  void startArrays(GL2 gl, int stride) {
+    for (Attribute a : attributes)
+      pointer(gl, a, stride, a.offset, null);
+  }
+
+  /**
+   * Sets up fixed-function pointers into a local vertex buffer. The buffer's position is not
+   * changed.
+   */
+  public void startArrays(GL2 gl, ByteBuffer vertices) {
+    startArrays(gl, vertices, stride);
+  }
+
+  /**
+   * Sets up fixed-function pointers into a local vertex buffer for vertices that are stride bytes
+   * apart. The buffer's position is not changed.
+   */
+  void startArrays(GL2 gl, ByteBuffer vertices, int stride) {
+    for (Attribute a : attributes) {
+      ByteBuffer b = vertices.duplicate();
+      b.position(a.offset);
+      pointer(gl, a, stride, 0, b);
+    }
+  }
+
+  /**
+   * Clears the fixed-function pointers set up by startArrays.
+   */
+  public void endArrays(GL2 gl) {
+    for (Attribute a : attributes) {
+      int array = clientState(a.semantic);
+      if (array != 0)
+        gl.glDisableClientState(array);
+    }
+  }
+
+  /**
+   * Sets up the program's active attributes whose names match attributes of this format, reading
+   * from the bound vertex buffer object.
+   */
+  public void startAttributes(GL2GL3 gl, Program program) {
+    for (Attribute a : attributes) {
+      jgl.core.Attribute target = program.attribute(a.name);
+      if (target != null) {
+        gl.glEnableVertexAttribArray(target.index);
+        gl.glVertexAttribPointer(target.index, a.count, a.type.glConstant, a.normalized, stride,
+            a.offset);
+      }
+    }
+  }
+
+  /**
+   * Sets up the program's active attributes whose names match attributes of this format, reading
+   * from a local vertex buffer. The buffer's position is not changed.
+   */
+  public void startAttributes(GL2GL3 gl, Program program, ByteBuffer vertices) {
+    for (Attribute a : attributes) {
+      jgl.core.Attribute target = program.attribute(a.name);
+      if (target != null) {
+        ByteBuffer b = vertices.duplicate();
+        b.position(a.offset);
+        gl.glEnableVertexAttribArray(target.index);
+        gl.glVertexAttribPointer(target.index, a.count, a.type.glConstant, a.normalized, stride, b);
+      }
+    }
+  }
+
+  public void endAttributes(GL2GL3 gl, Program program) {
+    for (Attribute a : attributes) {
+      jgl.core.Attribute target = program.attribute(a.name);
+      if (target != null)
+        gl.glDisableVertexAttribArray(target.index);
+    }
+  }
+
+  /**
+   * Issues the attributes of one vertex for immediate mode rendering, the position last. Reads the
+   * buffer with absolute offsets, so its position is not changed.
+   */
+  public void drawImmediate(GL2 gl, ByteBuffer vertices, int vertex) {
+    Attribute position = null;
+    for (Attribute a : attributes) {
+      switch (a.semantic) {
+      case POSITION:
+        position = a;
+        break;
+      case NORMAL:
+        gl.glNormal3f(get(vertices, a, vertex, 0), get(vertices, a, vertex, 1),
+            get(vertices, a, vertex, 2));
+        break;
+      case COLOR:
+        gl.glColor4f(get(vertices, a, vertex, 0, 0), get(vertices, a, vertex, 1, 0),
+            get(vertices, a, vertex, 2, 0), get(vertices, a, vertex, 3, 1));
+        break;
+      case TEXCOORD:
+        gl.glTexCoord4f(get(vertices, a, vertex, 0, 0), get(vertices, a, vertex, 1, 0),
+            get(vertices, a, vertex, 2, 0), get(vertices, a, vertex, 3, 1));
+        break;
+      default:
+      }
+    }
+    if (position != null)
+      gl.glVertex4f(get(vertices, position, vertex, 0, 0), get(vertices, position, vertex, 1, 0),
+          get(vertices, position, vertex, 2, 0), get(vertices, position, vertex, 3, 1));
+  }
+
+  /**
+   * Writes the attribute of consecutive vertices, starting at vertex first, from values (count
+   * components per vertex). The buffer's position is not changed.
+   */
+  public void put(ByteBuffer vertices, Attribute a, int first, float[] values) {
+    int n = values.length / a.count;
+    for (int v = 0; v < n; v++) {
+      int i = (first + v) * stride + a.offset;
+      for (int c = 0; c < a.count; c++, i += a.type.size)
+        put(vertices, i, a, values[v * a.count + c]);
+    }
+  }
+
+  /**
+   * Writes one attribute of one vertex. Components beyond the attribute's count are ignored.
+   */
+  public void put(ByteBuffer vertices, Attribute a, int vertex, float x, float y, float z, float w) {
+    int i = vertex * stride + a.offset;
+    put(vertices, i, a, x);
+    if (a.count > 1)
+      put(vertices, i + a.type.size, a, y);
+    if (a.count > 2)
+      put(vertices, i + a.type.size * 2, a, z);
+    if (a.count > 3)
+      put(vertices, i + a.type.size * 3, a, w);
+  }
+
+  /**
+   * Reads the attribute of consecutive vertices, starting at vertex first, into values (count
+   * components per vertex). The buffer's position is not changed.
+   */
+  public void get(ByteBuffer vertices, Attribute a, int first, float[] values) {
+    int n = values.length / a.count;
+    for (int v = 0; v < n; v++) {
+      int i = (first + v) * stride + a.offset;
+      for (int c = 0; c < a.count; c++, i += a.type.size)
+        values[v * a.count + c] = get(vertices, i, a);
+    }
+  }
+
+  /**
+   * Reads one component of one attribute of one vertex.
+   */
+  public float get(ByteBuffer vertices, Attribute a, int vertex, int component) {
+    return get(vertices, vertex * stride + a.offset + component * a.type.size, a);
+  }
+
+  /**
+   * Reads one component, or returns fallback if the attribute has fewer components.
+   */
+  private float get(ByteBuffer vertices, Attribute a, int vertex, int component, float fallback) {
+    return component < a.count ? get(vertices, a, vertex, component) : fallback;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof VertexFormat && Arrays.equals(attributes, ((VertexFormat) o).attributes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(attributes);
+  }
+
+  private static void put(ByteBuffer b, int i, Attribute a, float x) {
+    switch (a.type) {
+    case FLOAT:
+      b.putFloat(i, x);
+      break;
+    case BYTE:
+      b.put(i, (byte) (a.normalized ? Math.round(clamp(x, -1, 1) * 127) : x));
+      break;
+    case UBYTE:
+      b.put(i, (byte) (a.normalized ? Math.round(clamp(x, 0, 1) * 255) : x));
+      break;
+    case SHORT:
+      b.putShort(i, (short) (a.normalized ? Math.round(clamp(x, -1, 1) * 32767) : x));
+      break;
+    case USHORT:
+      b.putShort(i, (short) (a.normalized ? Math.round(clamp(x, 0, 1) * 65535) : x));
+      break;
+    case INT:
+      b.putInt(i, a.normalized ? (int) Math.round(clamp(x, -1, 1) * 2147483647.0) : (int) x);
+      break;
+    case UINT:
+      b.putInt(i, a.normalized ? (int) Math.round(clamp(x, 0, 1) * 4294967295.0) : (int) (long) x);
+      break;
+    }
+  }
+
+  private static float get(ByteBuffer b, int i, Attribute a) {
+    switch (a.type) {
+    case BYTE:
+      return a.normalized ? Math.max(b.get(i) / 127f, -1) : b.get(i);
+    case UBYTE:
+      return a.normalized ? (b.get(i) & 0xFF) / 255f : b.get(i) & 0xFF;
+    case SHORT:
+      return a.normalized ? Math.max(b.getShort(i) / 32767f, -1) : b.getShort(i);
+    case USHORT:
+      return a.normalized ? (b.getShort(i) & 0xFFFF) / 65535f : b.getShort(i) & 0xFFFF;
+    case INT:
+      return a.normalized ? (float) Math.max(b.getInt(i) / 2147483647.0, -1) : b.getInt(i);
+    case UINT:
+      long u = b.getInt(i) & 0xFFFFFFFFL;
+      return a.normalized ? (float) (u / 4294967295.0) : u;
+    default:
+      return b.getFloat(i);
+    }
+  }
+
+  private static float clamp(float x, float min, float max) {
+    return x < min ? min : x > max ? max : x;
+  }
+
+  private static int clientState(Semantic semantic) {
+    switch (semantic) {
+    case POSITION:
+      return GL2.GL_VERTEX_ARRAY;
+    case NORMAL:
+      return GL2.GL_NORMAL_ARRAY;
+    case COLOR:
+      return GL2.GL_COLOR_ARRAY;
+    case TEXCOORD:
+      return GL2.GL_TEXTURE_COORD_ARRAY;
+    default:
+      return 0;
+    }
+  }
+
+  /**
+   * Sets the fixed-function pointer for an attribute, either to an offset in the bound buffer
+   * object (buffer is null) or to a local buffer.
+   */
+  private void pointer(GL2 gl, Attribute a, int stride, long offset, Buffer buffer) {
+    int array = clientState(a.semantic);
+    if (array == 0)
+      return;
+    gl.glEnableClientState(array);
+    int type = a.type.glConstant;
+    switch (a.semantic) {
+    case POSITION:
+      if (buffer == null)
+        gl.glVertexPointer(a.count, type, stride, offset);
+      else
+        gl.glVertexPointer(a.count, type, stride, buffer);
+      break;
+    case NORMAL:
+      if (buffer == null)
+        gl.glNormalPointer(type, stride, offset);
+      else
+        gl.glNormalPointer(type, stride, buffer);
+      break;
+    case COLOR:
+      if (buffer == null)
+        gl.glColorPointer(a.count, type, stride, offset);
+      else
+        gl.glColorPointer(a.count, type, stride, buffer);
+      break;
+    default:
+      if (buffer == null)
+        gl.glTexCoordPointer(a.count, type, stride, offset);
+      else
+        gl.glTexCoordPointer(a.count, type, stride, buffer);
+    }
+  }
+}
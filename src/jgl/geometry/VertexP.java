@@ -6,7 +6,6 @@ package jgl.geometry;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
-import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 
 import jgl.math.vector.ConstVec3f;
@@ -14,7 +13,10 @@ import jgl.math.vector.Mat4f;
 import jgl.math.vector.Vec3f;
 
 /**
- * A vertex that contains a position.
+ * A vertex that contains a position. Subclasses add attributes by overriding put, get,
+ * drawImmediate and transform; the layout used for stride and pointer setup comes from
+ * {@link #format()}. Subclasses that instead override stride and startArrays still draw, but have
+ * no format unless one is registered with {@link VertexFormat#register}.
  * 
  * @author justin
  */
@@ -32,9 +34,16 @@ public class VertexP implements Vertex {
     return this;
   }
   
+  /**
+   * Layout of the vertex's attributes.
+   */
+  public VertexFormat format() {
+    return VertexFormat.P;
+  }
+
   @Override
   public int stride() {
-    return 12;
+    return format().stride();
   }
 
   @Override
@@ -56,26 +65,28 @@ public class VertexP implements Vertex {
     gl.glVertex3f(position.x, position.y, position.z);
   }
 
+  /**
+   * Sets up pointers for the format's attributes with this vertex's stride, so a subclass that
+   * overrides stride to append attributes can call this and add its own pointers.
+   */
   @Override
   public void startArrays(GL2 gl) {
-    gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
-    gl.glVertexPointer(3, GL.GL_FLOAT, stride(), 0);
+    format().startArrays(gl, stride());
   }
 
   @Override
   public void startArrays(GL2 gl, Buffer vertices) {
-    gl.glEnableClientState(GL2.GL_VERTEX_ARRAY); 
-    gl.glVertexPointer(3, GL.GL_FLOAT, stride(), vertices.position(0));
+    format().startArrays(gl, (ByteBuffer) vertices, stride());
   }
 
   @Override
   public void endArrays(GL2 gl) {
-    gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+    format().endArrays(gl);
   }
 
   @Override
   public void transform(Mat4f matrix) {
-    position = matrix.times(position.x, position.y, position.z, 1).xyz();
+    matrix.transformPoint(position, position);
   }
   
   public static class GeometryP extends Geometry<VertexP> {
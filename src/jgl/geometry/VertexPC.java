@@ -1,15 +1,12 @@
 package jgl.geometry;
 
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
-import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 
 import jgl.math.vector.ConstVec3f;
 import jgl.math.vector.Vec3f;
 
-
 /**
  * A vertex that contains a position and color.
  * 
@@ -40,8 +37,8 @@ public class VertexPC extends VertexP {
   }
   
   @Override
-  public int stride() {
-    return super.stride() + 12;
+  public VertexFormat format() {
+    return VertexFormat.PC;
   }
 
   @Override
@@ -65,26 +62,6 @@ public class VertexPC extends VertexP {
     gl.glColor3f(color.x, color.y, color.z);
     super.drawImmediate(gl);
   }
-
-  @Override
-  public void startArrays(GL2 gl) {
-    super.startArrays(gl);
-    gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
-    gl.glColorPointer(3, GL.GL_FLOAT, stride(), super.stride());
-  }
-
-  @Override
-  public void startArrays(GL2 gl, Buffer vertices) {
-    super.startArrays(gl, vertices);
-    gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
-    gl.glColorPointer(3, GL.GL_FLOAT, stride(), vertices.position(super.stride()));
-  }
-
-  @Override
-  public void endArrays(GL2 gl) {
-    super.endArrays(gl);
-    gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
-  }
   
   public static class GeometryPC extends Geometry<VertexPC> {
     public GeometryPC(Primitive type, int numVertices, int numIndices) {
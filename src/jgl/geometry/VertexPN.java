@@ -3,10 +3,8 @@
  *******************************************************************************/
 package jgl.geometry;
 
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
-import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 
 import jgl.math.vector.ConstVec3f;
@@ -43,8 +41,8 @@ public class VertexPN extends VertexP {
   }
   
   @Override
-  public int stride() {
-    return super.stride() + 12;
+  public VertexFormat format() {
+    return VertexFormat.PN;
   }
 
   @Override
@@ -68,31 +66,11 @@ public class VertexPN extends VertexP {
     gl.glNormal3f(normal.x, normal.y, normal.z);
     super.drawImmediate(gl);
   }
-
-  @Override
-  public void startArrays(GL2 gl) {
-    super.startArrays(gl);
-    gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
-    gl.glNormalPointer(GL.GL_FLOAT, stride(), super.stride());
-  }
-
-  @Override
-  public void startArrays(GL2 gl, Buffer vertices) {
-    super.startArrays(gl, vertices);
-    gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
-    gl.glNormalPointer(GL.GL_FLOAT, stride(), vertices.position(super.stride()));
-  }
-
-  @Override
-  public void endArrays(GL2 gl) {
-    super.endArrays(gl);
-    gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
-  }
   
   @Override
   public void transform(Mat4f matrix) {
     super.transform(matrix);
-    normal = matrix.times(normal);
+    BatchTransform.transformNormal(matrix, normal);
   }
   
   public static class GeometryPN extends Geometry<VertexPN> {
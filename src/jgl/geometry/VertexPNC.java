@@ -1,9 +1,7 @@
 package jgl.geometry;
 
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
-import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 
 import jgl.math.vector.ConstVec3f;
@@ -49,8 +47,8 @@ public class VertexPNC extends VertexPN {
   }
 
   @Override
-  public int stride() {
-    return super.stride() + 12;
+  public VertexFormat format() {
+    return VertexFormat.PNC;
   }
 
   @Override
@@ -74,26 +72,6 @@ public class VertexPNC extends VertexPN {
     gl.glColor3f(color.x, color.y, color.z);
     super.drawImmediate(gl);
   }
-
-  @Override
-  public void startArrays(GL2 gl) {
-    super.startArrays(gl);
-    gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
-    gl.glColorPointer(3, GL.GL_FLOAT, stride(), super.stride());
-  }
-
-  @Override
-  public void startArrays(GL2 gl, Buffer vertices) {
-    super.startArrays(gl, vertices);
-    gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
-    gl.glColorPointer(3, GL.GL_FLOAT, stride(), vertices.position(super.stride()));
-  }
-
-  @Override
-  public void endArrays(GL2 gl) {
-    super.endArrays(gl);
-    gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
-  }
   
   public static class GeometryPNC extends Geometry<VertexPNC> {
     public GeometryPNC(Primitive type, int numVertices, int numIndices) {
@@ -3,10 +3,8 @@
  *******************************************************************************/
 package jgl.geometry;
 
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
-import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 
 import jgl.math.vector.ConstVec2f;
@@ -53,8 +51,8 @@ public class VertexPNT extends VertexPN {
   }
   
   @Override
-  public int stride() {
-    return super.stride() + 8;
+  public VertexFormat format() {
+    return VertexFormat.PNT;
   }
 
   @Override
@@ -76,26 +74,6 @@ public class VertexPNT extends VertexPN {
     gl.glTexCoord2f(texCoords.x, texCoords.y);
     super.drawImmediate(gl);
   }
-
-  @Override
-  public void startArrays(GL2 gl) {
-    super.startArrays(gl);
-    gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-    gl.glTexCoordPointer(2, GL.GL_FLOAT, stride(), super.stride());
-  }
-
-  @Override
-  public void startArrays(GL2 gl, Buffer vertices) {
-    super.startArrays(gl, vertices);
-    gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-    gl.glTexCoordPointer(2, GL.GL_FLOAT, stride(), vertices.position(super.stride()));
-  }
-
-  @Override
-  public void endArrays(GL2 gl) {
-    super.endArrays(gl);
-    gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-  }
   
   public static class GeometryPNT extends Geometry<VertexPNT> {
     public GeometryPNT(Primitive type, int numVertices, int numIndices) {
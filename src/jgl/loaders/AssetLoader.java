@@ -0,0 +1,363 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.loaders;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+
+import jgl.core.Texture;
+import jgl.geometry.Mesh;
+
+/**
+ * Loads assets without blocking the render thread. File reads run on an unbounded pool of I/O
+ * threads, parsing and decoding on a bounded pool of CPU threads, and the GL work that remains is
+ * queued until the render thread calls {@link #update(GL)}. Each update runs queued uploads until a
+ * per-frame byte or time budget is used up, so streaming assets in keeps frame times stable.
+ * <p>
+ * Every load returns a future that completes when the asset is ready to use; for GL resources that
+ * is after the upload, so {@link Future#get()} must not be called on the render thread before the
+ * asset has been uploaded. Failures are reported through the future.
+ *
+ * @author justin
+ */
+public class AssetLoader {
+
+  /**
+   * GL work that turns data prepared in the background into a resource.
+   */
+  public interface Upload<D, T> {
+
+    /**
+     * Number of bytes the upload transfers; counted against the per-frame byte budget.
+     */
+    long size(D data);
+
+    /**
+     * Creates the resource. Called on the GL thread.
+     */
+    T upload(GL gl, D data);
+  }
+
+  private static final Upload<ImageData, Texture> TEXTURE_UPLOAD;
+  static {
+    TEXTURE_UPLOAD = new Upload<ImageData, Texture>() {
+      public long size(ImageData data) {
+        return data.size();
+      }
+
+      public Texture upload(GL gl, ImageData data) {
+        return data.upload(gl);
+      }
+    };
+  }
+
+  private final ExecutorService      io;
+  private final ExecutorService      cpu;
+  private final Queue<Pending<?, ?>> uploads       = new ConcurrentLinkedQueue<Pending<?, ?>>();
+  private final Set<Pending<?, ?>>   live;
+  private volatile long              bytesPerFrame = 4 << 20;
+  private volatile long              nanosPerFrame = 2000000;
+  private volatile File              meshCacheDirectory;
+  private volatile boolean           optimizeMeshes;
+  private volatile MipmapGenerator   mipmaps;
+
+  /**
+   * Creates a loader with one CPU thread per available processor, less one for the render thread.
+   */
+  public AssetLoader() {
+    this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+  }
+
+  /**
+   * Creates a loader that parses and decodes on the given number of threads.
+   */
+  public AssetLoader(int cpuThreads) {
+    io = Executors.newCachedThreadPool(new Factory("jgl-io"));
+    cpu = Executors.newFixedThreadPool(cpuThreads, new Factory("jgl-cpu"));
+    live = Collections.newSetFromMap(new ConcurrentHashMap<Pending<?, ?>, Boolean>());
+  }
+
+  /**
+   * Limits the GL work done by each {@link #update(GL)}: uploads stop once either bytes have been
+   * transferred or nanos have elapsed (GL calls return before the driver finishes, so the time is
+   * approximate). At least one upload runs per update regardless of its size.
+   */
+  public void setUploadBudget(long bytes, long nanos) {
+    this.bytesPerFrame = bytes;
+    this.nanosPerFrame = nanos;
+  }
+
+  /**
+   * Directory used to cache meshes loaded by {@link #loadMesh(File)}, or null for no cache. See
+   * {@link ObjLoader#setCacheDirectory(File)}.
+   */
+  public void setMeshCacheDirectory(File directory) {
+    this.meshCacheDirectory = directory;
+  }
+
+  /**
+   * Whether meshes loaded by {@link #loadMesh(File)} are optimized for the vertex cache. See
+   * {@link ObjLoader#setOptimizeVertexCache(boolean)}.
+   */
+  public void setOptimizeMeshes(boolean optimize) {
+    this.optimizeMeshes = optimize;
+  }
+
+  /**
+   * Generator used to create mipmaps for textures loaded by {@link #loadTexture(File)}, or null
+   * (the default) to upload the base level only. Mipmaps are generated on the CPU thread that
+   * decodes the image.
+   */
+  public void setMipmapGenerator(MipmapGenerator mipmaps) {
+    this.mipmaps = mipmaps;
+  }
+
+  /**
+   * Runs a task on a CPU thread.
+   */
+  public <T> Future<T> submit(Callable<T> task) {
+    return cpu.submit(task);
+  }
+
+  /**
+   * Prepares data on a CPU thread, then queues the upload for the GL thread. The returned future
+   * completes when the upload has run.
+   */
+  public <D, T> Future<T> submit(Callable<D> prepare, Upload<D, T> upload) {
+    Pending<D, T> pending = new Pending<D, T>(upload, live);
+    cpu.execute(new Prepare<D, T>(pending, prepare));
+    return pending.task;
+  }
+
+  /**
+   * Loads an OBJ model on a CPU thread. Meshes are drawn from client memory, so no upload is
+   * queued; the future completes as soon as the mesh is parsed (its value is null if the file could
+   * not be loaded).
+   */
+  public Future<Mesh> loadMesh(final File file) {
+    final File cacheDirectory = meshCacheDirectory;
+    final boolean optimize = optimizeMeshes;
+    return cpu.submit(new Callable<Mesh>() {
+      public Mesh call() {
+        ObjLoader loader = new ObjLoader();
+        loader.setCacheDirectory(cacheDirectory);
+        loader.setOptimizeVertexCache(optimize);
+        return loader.load(file);
+      }
+    });
+  }
+
+  /**
+   * Reads an image file on an I/O thread, decodes it on a CPU thread, and uploads it to a texture
+   * on the GL thread.
+   */
+  public Future<Texture> loadTexture(final File file) {
+    final MipmapGenerator mipmaps = this.mipmaps;
+    final Pending<ImageData, Texture> pending = new Pending<ImageData, Texture>(TEXTURE_UPLOAD,
+        live);
+    io.execute(new Runnable() {
+      public void run() {
+        if (pending.task.isCancelled())
+          return;
+        final byte[] bytes;
+        try {
+          bytes = readFile(file);
+        } catch (Throwable e) {
+          pending.error = e;
+          uploads.add(pending);
+          return;
+        }
+        cpu.execute(new Prepare<ImageData, Texture>(pending, new Callable<ImageData>() {
+          public ImageData call() throws IOException {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (image == null)
+              throw new IOException("Unsupported image format: " + file);
+            ImageData data = TextureLoader.decode(image);
+            return mipmaps == null ? data : mipmaps.generate(data);
+          }
+        }));
+      }
+    });
+    return pending.task;
+  }
+
+  /**
+   * Runs queued uploads on the calling thread, which must have the GL context current, until the
+   * per-frame budget is used up. Returns the number of uploads run.
+   */
+  public int update(GL gl) {
+    long start = System.nanoTime();
+    long bytes = 0;
+    int count = 0;
+    Pending<?, ?> pending;
+    while ((pending = uploads.peek()) != null) {
+      long size = pending.size();
+      if (count > 0 && (bytes + size > bytesPerFrame || System.nanoTime() - start >= nanosPerFrame))
+        break;
+      uploads.poll();
+      pending.run(gl);
+      bytes += size;
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Number of uploads waiting for {@link #update(GL)}.
+   */
+  public int numPendingUploads() {
+    return uploads.size();
+  }
+
+  /**
+   * Stops the worker threads and cancels all loads that have not completed.
+   */
+  public void shutdown() {
+    cancel(io.shutdownNow());
+    cancel(cpu.shutdownNow());
+    for (Pending<?, ?> pending : live)
+      pending.task.cancel(false);
+    uploads.clear();
+  }
+
+  /**
+   * Cancels the futures of tasks that were queued but never started (such as mesh loads).
+   */
+  private static void cancel(List<Runnable> tasks) {
+    for (Runnable task : tasks)
+      if (task instanceof Future)
+        ((Future<?>) task).cancel(false);
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    FileInputStream in = new FileInputStream(file);
+    try {
+      long length = file.length();
+      if (length > Integer.MAX_VALUE)
+        throw new IOException("File too large: " + file);
+      byte[] bytes = new byte[(int) length];
+      int offset = 0;
+      while (offset < bytes.length) {
+        int n = in.read(bytes, offset, bytes.length - offset);
+        if (n < 0)
+          throw new IOException("Unexpected end of file: " + file);
+        offset += n;
+      }
+      return bytes;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * A load waiting for its data or for its upload. The task completes the future handed out to
+   * the caller; it is run on the GL thread. The load is in the live set until its task is done, so
+   * {@link AssetLoader#shutdown()} can cancel it wherever it is.
+   */
+  private static class Pending<D, T> implements Callable<T> {
+
+    final Upload<D, T>  upload;
+    final FutureTask<T> task;
+    volatile D          data;
+    volatile Throwable  error;
+    GL                  gl;
+
+    Pending(Upload<D, T> upload, final Set<Pending<?, ?>> live) {
+      this.upload = upload;
+      this.task = new FutureTask<T>(this) {
+        @Override
+        protected void done() {
+          live.remove(Pending.this);
+        }
+      };
+      live.add(this);
+    }
+
+    long size() {
+      return data == null ? 0 : upload.size(data);
+    }
+
+    void run(GL gl) {
+      this.gl = gl;
+      task.run();
+      this.gl = null;
+      data = null;
+    }
+
+    @Override
+    public T call() throws Exception {
+      if (error instanceof Exception)
+        throw (Exception) error;
+      if (error instanceof Error)
+        throw (Error) error;
+      if (error != null)
+        throw new Exception(error);
+      return upload.upload(gl, data);
+    }
+  }
+
+  /**
+   * Prepares the data of a pending load on a CPU thread, then queues its upload.
+   */
+  private class Prepare<D, T> implements Runnable {
+
+    final Pending<D, T> pending;
+    final Callable<D>   prepare;
+
+    Prepare(Pending<D, T> pending, Callable<D> prepare) {
+      this.pending = pending;
+      this.prepare = prepare;
+    }
+
+    public void run() {
+      if (pending.task.isCancelled())
+        return;
+      try {
+        pending.data = prepare.call();
+      } catch (Throwable e) {
+        // errors such as running out of memory on a large image must still complete the future
+        pending.error = e;
+      }
+      uploads.add(pending);
+    }
+  }
+
+  /**
+   * Creates named daemon threads, so an unfinished load does not keep the application alive.
+   */
+  private static class Factory implements ThreadFactory {
+
+    final String        name;
+    final AtomicInteger count = new AtomicInteger();
+
+    Factory(String name) {
+      this.name = name;
+    }
+
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2GL3;
+
+import jgl.core.Texture;
+
+/**
+ * Decoded pixels that are ready to be uploaded to a texture, optionally with a chain of mipmap
+ * levels. Decoding needs no GL context, so it can be done on any thread; only {@link #upload(GL)}
+ * must be called on the GL thread.
+ *
+ * @author justin
+ */
+public class ImageData {
+
+  public final int          width;
+  public final int          height;
+  public final int          internalFormat;
+  public final int          format;
+  public final int          type;
+  public final ByteBuffer   data;
+  private final ByteBuffer[] mipmaps;
+
+  public ImageData(int width, int height, int internalFormat, int format, int type,
+      ByteBuffer data) {
+    this(width, height, internalFormat, format, type, data, null);
+  }
+
+  /**
+   * Creates image data with mipmaps: mipmaps[i] holds level i + 1, whose size is given by
+   * {@link #width(int)} and {@link #height(int)}.
+   */
+  public ImageData(int width, int height, int internalFormat, int format, int type,
+      ByteBuffer data, ByteBuffer[] mipmaps) {
+    this.width = width;
+    this.height = height;
+    this.internalFormat = internalFormat;
+    this.format = format;
+    this.type = type;
+    this.data = data;
+    this.mipmaps = mipmaps;
+  }
+
+  /**
+   * Number of levels, including the base level.
+   */
+  public int numLevels() {
+    return mipmaps == null ? 1 : mipmaps.length + 1;
+  }
+
+  /**
+   * Pixels of a level (0 is the base level).
+   */
+  public ByteBuffer level(int level) {
+    return level == 0 ? data : mipmaps[level - 1];
+  }
+
+  /**
+   * Width of a level: the base width halved level times (rounding down), but at least 1.
+   */
+  public int width(int level) {
+    return Math.max(1, width >> level);
+  }
+
+  /**
+   * Height of a level: the base height halved level times (rounding down), but at least 1.
+   */
+  public int height(int level) {
+    return Math.max(1, height >> level);
+  }
+
+  /**
+   * Size of the pixel data of all levels in bytes.
+   */
+  public int size() {
+    int size = data.capacity();
+    for (int i = 1; i < numLevels(); i++)
+      size += mipmaps[i - 1].capacity();
+    return size;
+  }
+
+  /**
+   * Bytes per pixel: 3 for RGB / BGR bytes, otherwise 4.
+   */
+  public int pixelSize() {
+    if (type == GL.GL_UNSIGNED_BYTE && (format == GL.GL_RGB || format == GL2GL3.GL_BGR))
+      return 3;
+    return 4;
+  }
+
+  /**
+   * Index of the alpha byte within a pixel, or -1 if there is none.
+   */
+  public int alphaIndex() {
+    if (pixelSize() == 3)
+      return -1;
+    if (type == GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV)
+      return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 3 : 0;
+    return 3;
+  }
+
+  /**
+   * Creates a 2D texture from the pixels, with repeat wrapping and linear filtering (trilinear if
+   * there are mipmaps).
+   */
+  public Texture upload(GL gl) {
+    Texture texture = new Texture(Texture.Target.TEXTURE_2D);
+    texture.bind(gl);
+    gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
+    texture.set(gl, GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
+    texture.set(gl, GL.GL_TEXTURE_WRAP_T, GL.GL_REPEAT);
+    texture.set(gl, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+    if (mipmaps == null) {
+      texture.set(gl, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+    } else {
+      texture.set(gl, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR_MIPMAP_LINEAR);
+      texture.set(gl, GL2GL3.GL_TEXTURE_MAX_LEVEL, mipmaps.length);
+    }
+    for (int i = 0; i < numLevels(); i++) {
+      ByteBuffer pixels = level(i).duplicate();
+      pixels.clear();
+      texture.setData2D(gl, i, internalFormat, width(i), height(i), format, type, pixels);
+    }
+    return texture;
+  }
+}
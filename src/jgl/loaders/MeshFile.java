@@ -0,0 +1,425 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.loaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jgl.geometry.Geometry;
+import jgl.geometry.Geometry.IndexType;
+import jgl.geometry.Geometry.Primitive;
+import jgl.geometry.Mesh;
+import jgl.geometry.Mesh.MeshPart;
+import jgl.geometry.ChunkedBuffer;
+import jgl.geometry.FormatVertex;
+import jgl.geometry.Vertex;
+import jgl.geometry.VertexFormat;
+import jgl.geometry.VertexFormat.Attribute;
+import jgl.geometry.VertexFormat.ComponentType;
+import jgl.geometry.VertexFormat.Semantic;
+import jgl.geometry.VertexP;
+import jgl.geometry.VertexPC;
+import jgl.geometry.VertexPN;
+import jgl.geometry.VertexPNC;
+import jgl.geometry.VertexPNT;
+import jgl.math.vector.Vec4f;
+import jgl.shading.PhongMaterial;
+
+/**
+ * Binary mesh format that can be loaded without parsing or copying. The file starts with a header
+ * (counts, the {@link VertexFormat} attributes, mesh parts with their material data, and optional
+ * source digests used to validate caches), followed by the interleaved vertex bytes and the index
+ * bytes exactly as they are stored in {@link Geometry}. Any geometry can be written; it is read
+ * back with the matching fixed vertex class (such as {@link VertexPNT}) if its format is one of
+ * theirs, or as a {@link FormatVertex.FormatGeometry} otherwise. Reading maps those two regions
+ * and wraps them in a geometry, so the data goes from the page cache to OpenGL without passing
+ * through the Java heap.
+ * <p>
+ * The regions are mapped copy-on-write if the file is writable, so the loaded geometry can be
+ * modified (e.g. transformed) without changing the file; otherwise they are read-only. Vertex or
+ * index data larger than 2 GB is mapped as a {@link ChunkedBuffer}, giving chunked geometry (see
+ * {@link Geometry#isChunked()}). Files are written in the byte order of the source geometry and can
+ * only be read on a platform with the same native byte order.
+ * Textures are not stored; only the colors and shininess of {@link PhongMaterial}s are kept, and
+ * other materials are read back as a default PhongMaterial.
+ *
+ * @author justin
+ */
+public class MeshFile {
+
+  private static final int     MAGIC          = 0x4A474C4D; // "JGLM"
+  private static final int     VERSION        = 2;
+  private static final int     FIXED_HEADER   = 44;
+  private static final int     DATA_ALIGNMENT = 16;
+
+  private static final int     MATERIAL_OTHER = 0;
+  private static final int     MATERIAL_PHONG = 1;
+
+  private static final Charset UTF8           = Charset.forName("UTF-8");
+
+  private static final Map<VertexFormat, Vertex.Constructor<?>> CONSTRUCTORS;
+  static {
+    CONSTRUCTORS = new LinkedHashMap<VertexFormat, Vertex.Constructor<?>>();
+    CONSTRUCTORS.put(VertexFormat.P, VertexP.CONSTRUCTOR);
+    CONSTRUCTORS.put(VertexFormat.PC, VertexPC.CONSTRUCTOR);
+    CONSTRUCTORS.put(VertexFormat.PN, VertexPN.CONSTRUCTOR);
+    CONSTRUCTORS.put(VertexFormat.PNC, VertexPNC.CONSTRUCTOR);
+    CONSTRUCTORS.put(VertexFormat.PNT, VertexPNT.CONSTRUCTOR);
+  }
+
+  /**
+   * Writes the mesh to a file.
+   */
+  public static void write(Mesh mesh, File file) throws IOException {
+    write(mesh, new LinkedHashMap<String, byte[]>(), file);
+  }
+
+  /**
+   * Writes the mesh to a file, along with the digests of the files it was created from (see
+   * {@link #readSources(File)}).
+   */
+  public static void write(Mesh mesh, Map<String, byte[]> sources, File file) throws IOException {
+    Geometry<?> geometry = mesh.getGeometry();
+    ChunkedBuffer vertices = geometry.getVertexData();
+    ChunkedBuffer indices = geometry.getIndexData();
+    ByteBuffer header = header(geometry.getFormat(), geometry.getVertexType(),
+        vertices.chunk(0).order(), geometry.getPrimitive(), geometry.getIndexType(),
+        geometry.numVertices(), geometry.numIndices(), mesh.getParts(), sources);
+
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = out.getChannel();
+      channel.truncate(0);
+      writeFully(channel, header, 0);
+      // only the vertices and indices in use, which may be fewer than the buffers can hold
+      writeFully(channel, vertices, header.getLong(28), (long) geometry.numVertices()
+          * geometry.getVertexType().stride());
+      if (indices != null)
+        writeFully(channel, indices, header.getLong(36), (long) geometry.numIndices()
+            * geometry.getIndexType().size);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Maps a mesh file. The vertex and index data are not copied.
+   */
+  public static Mesh read(File file) throws IOException {
+    // copy-on-write mappings need a channel that is open for writing
+    boolean writable = file.canWrite();
+    RandomAccessFile in = new RandomAccessFile(file, writable ? "rw" : "r");
+    MapMode mode = writable ? MapMode.PRIVATE : MapMode.READ_ONLY;
+    try {
+      FileChannel channel = in.getChannel();
+      Contents c = new Contents(readHeader(channel, file), file);
+      ChunkedBuffer vertices = map(channel, mode, c.vertexOffset, c.vertexBytes(), c.stride);
+      ChunkedBuffer indices = c.numIndices == 0 ? null : map(channel, mode, c.indexOffset,
+          c.indexBytes(), c.indexType.size);
+      return new Mesh(wrap(c.primitive, c.constructor, vertices, c.indexType, indices), c.parts);
+    } finally {
+      // mapped buffers remain valid after the channel is closed
+      in.close();
+    }
+  }
+
+  /**
+   * The source digests stored with the mesh (empty if none were written).
+   */
+  public static Map<String, byte[]> readSources(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      ByteBuffer header = readHeader(in.getChannel(), file);
+      int numSources = header.getInt(24);
+      header.position(FIXED_HEADER);
+      getFormat(header, header.getInt(8), file);
+
+      Map<String, byte[]> sources = new LinkedHashMap<String, byte[]>();
+      for (int i = 0; i < numSources; i++) {
+        String name = getString(header);
+        byte[] digest = new byte[header.getShort()];
+        header.get(digest);
+        sources.put(name, digest);
+      }
+      return sources;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Builds the header, which is padded to the offset of the vertex data.
+   */
+  private static ByteBuffer header(VertexFormat format, Vertex vertexType, ByteOrder order,
+      Primitive primitive, IndexType indexType, int numVertices, int numIndices,
+      List<MeshPart> parts, Map<String, byte[]> sources) {
+    if (format == null)
+      throw new IllegalArgumentException("Vertex type has no format: "
+          + vertexType.getClass().getName());
+
+    int size = FIXED_HEADER + 2;
+    for (Attribute a : format.getAttributes())
+      size += 10 + a.name.getBytes(UTF8).length;
+    for (Map.Entry<String, byte[]> source : sources.entrySet())
+      size += 4 + source.getKey().getBytes(UTF8).length + source.getValue().length;
+    for (MeshPart part : parts)
+      size += 9 + (part.material instanceof PhongMaterial ? 52 : 0);
+    long vertexOffset = align(size);
+    long indexOffset = align(vertexOffset + (long) numVertices * format.stride());
+
+    ByteBuffer header = ByteBuffer.allocate((int) vertexOffset);
+    header.order(ByteOrder.BIG_ENDIAN).putInt(MAGIC);
+    header.order(order);
+    header.put((byte) (order == ByteOrder.LITTLE_ENDIAN ? 'L' : 'B'));
+    header.put((byte) VERSION);
+    header.put((byte) primitive.ordinal());
+    header.put((byte) indexType.ordinal());
+    header.putInt(format.stride());
+    header.putInt(numVertices);
+    header.putInt(numIndices);
+    header.putInt(parts.size());
+    header.putInt(sources.size());
+    header.putLong(vertexOffset);
+    header.putLong(indexOffset);
+    putFormat(header, format);
+    for (Map.Entry<String, byte[]> source : sources.entrySet()) {
+      putString(header, source.getKey());
+      header.putShort((short) source.getValue().length);
+      header.put(source.getValue());
+    }
+    for (MeshPart part : parts) {
+      header.putInt(part.offset);
+      header.putInt(part.numElements);
+      if (part.material instanceof PhongMaterial) {
+        PhongMaterial material = (PhongMaterial) part.material;
+        header.put((byte) MATERIAL_PHONG);
+        putVec4f(header, material.ambient);
+        putVec4f(header, material.diffuse);
+        putVec4f(header, material.specular);
+        header.putInt(material.shininess);
+      } else {
+        header.put((byte) MATERIAL_OTHER);
+      }
+    }
+    header.clear();
+    return header;
+  }
+
+  /**
+   * The fields of a header read by readHeader.
+   */
+  private static class Contents {
+
+    final Primitive             primitive;
+    final IndexType             indexType;
+    final int                   stride;
+    final int                   numVertices;
+    final int                   numIndices;
+    final long                  vertexOffset;
+    final long                  indexOffset;
+    final Vertex.Constructor<?> constructor;
+    final List<MeshPart>        parts;
+
+    Contents(ByteBuffer header, File file) throws IOException {
+      primitive = Primitive.values()[header.get(6)];
+      indexType = IndexType.values()[header.get(7)];
+      stride = header.getInt(8);
+      numVertices = header.getInt(12);
+      numIndices = header.getInt(16);
+      int numParts = header.getInt(20);
+      int numSources = header.getInt(24);
+      vertexOffset = header.getLong(28);
+      indexOffset = header.getLong(36);
+
+      header.position(FIXED_HEADER);
+      VertexFormat format = getFormat(header, stride, file);
+      Vertex.Constructor<?> constructor = CONSTRUCTORS.get(format);
+      this.constructor = constructor != null ? constructor : FormatVertex.constructor(format);
+
+      for (int i = 0; i < numSources; i++) {
+        getString(header);
+        int digestLength = header.getShort();
+        header.position(header.position() + digestLength);
+      }
+
+      parts = new ArrayList<MeshPart>(numParts);
+      for (int i = 0; i < numParts; i++) {
+        int offset = header.getInt();
+        int numElements = header.getInt();
+        PhongMaterial material = new PhongMaterial();
+        if (header.get() == MATERIAL_PHONG) {
+          material.ambient = getVec4f(header);
+          material.diffuse = getVec4f(header);
+          material.specular = getVec4f(header);
+          material.shininess = header.getInt();
+        }
+        parts.add(new MeshPart(material, offset, numElements));
+      }
+    }
+
+    long vertexBytes() {
+      return (long) numVertices * stride;
+    }
+
+    long indexBytes() {
+      return (long) numIndices * indexType.size;
+    }
+  }
+
+  /**
+   * Reads and validates the header, which ends where the vertex data begins.
+   */
+  private static ByteBuffer readHeader(FileChannel channel, File file) throws IOException {
+    ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER);
+    readFully(channel, fixed, 0, file);
+    if (fixed.order(ByteOrder.BIG_ENDIAN).getInt(0) != MAGIC)
+      throw new IOException("Not a mesh file: " + file);
+
+    ByteOrder order = fixed.get(4) == 'L' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    if (order != ByteOrder.nativeOrder())
+      throw new IOException("Mesh file was written with a different byte order: " + file);
+    if (fixed.get(5) != VERSION)
+      throw new IOException("Unsupported mesh file version " + fixed.get(5) + ": " + file);
+
+    long vertexOffset = fixed.order(order).getLong(28);
+    if (vertexOffset < FIXED_HEADER || vertexOffset > Integer.MAX_VALUE
+        || vertexOffset > channel.size())
+      throw new IOException("Corrupt mesh file: " + file);
+
+    ByteBuffer header = ByteBuffer.allocate((int) vertexOffset).order(order);
+    readFully(channel, header, 0, file);
+    header.clear();
+    return header;
+  }
+
+  /**
+   * Writes the attributes of a format: name, semantic, component type, component count, normalized
+   * flag and byte offset of each.
+   */
+  private static void putFormat(ByteBuffer buf, VertexFormat format) {
+    List<Attribute> attributes = format.getAttributes();
+    buf.putShort((short) attributes.size());
+    for (Attribute a : attributes) {
+      putString(buf, a.name);
+      buf.put((byte) a.semantic.ordinal());
+      buf.put((byte) a.type.ordinal());
+      buf.put((byte) a.count);
+      buf.put((byte) (a.normalized ? 1 : 0));
+      buf.putInt(a.offset);
+    }
+  }
+
+  /**
+   * Reads the attributes written by putFormat, checking that they have the stored offsets and
+   * stride.
+   */
+  private static VertexFormat getFormat(ByteBuffer buf, int stride, File file) throws IOException {
+    int numAttributes = buf.getShort();
+    Attribute[] attributes = new Attribute[numAttributes];
+    int[] offsets = new int[numAttributes];
+    try {
+      for (int i = 0; i < numAttributes; i++) {
+        String name = getString(buf);
+        Semantic semantic = Semantic.values()[buf.get()];
+        ComponentType type = ComponentType.values()[buf.get()];
+        int count = buf.get();
+        boolean normalized = buf.get() != 0;
+        offsets[i] = buf.getInt();
+        attributes[i] = new Attribute(semantic, name, type, count, normalized);
+      }
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt vertex format in " + file);
+    }
+    VertexFormat format = new VertexFormat(attributes);
+    if (format.stride() != stride)
+      throw new IOException("Unsupported vertex layout in " + file);
+    for (int i = 0; i < numAttributes; i++)
+      if (format.getAttributes().get(i).offset != offsets[i])
+        throw new IOException("Unsupported vertex layout in " + file);
+    return format;
+  }
+
+  private static <T extends Vertex> Geometry<T> wrap(Primitive primitive,
+      Vertex.Constructor<T> constructor, ChunkedBuffer vertices, IndexType indexType,
+      ChunkedBuffer indices) {
+    return new Geometry<T>(primitive, constructor, vertices, indexType, indices);
+  }
+
+  /**
+   * Maps a region as a single buffer if it fits in one, otherwise in chunks of whole elements.
+   */
+  private static ChunkedBuffer map(FileChannel channel, MapMode mode, long offset, long size,
+      int elementSize) throws IOException {
+    if (offset + size > channel.size())
+      throw new IOException("Mesh file is truncated");
+    if (size > Integer.MAX_VALUE)
+      return ChunkedBuffer.map(channel, mode, offset, size, elementSize);
+    ByteBuffer buffer = channel.map(mode, offset, size).order(ByteOrder.nativeOrder());
+    return ChunkedBuffer.wrap(buffer, elementSize);
+  }
+
+  private static long align(long offset) {
+    return (offset + DATA_ALIGNMENT - 1) & ~(long) (DATA_ALIGNMENT - 1);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer src, long position)
+      throws IOException {
+    while (src.hasRemaining())
+      position += channel.write(src, position);
+  }
+
+  /**
+   * Writes the first size bytes of the storage, one chunk at a time.
+   */
+  private static void writeFully(FileChannel channel, ChunkedBuffer src, long position, long size)
+      throws IOException {
+    for (int i = 0; i < src.numChunks() && i * src.chunkSize() < size; i++) {
+      long start = i * src.chunkSize();
+      ByteBuffer chunk = src.chunk(i).duplicate();
+      chunk.clear();
+      chunk.limit((int) Math.min(chunk.capacity(), size - start));
+      writeFully(channel, chunk, position + start);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer dst, long position, File file)
+      throws IOException {
+    while (dst.hasRemaining()) {
+      int n = channel.read(dst, position);
+      if (n < 0)
+        throw new IOException("Unexpected end of mesh file: " + file);
+      position += n;
+    }
+  }
+
+  private static void putString(ByteBuffer buf, String s) {
+    byte[] bytes = s.getBytes(UTF8);
+    buf.putShort((short) bytes.length);
+    buf.put(bytes);
+  }
+
+  private static String getString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getShort()];
+    buf.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private static void putVec4f(ByteBuffer buf, Vec4f v) {
+    buf.putFloat(v.x).putFloat(v.y).putFloat(v.z).putFloat(v.w);
+  }
+
+  private static Vec4f getVec4f(ByteBuffer buf) {
+    return new Vec4f(buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat());
+  }
+}
@@ -0,0 +1,423 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.loaders;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2GL3;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Generates the mipmap chain of an image on the CPU. Each level is resampled from the one above it
+ * with a separable filter: a box filter (the average of each 2x2 block for even sizes) or a
+ * Kaiser-windowed sinc, which keeps more detail in the smaller levels without aliasing. Color
+ * channels are converted from sRGB to linear before filtering and back afterwards, so bright and
+ * dark areas do not blend to a darker average; alpha is always filtered linearly.
+ * <p>
+ * Rows of each level are split across the pool (if not null). Generated chains can be stored in a
+ * cache directory, keyed by a digest of the base level, so that loading the same image again only
+ * reads the levels back.
+ *
+ * @author justin
+ */
+public class MipmapGenerator {
+
+  public enum Filter {
+    BOX, KAISER
+  }
+
+  private static final int     ROWS_PER_TASK = 32;
+  private static final float   KAISER_WIDTH  = 3;
+  private static final float   KAISER_ALPHA  = 4;
+  private static final int     LINEAR_STEPS  = 1 << 14;
+  private static final int     MAGIC         = 0x4A474C58;
+  private static final int     VERSION       = 1;
+
+  private static final float[] UNORM         = new float[256];
+  private static final float[] SRGB          = new float[256];
+  private static final byte[]  TO_SRGB       = new byte[LINEAR_STEPS + 1];
+  static {
+    for (int i = 0; i < 256; i++) {
+      float c = i / 255f;
+      UNORM[i] = c;
+      SRGB[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+    }
+    for (int i = 0; i <= LINEAR_STEPS; i++) {
+      double c = (double) i / LINEAR_STEPS;
+      c = c <= 0.0031308 ? c * 12.92 : 1.055 * Math.pow(c, 1 / 2.4) - 0.055;
+      TO_SRGB[i] = (byte) Math.round(c * 255);
+    }
+  }
+
+  private final Filter         filter;
+  private final boolean        srgb;
+  private final ForkJoinPool   pool;
+  private volatile File        cacheDirectory;
+
+  /**
+   * Creates a generator that uses the Kaiser filter on sRGB images, on the calling thread.
+   */
+  public MipmapGenerator() {
+    this(Filter.KAISER, true, null);
+  }
+
+  /**
+   * Creates a generator. If srgb is false, color channels are filtered as stored.
+   */
+  public MipmapGenerator(Filter filter, boolean srgb, ForkJoinPool pool) {
+    this.filter = filter;
+    this.srgb = srgb;
+    this.pool = pool;
+  }
+
+  /**
+   * Sets a directory in which generated chains are stored, or null (the default) to disable
+   * caching.
+   */
+  public void setCacheDirectory(File directory) {
+    this.cacheDirectory = directory;
+  }
+
+  /**
+   * Returns the image with a full mipmap chain, down to 1x1, generated from its base level. The
+   * image must have 8-bit channels: RGB / BGR bytes, RGBA / BGRA bytes, or packed 8_8_8_8_REV ints.
+   */
+  public ImageData generate(ImageData image) {
+    if (image.type != GL.GL_UNSIGNED_BYTE && image.type != GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV)
+      throw new IllegalArgumentException("Mipmaps need 8-bit channels: " + image.type);
+
+    int numLevels = 1;
+    while (image.width(numLevels - 1) > 1 || image.height(numLevels - 1) > 1)
+      numLevels++;
+
+    File directory = cacheDirectory;
+    File cached = null;
+    if (directory != null) {
+      try {
+        cached = new File(directory, ObjLoader.toHex(digest(image)) + ".jglx");
+        if (cached.isFile())
+          return new ImageData(image.width, image.height, image.internalFormat, image.format,
+              image.type, image.data, readCache(cached, image, numLevels));
+      } catch (IOException e) {
+        System.err.println(e.getMessage());
+        cached = null;
+      }
+    }
+
+    ByteBuffer[] mipmaps = new ByteBuffer[numLevels - 1];
+    ByteBuffer src = image.data;
+    for (int i = 1; i < numLevels; i++) {
+      Level level = new Level(image, src, i);
+      run(new Rows(level, 0, level.height));
+      src = mipmaps[i - 1] = level.dst;
+    }
+
+    if (cached != null)
+      writeCache(directory, cached, mipmaps);
+    return new ImageData(image.width, image.height, image.internalFormat, image.format,
+        image.type, image.data, mipmaps);
+  }
+
+  private void run(Rows rows) {
+    if (pool == null || rows.end - rows.start <= ROWS_PER_TASK)
+      rows.compute();
+    else
+      pool.invoke(rows);
+  }
+
+  /**
+   * SHA-1 digest of the base level and everything else the generated levels depend on.
+   */
+  private byte[] digest(ImageData image) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    ByteBuffer header = ByteBuffer.allocate(24);
+    header.putInt(VERSION).putInt(filter.ordinal()).putInt(srgb ? 1 : 0);
+    header.putInt(image.width).putInt(image.height).putInt(image.pixelSize());
+    header.flip();
+    md.update(header);
+    ByteBuffer data = image.data.duplicate();
+    data.clear();
+    md.update(data);
+    return md.digest();
+  }
+
+  private static ByteBuffer[] readCache(File cached, ImageData image, int numLevels)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(cached));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != numLevels)
+        throw new IOException("Not a valid mipmap file: " + cached);
+      ByteBuffer[] mipmaps = new ByteBuffer[numLevels - 1];
+      byte[] bytes = new byte[image.width(1) * image.height(1) * image.pixelSize()];
+      for (int i = 1; i < numLevels; i++) {
+        int size = image.width(i) * image.height(i) * image.pixelSize();
+        in.readFully(bytes, 0, size);
+        mipmaps[i - 1] = Buffers.newDirectByteBuffer(size);
+        mipmaps[i - 1].put(bytes, 0, size).rewind();
+      }
+      return mipmaps;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Stores generated levels under a temporary name, then renames the file into place.
+   */
+  private static void writeCache(File directory, File cached, ByteBuffer[] mipmaps) {
+    File temp = null;
+    try {
+      directory.mkdirs();
+      temp = File.createTempFile("mipmaps", ".tmp", directory);
+      FileOutputStream stream = new FileOutputStream(temp);
+      try {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mipmaps.length + 1);
+        out.flush();
+        FileChannel channel = stream.getChannel();
+        for (ByteBuffer level : mipmaps) {
+          ByteBuffer data = level.duplicate();
+          data.clear();
+          while (data.hasRemaining())
+            channel.write(data);
+        }
+      } finally {
+        stream.close();
+      }
+      if (!temp.renameTo(cached) && !cached.isFile())
+        throw new IOException("Could not rename " + temp + " to " + cached);
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+    } finally {
+      if (temp != null && temp.exists())
+        temp.delete();
+    }
+  }
+
+  /**
+   * Resampling weights along one axis: each destination texel sums taps source texels, whose
+   * indices are clamped to the edge.
+   */
+  private static class Kernel {
+
+    final int     taps;
+    final int[]   index;
+    final float[] weights;
+
+    Kernel(Filter filter, int src, int dst) {
+      float scale = (float) src / dst;
+      float support = filter == Filter.BOX ? scale * 0.5f : KAISER_WIDTH * scale;
+      taps = (int) Math.ceil(support * 2) + 1;
+      index = new int[dst * taps];
+      weights = new float[dst * taps];
+
+      for (int i = 0; i < dst; i++) {
+        float center = (i + 0.5f) * scale;
+        int first = (int) Math.floor(center - support);
+        float total = 0;
+        for (int t = 0; t < taps; t++) {
+          int j = first + t;
+          float w;
+          if (filter == Filter.BOX)
+            w = Math.max(0, Math.min(j + 1, center + support) - Math.max(j, center - support));
+          else
+            w = kaiser((j + 0.5f - center) / scale);
+          index[i * taps + t] = Math.min(Math.max(j, 0), src - 1);
+          weights[i * taps + t] = w;
+          total += w;
+        }
+        for (int t = 0; t < taps; t++)
+          weights[i * taps + t] /= total;
+      }
+    }
+
+    /**
+     * Kaiser-windowed sinc, x in destination texels.
+     */
+    static float kaiser(float x) {
+      if (Math.abs(x) >= KAISER_WIDTH)
+        return 0;
+      double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+      double r = x / KAISER_WIDTH;
+      return (float) (sinc * bessel0(KAISER_ALPHA * Math.sqrt(1 - r * r)) / bessel0(KAISER_ALPHA));
+    }
+
+    /**
+     * Modified Bessel function of the first kind, order 0.
+     */
+    static double bessel0(double x) {
+      double sum = 1;
+      double term = 1;
+      double q = x * x / 4;
+      for (int k = 1; term > sum * 1e-12; k++) {
+        term *= q / ((double) k * k);
+        sum += term;
+      }
+      return sum;
+    }
+  }
+
+  /**
+   * One level being generated, in bands of destination rows: the source rows a band depends on are
+   * filtered horizontally into linear floats, then columns of those are filtered vertically into
+   * the destination. Only a band's source rows are held as floats, so memory does not grow with the
+   * image height.
+   */
+  private class Level {
+
+    final ByteBuffer src;
+    final ByteBuffer dst;
+    final int        srcWidth, srcHeight;
+    final int        width, height;
+    final int        pixelSize;
+    final int        alpha;
+    final float[][]  decode;
+    final Kernel     kx, ky;
+
+    Level(ImageData image, ByteBuffer src, int level) {
+      this.src = src;
+      this.srcWidth = image.width(level - 1);
+      this.srcHeight = image.height(level - 1);
+      this.width = image.width(level);
+      this.height = image.height(level);
+      this.pixelSize = image.pixelSize();
+      this.alpha = image.alphaIndex();
+      this.decode = new float[pixelSize][];
+      for (int c = 0; c < pixelSize; c++)
+        decode[c] = srgb && c != alpha ? SRGB : UNORM;
+      this.kx = new Kernel(filter, srcWidth, width);
+      this.ky = new Kernel(filter, srcHeight, height);
+      this.dst = Buffers.newDirectByteBuffer(width * height * pixelSize);
+    }
+
+    /**
+     * First source row used by destination rows [start, end).
+     */
+    int firstSourceRow(int start, int end) {
+      int first = srcHeight;
+      for (int k = start * ky.taps; k < end * ky.taps; k++)
+        first = Math.min(first, ky.index[k]);
+      return first;
+    }
+
+    /**
+     * Last source row used by destination rows [start, end).
+     */
+    int lastSourceRow(int start, int end) {
+      int last = 0;
+      for (int k = start * ky.taps; k < end * ky.taps; k++)
+        last = Math.max(last, ky.index[k]);
+      return last;
+    }
+
+    /**
+     * Filters source row y into the given row of temp.
+     */
+    void horizontal(int y, ByteBuffer in, byte[] row, float[] temp, int tempRow) {
+      in.position(y * srcWidth * pixelSize);
+      in.get(row, 0, srcWidth * pixelSize);
+      int out = tempRow * width * pixelSize;
+      for (int x = 0; x < width; x++) {
+        int k = x * kx.taps;
+        for (int c = 0; c < pixelSize; c++) {
+          float[] table = decode[c];
+          float sum = 0;
+          for (int t = 0; t < kx.taps; t++)
+            sum += kx.weights[k + t] * table[row[kx.index[k + t] * pixelSize + c] & 0xFF];
+          temp[out++] = sum;
+        }
+      }
+    }
+
+    /**
+     * Filters destination row y from temp, whose first row is source row first.
+     */
+    void vertical(int y, ByteBuffer out, byte[] row, float[] sum, float[] temp, int first) {
+      int length = width * pixelSize;
+      Arrays.fill(sum, 0, length, 0);
+      int k = y * ky.taps;
+      for (int t = 0; t < ky.taps; t++) {
+        float w = ky.weights[k + t];
+        int in = (ky.index[k + t] - first) * length;
+        for (int i = 0; i < length; i++)
+          sum[i] += w * temp[in + i];
+      }
+      for (int i = 0; i < length; i++) {
+        float v = Math.min(Math.max(sum[i], 0), 1);
+        if (decode[i % pixelSize] == SRGB)
+          row[i] = TO_SRGB[(int) (v * LINEAR_STEPS + 0.5f)];
+        else
+          row[i] = (byte) (v * 255 + 0.5f);
+      }
+      out.position(y * length);
+      out.put(row, 0, length);
+    }
+  }
+
+  /**
+   * Generates the destination rows [start, end) of a level in bands of ROWS_PER_TASK rows; splits
+   * itself when run in a pool.
+   */
+  @SuppressWarnings("serial")
+  private static class Rows extends RecursiveAction {
+
+    final Level level;
+    final int   start, end;
+
+    Rows(Level level, int start, int end) {
+      this.level = level;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start > ROWS_PER_TASK && getPool() != null) {
+        int mid = (start + end) >>> 1;
+        invokeAll(new Rows(level, start, mid), new Rows(level, mid, end));
+        return;
+      }
+      ByteBuffer in = level.src.duplicate();
+      in.clear();
+      ByteBuffer out = level.dst.duplicate();
+      byte[] srcRow = new byte[level.srcWidth * level.pixelSize];
+      byte[] dstRow = new byte[level.width * level.pixelSize];
+      float[] sum = new float[dstRow.length];
+      float[] temp = new float[0];
+      for (int band = start; band < end; band += ROWS_PER_TASK) {
+        int bandEnd = Math.min(band + ROWS_PER_TASK, end);
+        int first = level.firstSourceRow(band, bandEnd);
+        int last = level.lastSourceRow(band, bandEnd);
+        int length = (last - first + 1) * dstRow.length;
+        if (temp.length < length)
+          temp = new float[length];
+        for (int y = first; y <= last; y++)
+          level.horizontal(y, in, srcRow, temp, y - first);
+        for (int y = band; y < bandEnd; y++)
+          level.vertical(y, out, dstRow, sum, temp, first);
+      }
+    }
+  }
+}
@@ -3,155 +3,463 @@ package jgl.loaders;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import jgl.geometry.Geometry.Primitive;
 import jgl.geometry.Mesh.MeshPart;
 import jgl.geometry.Mesh;
-import jgl.geometry.VertexPNT;
+import jgl.geometry.VertexCacheOptimizer;
+import jgl.geometry.VertexCacheOptimizer.Report;
 import jgl.geometry.VertexPNT.GeometryPNT;
-import jgl.math.vector.Vec2f;
-import jgl.math.vector.Vec3f;
 import jgl.math.vector.Vec4f;
 import jgl.shading.Material;
 import jgl.shading.PhongMaterial;
 
 /**
- * Loads OBJ models and materials into a mesh.
+ * Loads OBJ models and materials into a mesh. Files are memory-mapped and parsed directly from
+ * their bytes (see {@link ObjParser}), so no strings are created for vertex and face statements.
+ * <p>
+ * Loading happens in two passes. First the file is split at line boundaries into chunks that are
+ * tokenized independently (by several threads if the loader was created with more than one): each
+ * chunk collects its v / vt / vn data and a record of its faces and state changes. The second pass
+ * concatenates the attributes and replays the records in file order to build the vertices and
+ * triangles, so the resulting mesh does not depend on the number of threads.
  * 
  * @author justin
  */
 public class ObjLoader {
 
-  private List<Vec3f>                       v         = new ArrayList<Vec3f>();
-  private List<Vec2f>                       vt        = new ArrayList<Vec2f>();
-  private List<Vec3f>                       vn        = new ArrayList<Vec3f>();
-  private List<Vertex>                      verts     = new ArrayList<Vertex>();
-  private List<Triangle>                    triangles = new ArrayList<Triangle>();
-  private StringSplitter                    splitter  = new StringSplitter();
-  private Map<Integer, Map<String, Vertex>> maps      = new HashMap<Integer, Map<String, Vertex>>();
-  private List<Map<String, Material>>       mtlLibs   = new ArrayList<Map<String, Material>>();
-  private Map<String, Vertex>               map;
+  /** Files larger than this are mapped and parsed in several windows. */
+  private static final int                  MAX_WINDOW = 1 << 30;
+
+  /** Windows are not split into chunks smaller than this. */
+  private static final int                  MIN_CHUNK  = 1 << 20;
+
+  // records in Chunk.ops
+  private static final int                  FACE       = 0;
+  private static final int                  SMOOTH     = 1;
+  private static final int                  LINE       = 2;
+
+  private final int                         threads;
+  private float[]                           v;
+  private float[]                           vt;
+  private float[]                           vn;
+  private int                               numV;
+  private int                               numVt;
+  private int                               numVn;
+  private float[]                           positions;
+  private float[]                           normals;
+  private float[]                           texCoords;
+  private int                               numVerts;
+  private int[]                             indices;
+  private int                               numIndices;
+  private StringSplitter                    splitter   = new StringSplitter();
+  private Map<Integer, VertexTable>         tables     = new HashMap<Integer, VertexTable>();
+  private List<Map<String, Material>>       mtlLibs    = new ArrayList<Map<String, Material>>();
+  private VertexTable                       table;
+  private int[]                             faceVerts  = new int[16];
   private int                               smoothGroup;
-  private int                               iv;
-  private int                               ivt;
-  private int                               ivn;
   private File                              root;
-  private List<MeshPart>                    parts     = new ArrayList<MeshPart>();
+  private File                              cacheDirectory;
+  private List<String>                      mtlNames   = new ArrayList<String>();
+  private List<MeshPart>                    parts      = new ArrayList<MeshPart>();
   private MeshPart                          currentPart;
-  
+  private boolean                           optimizeVertexCache;
+  private Report                            vertexCacheReport;
+
+  /**
+   * Creates a loader that parses files on the calling thread.
+   */
+  public ObjLoader() {
+    this(1);
+  }
+
+  /**
+   * Creates a loader that tokenizes files with the given number of threads. The loaded mesh is
+   * identical for any thread count.
+   */
+  public ObjLoader(int threads) {
+    if (threads < 1)
+      throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+    this.threads = threads;
+  }
+
+  /**
+   * Sets a directory in which loaded meshes are stored in binary form (see {@link MeshFile}),
+   * named by a digest of the OBJ file's contents. Loading a file whose contents (and material
+   * libraries) have not changed then maps the stored mesh instead of parsing. Set to null (the
+   * default) to disable caching.
+   */
+  public void setCacheDirectory(File directory) {
+    this.cacheDirectory = directory;
+  }
+
+  /**
+   * Reorders the triangles and vertices of loaded meshes for the post-transform vertex cache (see
+   * {@link VertexCacheOptimizer}). Optimization happens before a mesh is cached, so it is paid once
+   * per file; meshes cached with and without it are stored separately.
+   */
+  public void setOptimizeVertexCache(boolean optimize) {
+    this.optimizeVertexCache = optimize;
+  }
+
+  /**
+   * ACMR and ATVR before and after optimizing the last mesh parsed, or null if it was not optimized
+   * or was read from the cache.
+   */
+  public Report getVertexCacheReport() {
+    return vertexCacheReport;
+  }
+
   public Mesh load(File file) {
+    vertexCacheReport = null;
+    if (cacheDirectory == null)
+      return parse(file);
+
+    File cached;
     try {
-      this.root = file.getParentFile();
-      return load(new FileInputStream(file));
-    } catch (FileNotFoundException e) {
+      cached = new File(cacheDirectory, toHex(digest(file)) + (optimizeVertexCache ? "-vc" : "")
+          + ".jglm");
+      if (cached.isFile() && isCurrent(cached, file.getParentFile()))
+        return MeshFile.read(cached);
+    } catch (IOException e) {
       System.err.println(e.getMessage());
-      return null;
+      return parse(file);
     }
+
+    Mesh mesh = parse(file);
+    if (mesh != null)
+      writeCache(mesh, file.getParentFile(), cached);
+    return mesh;
   }
 
-  private Mesh load(InputStream stream) {
-    v.clear();
-    vt.clear();
-    vn.clear();
-    verts.clear();
-    triangles.clear();
-    parts.clear();
-    smoothGroup = 1;
-    map = getMap();
-    currentPart = new MeshPart(new PhongMaterial(), 0, 0);
-    
+  /**
+   * True if the cached mesh can be read and the material libraries it was built from are unchanged.
+   */
+  private static boolean isCurrent(File cached, File root) throws IOException {
+    Map<String, byte[]> sources;
     try {
-      BufferedReader br = new BufferedReader(new InputStreamReader(stream));
-      String line;
-      while ((line = br.readLine()) != null) {
-        parseLine(line);
+      sources = MeshFile.readSources(cached);
+    } catch (IOException e) {
+      // written by an older version (or damaged): parse again and replace it
+      return false;
+    }
+    for (Map.Entry<String, byte[]> source : sources.entrySet()) {
+      File lib = new File(root, source.getKey());
+      byte[] digest = lib.isFile() ? digest(lib) : new byte[0];
+      if (!Arrays.equals(digest, source.getValue()))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Stores a mesh in the cache. The file is written under a temporary name and then renamed, so
+   * other loaders never see a partial file.
+   */
+  private void writeCache(Mesh mesh, File root, File cached) {
+    File temp = null;
+    try {
+      Map<String, byte[]> sources = new LinkedHashMap<String, byte[]>();
+      for (String name : mtlNames) {
+        File lib = new File(root, name);
+        sources.put(name, lib.isFile() ? digest(lib) : new byte[0]);
       }
+      cacheDirectory.mkdirs();
+      temp = File.createTempFile("mesh", ".tmp", cacheDirectory);
+      MeshFile.write(mesh, sources, temp);
+      if (!temp.renameTo(cached) && !cached.isFile())
+        throw new IOException("Could not rename " + temp + " to " + cached);
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+    } finally {
+      if (temp != null && temp.exists())
+        temp.delete();
+    }
+  }
+
+  /**
+   * SHA-1 digest of a file's contents.
+   */
+  private static byte[] digest(File file) throws IOException {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      FileChannel channel = stream.getChannel();
+      ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+      while (channel.read(buf) >= 0) {
+        buf.flip();
+        md.update(buf);
+        buf.clear();
+      }
+    } finally {
       stream.close();
-      endCurrentPart();
-      
-      return createMesh();
+    }
+    return md.digest();
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    return sb.toString();
+  }
 
+  private Mesh parse(File file) {
+    this.root = file.getParentFile();
+    ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    try {
+      List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+      FileInputStream stream = new FileInputStream(file);
+      try {
+        FileChannel channel = stream.getChannel();
+        long size = channel.size();
+        long offset = 0;
+        while (offset < size) {
+          ByteBuffer window = channel.map(MapMode.READ_ONLY, offset, Math.min(size - offset,
+              MAX_WINDOW));
+          int length = window.capacity();
+          if (offset + length < size) {
+            // end the window after its last complete line
+            length = lineEnd(window, 0, length);
+            if (length == 0)
+              throw new IOException("Line too long in " + file);
+          }
+          split(window, length, executor, chunks);
+          offset += length;
+        }
+      } finally {
+        // mapped buffers remain valid after the channel is closed
+        stream.close();
+      }
+      return build(chunks);
     } catch (IOException e) {
       System.err.println(e.getMessage());
       return null;
+    } finally {
+      if (executor != null)
+        executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Loads a model from the bytes [position, limit) of an OBJ file already in memory. Material
+   * libraries are resolved relative to root (which may be null).
+   */
+  public Mesh load(ByteBuffer bytes, File root) {
+    this.root = root;
+    vertexCacheReport = null;
+    List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+    chunks.add(submit(new Chunk(bytes, bytes.position(), bytes.limit()), null));
+    return build(chunks);
+  }
+
+  /**
+   * Splits the first length bytes of a window into chunks that end on line boundaries.
+   */
+  private void split(ByteBuffer window, int length, ExecutorService executor,
+      List<Future<Chunk>> chunks) {
+    int count = executor == null ? 1 : Math.max(1, Math.min(threads * 4, length / MIN_CHUNK));
+    int start = 0;
+    for (int i = 1; i <= count && start < length; i++) {
+      int end = i == count ? length : lineEnd(window, start, (int) ((long) length * i / count));
+      if (end > start)
+        chunks.add(submit(new Chunk(window, start, end), executor));
+      start = end;
+    }
+  }
+
+  /**
+   * Offset just past the last line break in [start, end) of buf, or start if there is none.
+   */
+  private static int lineEnd(ByteBuffer buf, int start, int end) {
+    while (end > start && buf.get(end - 1) != '\n')
+      end--;
+    return end;
+  }
+
+  private static Future<Chunk> submit(Chunk chunk, ExecutorService executor) {
+    if (executor != null)
+      return executor.submit(chunk);
+    FutureTask<Chunk> task = new FutureTask<Chunk>(chunk);
+    task.run();
+    return task;
+  }
+
+  /**
+   * Second pass: merges the chunks' attributes and replays their records in file order.
+   */
+  private Mesh build(List<Future<Chunk>> futures) {
+    List<Chunk> chunks = new ArrayList<Chunk>(futures.size());
+    try {
+      for (Future<Chunk> future : futures)
+        chunks.add(future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      System.err.println("Interrupted while loading OBJ");
+      return null;
+    } catch (ExecutionException e) {
+      // rethrow parse errors as if they happened on this thread
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new RuntimeException(cause);
+    }
+
+    int totalV = 0, totalVt = 0, totalVn = 0, totalIndices = 0, totalCorners = 0;
+    for (Chunk chunk : chunks) {
+      totalV += chunk.numV;
+      totalVt += chunk.numVt;
+      totalVn += chunk.numVn;
+      totalIndices += chunk.numTriangleIndices;
+      totalCorners += chunk.numCorners;
+    }
+    v = new float[totalV * 3];
+    vt = new float[totalVt * 2];
+    vn = new float[totalVn * 3];
+    numV = numVt = numVn = 0;
+    for (Chunk chunk : chunks) {
+      System.arraycopy(chunk.v, 0, v, numV * 3, chunk.numV * 3);
+      System.arraycopy(chunk.vt, 0, vt, numVt * 2, chunk.numVt * 2);
+      System.arraycopy(chunk.vn, 0, vn, numVn * 3, chunk.numVn * 3);
+      numV += chunk.numV;
+      numVt += chunk.numVt;
+      numVn += chunk.numVn;
+      // the merged copies replace the chunk's arrays, so drop them before merging the next one
+      chunk.releaseAttributes();
+    }
+
+    // a typical mesh has about as many vertices as its largest attribute count, and never more
+    // than its face corners; the index count is known exactly from the faces
+    int capacity = Math.max(16, Math.min(totalCorners, Math.max(totalV, Math.max(totalVt,
+        totalVn))));
+    positions = new float[capacity * 3];
+    normals = new float[capacity * 3];
+    texCoords = new float[capacity * 2];
+    indices = new int[totalIndices];
+    numVerts = 0;
+    numIndices = 0;
+    parts.clear();
+    tables.clear();
+    mtlNames.clear();
+    smoothGroup = 1;
+    table = getTable();
+    currentPart = new MeshPart(new PhongMaterial(), 0, 0);
+
+    int baseV = 0, baseVt = 0, baseVn = 0;
+    for (Chunk chunk : chunks) {
+      int[] ops = chunk.ops;
+      int i = 0;
+      while (i < chunk.numOps) {
+        switch (ops[i]) {
+        case FACE:
+          int n = ops[i + 1];
+          addFace(ops, i + 5, n, baseV + ops[i + 2], baseVt + ops[i + 3], baseVn + ops[i + 4]);
+          i += 5 + n * 3;
+          break;
+        case SMOOTH:
+          smoothGroup = ops[i + 1];
+          table = getTable();
+          i += 2;
+          break;
+        default:
+          parseLine(chunk.lines.get(ops[i + 1]));
+          i += 2;
+        }
+      }
+      baseV += chunk.numV;
+      baseVt += chunk.numVt;
+      baseVn += chunk.numVn;
+      chunk.release();
     }
+
+    endCurrentPart();
+    v = vt = vn = null;
+    tables.clear();
+    return createMesh();
   }
 
   private Mesh createMesh() {
-    GeometryPNT geom = new GeometryPNT(Primitive.TRIANGLES, verts.size(), triangles.size() * 3);
-    VertexPNT v = new VertexPNT();
+    GeometryPNT geom = new GeometryPNT(Primitive.TRIANGLES, numVerts, numIndices);
+    ByteBuffer buf = geom.getVertices();
 
-    if (vt.size() == 0) {
+    if (numVt == 0) {
       System.out.println("TODO: no tex coord, return geomPN");
     }
 
-    for (Vertex objVertex : verts) {
-      v.position(objVertex.position);
-      v.normal(objVertex.normal.normalized());
-      v.texCoords(objVertex.texCoords);
-      geom.putVertex(v);
+    for (int i = 0; i < numVerts; i++) {
+      float nx = normals[i * 3], ny = normals[i * 3 + 1], nz = normals[i * 3 + 2];
+      float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+      buf.putFloat(positions[i * 3]);
+      buf.putFloat(positions[i * 3 + 1]);
+      buf.putFloat(positions[i * 3 + 2]);
+      buf.putFloat(nx / length);
+      buf.putFloat(ny / length);
+      buf.putFloat(nz / length);
+      buf.putFloat(texCoords[i * 2]);
+      buf.putFloat(texCoords[i * 2 + 1]);
     }
+    positions = normals = texCoords = null;
 
-    for (Triangle objTriangle : triangles) {
-      geom.putIndex(objTriangle.a);
-      geom.putIndex(objTriangle.b);
-      geom.putIndex(objTriangle.c);
-    }
-    
-    return new Mesh(geom, parts);
+    for (int i = 0; i < numIndices; i++)
+      geom.putIndex(indices[i]);
+    indices = null;
+
+    Mesh mesh = new Mesh(geom, parts);
+    if (optimizeVertexCache && numIndices > 0)
+      vertexCacheReport = VertexCacheOptimizer.optimize(mesh);
+    return mesh;
   }
   
   private void endCurrentPart() {
-    currentPart.numElements = triangles.size() * 3 - currentPart.offset;
+    currentPart.numElements = numIndices - currentPart.offset;
     if (currentPart.numElements > 0) {
       parts.add(currentPart);
     }
   }
 
+  /**
+   * Handles the statements that are rare enough to be split into strings.
+   */
   private void parseLine(String line) {
-    if (line.isEmpty())
-      return;
-
     String[] tokens = splitter.split(line);
-    if (tokens[0].equals("v")) {
-      float x = Float.parseFloat(tokens[1]);
-      float y = Float.parseFloat(tokens[2]);
-      float z = Float.parseFloat(tokens[3]);
-      v.add(new Vec3f(x, y, z));
-    } else if (tokens[0].equals("vt")) {
-      float x = Float.parseFloat(tokens[1]);
-      float y = Float.parseFloat(tokens[2]);
-      vt.add(new Vec2f(x, y));
-    } else if (tokens[0].equals("vn")) {
-      float x = Float.parseFloat(tokens[1]);
-      float y = Float.parseFloat(tokens[2]);
-      float z = Float.parseFloat(tokens[3]);
-      vn.add(new Vec3f(x, y, z));
-    } else if (tokens[0].equals("s")) {
-      smoothGroup = tokens[1].equalsIgnoreCase("off") ? 0 : Integer.parseInt(tokens[1]);
-      map = getMap();
-    } else if (tokens[0].equals("f")) {
-      parseFace(tokens);
-    } else if (tokens[0].equals("usemtl")) {
+    if (tokens[0].equals("usemtl")) {
       endCurrentPart();
       for (Map<String, Material> lib : mtlLibs) {
         Material libMaterial = lib.get(tokens[1]);
         if (libMaterial != null) {
-          currentPart = new MeshPart(libMaterial, triangles.size() * 3, 0);
+          currentPart = new MeshPart(libMaterial, numIndices, 0);
           break;
         }
       }
     } else if (tokens[0].equals("mtllib")) {
       for (int i = 1; i < tokens.length; i++) {
+        mtlNames.add(tokens[i]);
         Map<String, Material> lib = new MaterialLibraryLoader().load(new File(root, tokens[i]));
         if (lib != null)
           mtlLibs.add(lib);
@@ -159,99 +467,311 @@ public class ObjLoader {
     }
   }
 
-  private void parseFace(String[] tokens) {
+  /**
+   * Adds a face of n vertices whose raw OBJ indices are stored as (v, vt, vn) triples in
+   * indices[offset...]. The counts are the number of attributes defined before the face, which
+   * relative (negative) indices refer to.
+   */
+  private void addFace(int[] ops, int offset, int n, int countV, int countVt, int countVn) {
     boolean useFaceNormal = false;
-
-    Vertex[] faceVerts = new Vertex[tokens.length - 1];
+    if (faceVerts.length < n)
+      faceVerts = new int[Math.max(n, faceVerts.length * 2)];
 
     // add vertices
-    for (int i = 1; i < tokens.length; i++) {
-      parseIndices(tokens[i]);
+    for (int j = 0; j < n; j++) {
+      int k = offset + j * 3;
+      int iv = index(ops[k], countV);
+      int ivt = index(ops[k + 1], countVt);
+      int ivn = index(ops[k + 2], countVn);
       useFaceNormal = useFaceNormal || ivn < 0;
 
       // if no smoothing group or the vertex hasn't been seen, create a new one
-      Vertex vertex = map.get(tokens[i]);
-      if (smoothGroup == 0 || vertex == null) {
-        vertex = new Vertex();
-        vertex.position = v.get(iv);
-        vertex.texCoords = ivt > 0 ? vt.get(ivt) : new Vec2f(0);
-        vertex.normal = ivn > 0 ? vn.get(ivn) : new Vec3f(0);
-        vertex.index = verts.size();
-        verts.add(vertex);
-        map.put(tokens[i], vertex);
+      int vertex = smoothGroup == 0 ? -1 : table.get(iv, ivt, ivn);
+      if (vertex < 0) {
+        vertex = addVertex(iv, ivt, ivn);
+        if (smoothGroup != 0)
+          table.put(iv, ivt, ivn, vertex);
       }
-
-      faceVerts[i - 1] = vertex;
+      faceVerts[j] = vertex;
     }
 
     // add triangles
-    for (int i = 0; i < faceVerts.length - 2; i++) {
-      Triangle triangle = new Triangle();
-      triangle.a = faceVerts[0].index;
-      triangle.b = faceVerts[i + 1].index;
-      triangle.c = faceVerts[i + 2].index;
-      triangles.add(triangle);
+    if (n > 2 && numIndices + (n - 2) * 3 > indices.length)
+      indices = Arrays.copyOf(indices, Math.max(indices.length * 2, numIndices + (n - 2) * 3));
+    for (int i = 0; i < n - 2; i++) {
+      indices[numIndices++] = faceVerts[0];
+      indices[numIndices++] = faceVerts[i + 1];
+      indices[numIndices++] = faceVerts[i + 2];
     }
 
     // add normals if necessary
-    if (useFaceNormal) {
-      Vec3f a = faceVerts[0].position;
-      Vec3f b = faceVerts[1].position;
-      Vec3f c = faceVerts[2].position;
-      Vec3f normal = (b.minus(a)).cross(c.minus(a)).normalized();
-      for (Vertex v : faceVerts)
-        v.normal.add(normal);
-    }
-  }
-
-  private void parseIndices(String indices) {
-    int i = indices.indexOf("/");
-    if (i == -1) {
-      // format: v
-      iv = Integer.parseInt(indices) - 1;
-      ivt = -1;
-      ivn = -1;
-    } else {
-      int j = indices.lastIndexOf("/");
-      if (i == j) {
-        // format: v/vt
-        iv = Integer.parseInt(indices.substring(0, i)) - 1;
-        ivt = Integer.parseInt(indices.substring(j + 1)) - 1;
-        ivn = -1;
-      } else if (i == j - 1) {
-        // format: v//vn
-        iv = Integer.parseInt(indices.substring(0, i)) - 1;
-        ivt = -1;
-        ivn = Integer.parseInt(indices.substring(j + 1)) - 1;
-      } else {
-        // format: v/vt/vn
-        iv = Integer.parseInt(indices.substring(0, i)) - 1;
-        ivt = Integer.parseInt(indices.substring(i + 1, j)) - 1;
-        ivn = Integer.parseInt(indices.substring(j + 1)) - 1;
+    if (useFaceNormal && n >= 3) {
+      int a = faceVerts[0] * 3, b = faceVerts[1] * 3, c = faceVerts[2] * 3;
+      float abx = positions[b] - positions[a];
+      float aby = positions[b + 1] - positions[a + 1];
+      float abz = positions[b + 2] - positions[a + 2];
+      float acx = positions[c] - positions[a];
+      float acy = positions[c + 1] - positions[a + 1];
+      float acz = positions[c + 2] - positions[a + 2];
+      float nx = aby * acz - abz * acy;
+      float ny = abz * acx - abx * acz;
+      float nz = abx * acy - aby * acx;
+      float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+      nx /= length;
+      ny /= length;
+      nz /= length;
+      for (int i = 0; i < n; i++) {
+        int j = faceVerts[i] * 3;
+        normals[j] += nx;
+        normals[j + 1] += ny;
+        normals[j + 2] += nz;
       }
     }
   }
 
-  private Map<String, Vertex> getMap() {
+  /**
+   * Appends a vertex with the given attribute indices (-1 if absent) and returns its number.
+   */
+  private int addVertex(int iv, int ivt, int ivn) {
+    if (numVerts * 3 == positions.length) {
+      // grow by half, since the initial capacity is usually close
+      int capacity = numVerts + (numVerts >> 1);
+      positions = Arrays.copyOf(positions, capacity * 3);
+      normals = Arrays.copyOf(normals, capacity * 3);
+      texCoords = Arrays.copyOf(texCoords, capacity * 2);
+    }
+    int i = numVerts * 3;
+    positions[i] = v[iv * 3];
+    positions[i + 1] = v[iv * 3 + 1];
+    positions[i + 2] = v[iv * 3 + 2];
+    if (ivn >= 0) {
+      normals[i] = vn[ivn * 3];
+      normals[i + 1] = vn[ivn * 3 + 1];
+      normals[i + 2] = vn[ivn * 3 + 2];
+    }
+    if (ivt >= 0) {
+      texCoords[numVerts * 2] = vt[ivt * 2];
+      texCoords[numVerts * 2 + 1] = vt[ivt * 2 + 1];
+    }
+    return numVerts++;
+  }
+
+  /**
+   * Converts a 1-based (or negative, relative to the end) OBJ index to a 0-based index; 0 (absent)
+   * becomes -1.
+   */
+  private static int index(int objIndex, int count) {
+    if (objIndex > 0)
+      return objIndex - 1;
+    return objIndex < 0 ? count + objIndex : -1;
+  }
+
+  private VertexTable getTable() {
     // vertices are grouped into smoothing groups
-    map = maps.get(smoothGroup);
-    if (map == null) {
-      map = new HashMap<String, Vertex>();
-      maps.put(smoothGroup, map);
+    VertexTable table = tables.get(smoothGroup);
+    if (table == null) {
+      table = new VertexTable();
+      tables.put(smoothGroup, table);
     }
-    return map;
+    return table;
   }
-}
 
-class Vertex {
-  Vec3f position;
-  Vec2f texCoords;
-  Vec3f normal;
-  int   index;
+  /**
+   * First pass over a line-aligned range of the file. Attribute statements are parsed into
+   * arrays; faces, smoothing groups and material statements are recorded in ops (in file order) for
+   * the second pass.
+   */
+  private static class Chunk implements Callable<Chunk> {
+
+    final ByteBuffer   bytes;
+    final int          start;
+    final int          end;
+    float[]            v     = new float[3 * 1024];
+    float[]            vt    = new float[2 * 1024];
+    float[]            vn    = new float[3 * 1024];
+    int                numV;
+    int                numVt;
+    int                numVn;
+    int[]              ops   = new int[1024];
+    int                numOps;
+    int                numCorners;
+    int                numTriangleIndices;
+    List<String>       lines = new ArrayList<String>();
+
+    Chunk(ByteBuffer bytes, int start, int end) {
+      this.bytes = bytes;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Chunk call() {
+      ObjParser parser = new ObjParser(bytes, start, end);
+      while (parser.nextLine()) {
+        switch (parser.keyword()) {
+        case ObjParser.V:
+          if (numV * 3 == v.length)
+            v = Arrays.copyOf(v, v.length * 2);
+          v[numV * 3] = parser.nextFloat();
+          v[numV * 3 + 1] = parser.nextFloat();
+          v[numV * 3 + 2] = parser.nextFloat();
+          numV++;
+          break;
+        case ObjParser.VT:
+          if (numVt * 2 == vt.length)
+            vt = Arrays.copyOf(vt, vt.length * 2);
+          vt[numVt * 2] = parser.nextFloat();
+          vt[numVt * 2 + 1] = parser.nextFloat();
+          numVt++;
+          break;
+        case ObjParser.VN:
+          if (numVn * 3 == vn.length)
+            vn = Arrays.copyOf(vn, vn.length * 2);
+          vn[numVn * 3] = parser.nextFloat();
+          vn[numVn * 3 + 1] = parser.nextFloat();
+          vn[numVn * 3 + 2] = parser.nextFloat();
+          numVn++;
+          break;
+        case ObjParser.F:
+          parseFace(parser);
+          break;
+        case ObjParser.S:
+          add(SMOOTH, parser.nextSmoothingGroup());
+          break;
+        case ObjParser.USEMTL:
+        case ObjParser.MTLLIB:
+          add(LINE, lines.size());
+          lines.add(parser.line());
+          break;
+        }
+        parser.skipLine();
+      }
+      return this;
+    }
+
+    /**
+     * Records a face as (FACE, n, numV, numVt, numVn) followed by n raw index triples.
+     */
+    private void parseFace(ObjParser parser) {
+      ensure(5);
+      int header = numOps;
+      ops[numOps++] = FACE;
+      ops[numOps++] = 0;
+      ops[numOps++] = numV;
+      ops[numOps++] = numVt;
+      ops[numOps++] = numVn;
+      int n = 0;
+      while (parser.hasToken()) {
+        parser.nextFaceVertex();
+        ensure(3);
+        ops[numOps++] = parser.iv;
+        ops[numOps++] = parser.ivt;
+        ops[numOps++] = parser.ivn;
+        n++;
+      }
+      ops[header + 1] = n;
+      numCorners += n;
+      numTriangleIndices += Math.max(n - 2, 0) * 3;
+    }
+
+    private void add(int op, int value) {
+      ensure(2);
+      ops[numOps++] = op;
+      ops[numOps++] = value;
+    }
+
+    private void ensure(int extra) {
+      if (numOps + extra > ops.length)
+        ops = Arrays.copyOf(ops, Math.max(ops.length * 2, numOps + extra));
+    }
+
+    void releaseAttributes() {
+      v = vt = vn = null;
+    }
+
+    void release() {
+      releaseAttributes();
+      ops = null;
+      lines = null;
+    }
+  }
 }
 
-class Triangle {
-  int a, b, c;
+/**
+ * Open-addressing hash table from a face vertex's (v, vt, vn) indices to the number of the vertex
+ * created for it. The v and vt indices are packed into one long key; the vn index is stored next
+ * to it, so any index combination is represented exactly.
+ */
+class VertexTable {
+
+  private long[] keys    = new long[64];
+  private int[]  normals = new int[64];
+  private int[]  values  = new int[64];
+  private int    size;
+
+  VertexTable() {
+    Arrays.fill(values, -1);
+  }
+
+  /**
+   * Returns the vertex stored for the indices, or -1 if there is none.
+   */
+  int get(int iv, int ivt, int ivn) {
+    long key = pack(iv, ivt);
+    int mask = values.length - 1;
+    for (int i = hash(key, ivn) & mask; values[i] >= 0; i = (i + 1) & mask)
+      if (keys[i] == key && normals[i] == ivn)
+        return values[i];
+    return -1;
+  }
+
+  /**
+   * Stores the vertex for indices that are not in the table yet.
+   */
+  void put(int iv, int ivt, int ivn, int vertex) {
+    if (size * 2 >= values.length)
+      resize(values.length * 2);
+    insert(pack(iv, ivt), ivn, vertex);
+    size++;
+  }
+
+  private void insert(long key, int ivn, int vertex) {
+    int mask = values.length - 1;
+    int i = hash(key, ivn) & mask;
+    while (values[i] >= 0)
+      i = (i + 1) & mask;
+    keys[i] = key;
+    normals[i] = ivn;
+    values[i] = vertex;
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldNormals = normals;
+    int[] oldValues = values;
+    keys = new long[capacity];
+    normals = new int[capacity];
+    values = new int[capacity];
+    Arrays.fill(values, -1);
+    for (int i = 0; i < oldValues.length; i++)
+      if (oldValues[i] >= 0)
+        insert(oldKeys[i], oldNormals[i], oldValues[i]);
+  }
+
+  private static long pack(int iv, int ivt) {
+    return ((long) iv << 32) | (ivt & 0xFFFFFFFFL);
+  }
+
+  private static int hash(long key, int ivn) {
+    // 64-bit finalizer from MurmurHash3
+    long h = key ^ (ivn * 0x9E3779B97F4A7C15L);
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
 }
 
 class MaterialLibraryLoader {
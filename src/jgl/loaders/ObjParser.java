@@ -0,0 +1,301 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.loaders;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Tokenizes OBJ statements directly from the bytes of a buffer (typically a memory-mapped file).
+ * Numbers are parsed in place without creating strings; only rare statements such as usemtl are
+ * decoded into a String with {@link #line()}. The buffer's position and limit are never modified,
+ * so several parsers can read disjoint ranges of the same buffer concurrently.
+ *
+ * @author justin
+ */
+class ObjParser {
+
+  static final int             OTHER  = 0;
+  static final int             V      = 1;
+  static final int             VT     = 2;
+  static final int             VN     = 3;
+  static final int             F      = 4;
+  static final int             S      = 5;
+  static final int             USEMTL = 6;
+  static final int             MTLLIB = 7;
+
+  private static final Charset ASCII  = Charset.forName("US-ASCII");
+
+  private static final float[] POW10F = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f,
+      1e9f, 1e10f                    };
+
+  private final ByteBuffer     buf;
+  private final int            end;
+  private int                  pos;
+  private int                  lineStart;
+  private int                  lineEnd;
+
+  /** Face vertex indices read by {@link #nextFaceVertex()}, as written (1-based, 0 if absent). */
+  int                          iv, ivt, ivn;
+
+  /**
+   * Creates a parser for the bytes [start, end) of buf.
+   */
+  ObjParser(ByteBuffer buf, int start, int end) {
+    this.buf = buf;
+    this.pos = start;
+    this.end = end;
+  }
+
+  /**
+   * Moves to the next line that is not blank. Returns false at the end of the range.
+   */
+  boolean nextLine() {
+    pos = lineEnd > pos ? lineEnd : pos;
+    while (pos < end) {
+      lineStart = pos;
+      while (pos < end && buf.get(pos) != '\n')
+        pos++;
+      lineEnd = pos < end ? pos + 1 : pos;
+      pos = lineStart;
+      skipSpace();
+      if (hasToken())
+        return true;
+      pos = lineEnd;
+    }
+    return false;
+  }
+
+  /**
+   * Reads the statement keyword of the current line and returns one of the constants V, VT, VN,
+   * F, S, USEMTL, MTLLIB or OTHER.
+   */
+  int keyword() {
+    int start = pos;
+    while (pos < end && !isDelimiter(buf.get(pos)))
+      pos++;
+    int length = pos - start;
+    skipSpace();
+
+    byte c0 = buf.get(start);
+    if (length == 1) {
+      if (c0 == 'v')
+        return V;
+      if (c0 == 'f')
+        return F;
+      if (c0 == 's')
+        return S;
+    } else if (length == 2 && c0 == 'v') {
+      byte c1 = buf.get(start + 1);
+      if (c1 == 't')
+        return VT;
+      if (c1 == 'n')
+        return VN;
+    } else if (length == 6) {
+      if (matches(start, "usemtl"))
+        return USEMTL;
+      if (matches(start, "mtllib"))
+        return MTLLIB;
+    }
+    return OTHER;
+  }
+
+  /**
+   * The current line as a string, without the line terminator.
+   */
+  String line() {
+    int length = lineEnd - lineStart;
+    while (length > 0 && isLineBreak(buf.get(lineStart + length - 1)))
+      length--;
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+      bytes[i] = buf.get(lineStart + i);
+    return new String(bytes, ASCII);
+  }
+
+  /**
+   * True if there is another token on the current line.
+   */
+  boolean hasToken() {
+    return pos < lineEnd && !isLineBreak(buf.get(pos));
+  }
+
+  /**
+   * Reads the next token as "off" (returns 0) or an integer.
+   */
+  int nextSmoothingGroup() {
+    if (pos + 3 <= lineEnd && (buf.get(pos) | 0x20) == 'o' && (buf.get(pos + 1) | 0x20) == 'f'
+        && (buf.get(pos + 2) | 0x20) == 'f') {
+      pos += 3;
+      skipSpace();
+      return 0;
+    }
+    int value = parseInt();
+    skipSpace();
+    return value;
+  }
+
+  /**
+   * Reads the next token as a float.
+   */
+  float nextFloat() {
+    int start = pos;
+    boolean negative = false;
+    byte c = peek();
+    if (c == '-' || c == '+') {
+      negative = c == '-';
+      pos++;
+    }
+
+    // up to 18 significant digits fit in a long; anything longer takes the slow path
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    int numerals = 0;
+    while (isDigit(c = peek())) {
+      numerals++;
+      if (digits < 18) {
+        mantissa = mantissa * 10 + (c - '0');
+        if (mantissa != 0)
+          digits++;
+      } else {
+        scale--;
+      }
+      pos++;
+    }
+    if (c == '.') {
+      pos++;
+      while (isDigit(c = peek())) {
+        numerals++;
+        if (digits < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          if (mantissa != 0)
+            digits++;
+          scale++;
+        }
+        pos++;
+      }
+    }
+    boolean fast = numerals > 0 && digits < 18;
+    if (c == 'e' || c == 'E') {
+      pos++;
+      int exponent = parseInt();
+      scale -= exponent;
+    }
+    if (!isDelimiter(peek()))
+      fast = false;
+
+    float value;
+    if (fast && mantissa < (1 << 24) && scale >= -10 && scale <= 10) {
+      // both operands are exact floats, so one rounding gives the same result as parseFloat;
+      // anything else would round twice, so it is left to parseFloat
+      value = scale >= 0 ? mantissa / POW10F[scale] : mantissa * POW10F[-scale];
+    } else {
+      while (!isDelimiter(peek()))
+        pos++;
+      value = Float.parseFloat(substring(start, pos));
+      negative = false;
+    }
+    skipSpace();
+    return negative ? -value : value;
+  }
+
+  /**
+   * Reads the next token as an integer.
+   */
+  int nextInt() {
+    int value = parseInt();
+    skipSpace();
+    return value;
+  }
+
+  /**
+   * Reads the next face vertex token (v, v/vt, v//vn or v/vt/vn) into iv, ivt and ivn.
+   */
+  void nextFaceVertex() {
+    iv = parseInt();
+    ivt = 0;
+    ivn = 0;
+    if (peek() == '/') {
+      pos++;
+      if (peek() != '/')
+        ivt = parseInt();
+      if (peek() == '/') {
+        pos++;
+        ivn = parseInt();
+      }
+    }
+    skipSpace();
+  }
+
+  /**
+   * Skips the rest of the current line.
+   */
+  void skipLine() {
+    pos = lineEnd;
+  }
+
+  private int parseInt() {
+    int start = pos;
+    boolean negative = false;
+    byte c = peek();
+    if (c == '-' || c == '+') {
+      negative = c == '-';
+      pos++;
+    }
+    int value = 0;
+    int digits = 0;
+    while (isDigit(c = peek())) {
+      value = value * 10 + (c - '0');
+      digits++;
+      pos++;
+    }
+    if (digits == 0 || digits > 9) {
+      // empty or possibly overflowing; let Integer report the error
+      while (!isDelimiter(peek()) && peek() != '/')
+        pos++;
+      return Integer.parseInt(substring(start, pos));
+    }
+    return negative ? -value : value;
+  }
+
+  private boolean matches(int start, String word) {
+    for (int i = 0; i < word.length(); i++)
+      if (buf.get(start + i) != word.charAt(i))
+        return false;
+    return true;
+  }
+
+  private byte peek() {
+    return pos < lineEnd ? buf.get(pos) : (byte) '\n';
+  }
+
+  private void skipSpace() {
+    while (pos < lineEnd) {
+      byte c = buf.get(pos);
+      if (c != ' ' && c != '\t')
+        break;
+      pos++;
+    }
+  }
+
+  private String substring(int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = buf.get(start + i);
+    return new String(bytes, ASCII);
+  }
+
+  private static boolean isDigit(byte c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLineBreak(byte c) {
+    return c == '\n' || c == '\r';
+  }
+
+  private static boolean isDelimiter(byte c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.loaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL;
+
+import jgl.core.Texture;
+
+/**
+ * Shares textures loaded from files. Acquiring a file that is already resident with the same load
+ * options returns the same texture and increments its reference count; every acquire must be
+ * matched by a {@link #release(GL, Texture)} instead of {@link Texture#delete(GL)}.
+ * <p>
+ * Released textures stay resident so they can be acquired again without loading, until the
+ * estimated GPU memory of all resident textures exceeds the budget; then the least recently used
+ * unreferenced textures are deleted. Referenced textures are never evicted, so the budget can be
+ * exceeded while they are in use. Must only be used on the GL thread.
+ *
+ * @author justin
+ */
+public class TextureCache {
+
+  private final Map<Key, Entry>     entries  = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  private final Map<Texture, Entry> textures = new IdentityHashMap<Texture, Entry>();
+  private long                      budget;
+  private long                      bytes;
+
+  /**
+   * Creates a cache that keeps at most budget bytes of unreferenced textures resident.
+   */
+  public TextureCache(long budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * Changes the budget, evicting textures if it is now exceeded.
+   */
+  public void setBudget(GL gl, long budget) {
+    this.budget = budget;
+    evict(gl);
+  }
+
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Estimated GPU memory of all resident textures.
+   */
+  public long getResidentBytes() {
+    return bytes;
+  }
+
+  /**
+   * Number of resident textures.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns a texture of the image file without mipmaps, loading it if it is not resident.
+   * Returns null if the file could not be loaded.
+   */
+  public Texture acquire(GL gl, File file) {
+    return acquire(gl, file, null);
+  }
+
+  /**
+   * Returns a texture of the image file with mipmaps created by the generator (if not null),
+   * loading it if it is not resident. Textures loaded with different generators are not shared.
+   * Returns null if the file could not be loaded.
+   */
+  public Texture acquire(GL gl, File file, MipmapGenerator mipmaps) {
+    Key key;
+    try {
+      key = new Key(file.getCanonicalPath(), mipmaps);
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+      return null;
+    }
+
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      Texture texture = TextureLoader.loadFile(gl, file.getPath(), mipmaps);
+      if (texture == null)
+        return null;
+      entry = new Entry(texture);
+      entries.put(key, entry);
+      textures.put(texture, entry);
+      bytes += entry.bytes;
+    }
+    entry.references++;
+    evict(gl);
+    return entry.texture;
+  }
+
+  /**
+   * Releases a texture returned by acquire. Once no references remain it may be evicted.
+   */
+  public void release(GL gl, Texture texture) {
+    Entry entry = textures.get(texture);
+    if (entry == null || entry.references == 0)
+      throw new IllegalArgumentException("Texture was not acquired from this cache");
+    entry.references--;
+    evict(gl);
+  }
+
+  /**
+   * Deletes all unreferenced textures.
+   */
+  public void trim(GL gl) {
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (entry.references == 0) {
+        it.remove();
+        remove(gl, entry);
+      }
+    }
+  }
+
+  /**
+   * Deletes all resident textures, including those still referenced.
+   */
+  public void dispose(GL gl) {
+    for (Entry entry : entries.values())
+      remove(gl, entry);
+    entries.clear();
+  }
+
+  /**
+   * Deletes unreferenced textures, least recently acquired first, until the budget is met.
+   */
+  private void evict(GL gl) {
+    Iterator<Entry> it = entries.values().iterator();
+    while (bytes > budget && it.hasNext()) {
+      Entry entry = it.next();
+      if (entry.references == 0) {
+        it.remove();
+        remove(gl, entry);
+      }
+    }
+  }
+
+  private void remove(GL gl, Entry entry) {
+    textures.remove(entry.texture);
+    bytes -= entry.bytes;
+    entry.texture.delete(gl);
+  }
+
+  /**
+   * Canonical path plus load options. Generators are compared by identity.
+   */
+  private static class Key {
+
+    final String          path;
+    final MipmapGenerator mipmaps;
+
+    Key(String path, MipmapGenerator mipmaps) {
+      this.path = path;
+      this.mipmaps = mipmaps;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key other = (Key) obj;
+      return path.equals(other.path) && mipmaps == other.mipmaps;
+    }
+
+    @Override
+    public int hashCode() {
+      return path.hashCode() * 31 + System.identityHashCode(mipmaps);
+    }
+  }
+
+  private static class Entry {
+
+    final Texture texture;
+    final long    bytes;
+    int           references;
+
+    Entry(Texture texture) {
+      this.texture = texture;
+      this.bytes = texture.getSizeInBytes();
+    }
+  }
+}
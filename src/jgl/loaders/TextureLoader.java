@@ -4,13 +4,25 @@
 package jgl.loaders;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.imageio.ImageIO;
 import javax.media.opengl.GL;
+import javax.media.opengl.GL2GL3;
 
 import jgl.core.Texture;
 
@@ -24,45 +36,101 @@ import com.jogamp.common.nio.Buffers;
 public class TextureLoader {
 
   public static Texture loadImage(GL gl, BufferedImage image) {
+    return decode(image).upload(gl);
+  }
+
+  /**
+   * Loads an image with a mipmap chain created by the generator.
+   */
+  public static Texture loadImage(GL gl, BufferedImage image, MipmapGenerator mipmaps) {
+    return mipmaps.generate(decode(image)).upload(gl);
+  }
+
+  /**
+   * Converts an image to bottom-up rows of pixels on the calling thread. Does not need a GL context.
+   */
+  public static ImageData decode(BufferedImage image) {
+    return decode(image, null);
+  }
+
+  /**
+   * Converts an image to bottom-up rows of pixels, splitting the rows across the pool (if not
+   * null). Does not need a GL context.
+   * <p>
+   * Images stored as 3-byte BGR or as packed RGB / ARGB / BGR ints are copied from their raster
+   * row by row and uploaded in that layout (GL_BGR, or GL_BGRA / GL_RGBA with packed int types), so
+   * no pixel is repacked. 4-byte ABGR images are reordered to RGBA straight from the raster, and
+   * other image types are converted to RGB or RGBA bytes a row at a time.
+   */
+  public static ImageData decode(BufferedImage image, ForkJoinPool pool) {
     int w = image.getWidth();
     int h = image.getHeight();
     boolean alpha = image.getColorModel().hasAlpha();
-    int channels = alpha ? 4 : 3;
-    ByteBuffer data = Buffers.newDirectByteBuffer(w * h * channels);
-
-    for (int y = 0; y < h; y++) {
-      for (int x = 0; x < w; x++) {
-        int pixel = image.getRGB(x, h - y - 1);
-        data.put((byte) ((pixel >> 16) & 0xFF));
-        data.put((byte) ((pixel >> 8) & 0xFF));
-        data.put((byte) ((pixel) & 0xFF));
-        if (alpha)
-          data.put((byte) ((pixel >> 24) & 0xFF));
-      }
-    }
+    int internalFormat = alpha ? GL.GL_RGBA : GL.GL_RGB;
+    WritableRaster raster = image.getRaster();
+    DataBuffer buffer = raster.getDataBuffer();
+    SampleModel sampleModel = raster.getSampleModel();
 
-    data.rewind();
+    int kind = Rows.PACK;
+    int format = alpha ? GL.GL_RGBA : GL.GL_RGB;
+    int type = GL.GL_UNSIGNED_BYTE;
+    int pixelSize = alpha ? 4 : 3;
+    int scanline = 0;
 
-    Texture texture = new Texture(Texture.Target.TEXTURE_2D);
-    texture.bind(gl);
-    gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
-    texture.set(gl, GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
-    texture.set(gl, GL.GL_TEXTURE_WRAP_T, GL.GL_REPEAT);
-    texture.set(gl, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
-    texture.set(gl, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+    if (buffer.getNumBanks() == 1) {
+      switch (image.getType()) {
+      case BufferedImage.TYPE_3BYTE_BGR:
+        kind = Rows.COPY_BYTES;
+        format = GL2GL3.GL_BGR;
+        pixelSize = 3;
+        scanline = ((ComponentSampleModel) sampleModel).getScanlineStride();
+        break;
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        // reordered to RGBA bytes, since GL_ABGR is only an extension
+        kind = Rows.SWIZZLE_ABGR;
+        scanline = ((ComponentSampleModel) sampleModel).getScanlineStride();
+        break;
+      case BufferedImage.TYPE_INT_ARGB:
+      case BufferedImage.TYPE_INT_RGB:
+        // 0xAARRGGBB: blue in the low byte
+        kind = Rows.COPY_INTS;
+        format = GL.GL_BGRA;
+        type = GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV;
+        pixelSize = 4;
+        scanline = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+        break;
+      case BufferedImage.TYPE_INT_BGR:
+        // 0x00BBGGRR: red in the low byte
+        kind = Rows.COPY_INTS;
+        format = GL.GL_RGBA;
+        type = GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV;
+        pixelSize = 4;
+        scanline = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+        break;
+      }
+    }
 
-    if (alpha)
-      texture.setData2D(gl, GL.GL_RGBA, w, h, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, data);
+    ByteBuffer data = Buffers.newDirectByteBuffer(w * h * pixelSize);
+    Rows rows = new Rows(kind, image, data, scanline, 0, h);
+    if (pool == null || h <= Rows.ROWS_PER_TASK)
+      rows.compute();
     else
-      texture.setData2D(gl, GL.GL_RGB, w, h, GL.GL_RGB, GL.GL_UNSIGNED_BYTE, data);
+      pool.invoke(rows);
 
-    return texture;
+    return new ImageData(w, h, internalFormat, format, type, data);
   }
 
   public static Texture loadFile(GL gl, String fileName) {
+    return loadFile(gl, fileName, null);
+  }
+
+  /**
+   * Loads an image file with a mipmap chain created by the generator (if not null).
+   */
+  public static Texture loadFile(GL gl, String fileName, MipmapGenerator mipmaps) {
     try {
       BufferedImage image = ImageIO.read(new File(fileName));
-      return loadImage(gl, image);
+      return mipmaps == null ? loadImage(gl, image) : loadImage(gl, image, mipmaps);
     } catch (IOException e) {
       e.printStackTrace();
       return null;
@@ -70,13 +138,124 @@ public class TextureLoader {
   }
 
   public static Texture loadResource(GL gl, String resourceName) {
+    return loadResource(gl, resourceName, null);
+  }
+
+  /**
+   * Loads an image resource with a mipmap chain created by the generator (if not null).
+   */
+  public static Texture loadResource(GL gl, String resourceName, MipmapGenerator mipmaps) {
     try {
       InputStream input = TextureLoader.class.getClassLoader().getResourceAsStream(resourceName);
       BufferedImage image = ImageIO.read(input);
-      return loadImage(gl, image);
+      return mipmaps == null ? loadImage(gl, image) : loadImage(gl, image, mipmaps);
     } catch (IOException e) {
       e.printStackTrace();
       return null;
     }
   }
+
+  /**
+   * Fills the bottom-up image rows [start, end) of the output; splits itself when run in a pool.
+   */
+  @SuppressWarnings("serial")
+  private static class Rows extends RecursiveAction {
+
+    static final int    ROWS_PER_TASK = 64;
+
+    // bulk copy of byte / int raster rows, byte reordering, or per-row conversion through getRGB
+    static final int    COPY_BYTES    = 0;
+    static final int    COPY_INTS     = 1;
+    static final int    SWIZZLE_ABGR  = 2;
+    static final int    PACK          = 3;
+
+    final int           kind;
+    final BufferedImage image;
+    final ByteBuffer    data;
+    final int           scanline;
+    final int           start;
+    final int           end;
+
+    Rows(int kind, BufferedImage image, ByteBuffer data, int scanline, int start, int end) {
+      this.kind = kind;
+      this.image = image;
+      this.data = data;
+      this.scanline = scanline;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (getPool() != null && end - start > ROWS_PER_TASK) {
+        int mid = (start + end) >>> 1;
+        invokeAll(new Rows(kind, image, data, scanline, start, mid), new Rows(kind, image, data,
+            scanline, mid, end));
+        return;
+      }
+
+      int w = image.getWidth();
+      int h = image.getHeight();
+      WritableRaster raster = image.getRaster();
+      // offset of pixel (0, 0) in the data buffer; non-zero for sub-images
+      int origin = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateY()
+          * scanline;
+      ByteBuffer dest = data.duplicate().order(ByteOrder.nativeOrder());
+
+      switch (kind) {
+      case COPY_BYTES: {
+        byte[] src = ((DataBufferByte) raster.getDataBuffer()).getData();
+        origin -= raster.getSampleModelTranslateX() * 3;
+        dest.position(start * w * 3);
+        for (int y = start; y < end; y++)
+          dest.put(src, origin + (h - y - 1) * scanline, w * 3);
+        break;
+      }
+      case SWIZZLE_ABGR: {
+        byte[] src = ((DataBufferByte) raster.getDataBuffer()).getData();
+        origin -= raster.getSampleModelTranslateX() * 4;
+        byte[] bytes = new byte[w * 4];
+        dest.position(start * w * 4);
+        for (int y = start; y < end; y++) {
+          for (int i = 0, j = origin + (h - y - 1) * scanline; i < bytes.length; i += 4, j += 4) {
+            bytes[i] = src[j + 3];
+            bytes[i + 1] = src[j + 2];
+            bytes[i + 2] = src[j + 1];
+            bytes[i + 3] = src[j];
+          }
+          dest.put(bytes);
+        }
+        break;
+      }
+      case COPY_INTS: {
+        int[] src = ((DataBufferInt) raster.getDataBuffer()).getData();
+        origin -= raster.getSampleModelTranslateX();
+        IntBuffer ints = dest.asIntBuffer();
+        ints.position(start * w);
+        for (int y = start; y < end; y++)
+          ints.put(src, origin + (h - y - 1) * scanline, w);
+        break;
+      }
+      default: {
+        boolean alpha = image.getColorModel().hasAlpha();
+        int channels = alpha ? 4 : 3;
+        int[] row = new int[w];
+        byte[] bytes = new byte[w * channels];
+        dest.position(start * w * channels);
+        for (int y = start; y < end; y++) {
+          image.getRGB(0, h - y - 1, w, 1, row, 0, w);
+          for (int x = 0, i = 0; x < w; x++) {
+            int pixel = row[x];
+            bytes[i++] = (byte) ((pixel >> 16) & 0xFF);
+            bytes[i++] = (byte) ((pixel >> 8) & 0xFF);
+            bytes[i++] = (byte) ((pixel) & 0xFF);
+            if (alpha)
+              bytes[i++] = (byte) ((pixel >> 24) & 0xFF);
+          }
+          dest.put(bytes);
+        }
+      }
+      }
+    }
+  }
 }
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.math.geometry;
+
+/**
+ * Fixed-size array of axis-aligned boxes stored as one primitive array per coordinate
+ * (struct-of-arrays), so bulk tests run over contiguous floats without touching box objects.
+ * 
+ * @author justin
+ */
+public class BoxArray {
+
+  public final float[] minX;
+  public final float[] minY;
+  public final float[] minZ;
+  public final float[] maxX;
+  public final float[] maxY;
+  public final float[] maxZ;
+
+  /** Index of the frustum plane that last rejected each box; tested first next time. */
+  final byte[]         lastPlane;
+
+  public BoxArray(int size) {
+    minX = new float[size];
+    minY = new float[size];
+    minZ = new float[size];
+    maxX = new float[size];
+    maxY = new float[size];
+    maxZ = new float[size];
+    lastPlane = new byte[size];
+  }
+
+  /**
+   * Number of boxes in the array.
+   */
+  public int size() {
+    return minX.length;
+  }
+
+  /**
+   * Sets box i to the given min. and max. points.
+   */
+  public void set(int i, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+    this.minX[i] = minX;
+    this.minY[i] = minY;
+    this.minZ[i] = minZ;
+    this.maxX[i] = maxX;
+    this.maxY[i] = maxY;
+    this.maxZ[i] = maxZ;
+  }
+
+  /**
+   * Sets box i to the bounds of box.
+   */
+  public void set(int i, Box box) {
+    set(i, box.min.x(), box.min.y(), box.min.z(), box.max.x(), box.max.y(), box.max.z());
+  }
+}
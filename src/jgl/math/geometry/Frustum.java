@@ -0,0 +1,319 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.math.geometry;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import jgl.cameras.Camera;
+import jgl.math.vector.Mat4f;
+import jgl.math.vector.Vec3f;
+
+/**
+ * A view frustum defined by six planes whose normals point inward. The planes are extracted from a
+ * combined projection * view matrix, so they are in world space.
+ * <p>
+ * Single objects are tested with {@link #testBox} / {@link #testSphere}, which take and return a
+ * mask of planes that still need testing: a child in a hierarchy passes its parent's result so
+ * that planes the parent is completely inside of are skipped (a result of 0 means fully inside, so
+ * the whole subtree is visible). Arrays of objects are culled in bulk with the cull methods, which
+ * write one visibility bit per object and remember which plane rejected each object last so that
+ * plane is tested first in the next frame.
+ *
+ * @author justin
+ */
+public class Frustum {
+
+  public static final int LEFT       = 0;
+  public static final int RIGHT      = 1;
+  public static final int BOTTOM     = 2;
+  public static final int TOP        = 3;
+  public static final int NEAR       = 4;
+  public static final int FAR        = 5;
+
+  /** Plane mask with all six planes set. */
+  public static final int ALL_PLANES = 0x3F;
+
+  /** Returned by the test methods if the object is completely outside the frustum. */
+  public static final int OUTSIDE    = -1;
+
+  /** Ranges with fewer objects than this are not split any further across worker threads. */
+  public static final int PARALLEL_THRESHOLD = 4096;
+
+  // plane i: nx[i] * x + ny[i] * y + nz[i] * z + d[i] >= 0 for points inside
+  private final float[] nx = new float[6];
+  private final float[] ny = new float[6];
+  private final float[] nz = new float[6];
+  private final float[] d  = new float[6];
+
+  // absolute normal components, used for the projected radius of boxes
+  private final float[] ax = new float[6];
+  private final float[] ay = new float[6];
+  private final float[] az = new float[6];
+
+  private Camera        camera;
+  private long          cameraVersion;
+
+  /**
+   * Creates a frustum that contains everything until one of the set / update methods is called.
+   */
+  public Frustum() {
+  }
+
+  /**
+   * Creates a frustum from the camera's current projection and view.
+   */
+  public Frustum(Camera camera) {
+    update(camera);
+  }
+
+  /**
+   * Extracts the planes from the camera if it has changed since the last call. Returns true if the
+   * planes were updated.
+   */
+  public boolean update(Camera camera) {
+    if (camera == this.camera && camera.getVersion() == cameraVersion)
+      return false;
+    set(camera.getViewProjection());
+    this.camera = camera;
+    this.cameraVersion = camera.getVersion();
+    return true;
+  }
+
+  /**
+   * Extracts the planes from a combined (projection) * (view) matrix.
+   */
+  public void set(Mat4f viewProjection) {
+    float[] m = viewProjection.a;
+    // row i of the column-major matrix is (m[i], m[i + 4], m[i + 8], m[i + 12])
+    for (int i = 0; i < 6; i++) {
+      int row = i >> 1;
+      float sign = (i & 1) == 0 ? 1 : -1;
+      setPlane(i, m[3] + sign * m[row], m[7] + sign * m[row + 4], m[11] + sign * m[row + 8],
+          m[15] + sign * m[row + 12]);
+    }
+    camera = null;
+  }
+
+  private void setPlane(int i, float a, float b, float c, float dist) {
+    float s = 1.0f / (float) Math.sqrt(a * a + b * b + c * c);
+    nx[i] = a * s;
+    ny[i] = b * s;
+    nz[i] = c * s;
+    d[i] = dist * s;
+    ax[i] = Math.abs(nx[i]);
+    ay[i] = Math.abs(ny[i]);
+    az[i] = Math.abs(nz[i]);
+  }
+
+  /**
+   * Plane i (see the constants LEFT to FAR) with its normal pointing into the frustum. Creates a
+   * new plane.
+   */
+  public Plane getPlane(int i) {
+    Vec3f n = new Vec3f(nx[i], ny[i], nz[i]);
+    return new Plane(n.times(-d[i]), n);
+  }
+
+  /**
+   * Tests a box against the planes in mask. Returns OUTSIDE if the box is completely outside one of
+   * them; otherwise returns the subset of mask the box straddles (0 if it is completely inside).
+   */
+  public int testBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+      int mask) {
+    float cx = (minX + maxX) * 0.5f, ex = (maxX - minX) * 0.5f;
+    float cy = (minY + maxY) * 0.5f, ey = (maxY - minY) * 0.5f;
+    float cz = (minZ + maxZ) * 0.5f, ez = (maxZ - minZ) * 0.5f;
+
+    int result = 0;
+    for (int i = 0; i < 6; i++) {
+      if ((mask & (1 << i)) == 0)
+        continue;
+      float dist = nx[i] * cx + ny[i] * cy + nz[i] * cz + d[i];
+      float radius = ax[i] * ex + ay[i] * ey + az[i] * ez;
+      if (dist < -radius)
+        return OUTSIDE;
+      if (dist < radius)
+        result |= 1 << i;
+    }
+    return result;
+  }
+
+  /**
+   * Tests a sphere against the planes in mask. Returns OUTSIDE if the sphere is completely outside
+   * one of them; otherwise returns the subset of mask the sphere straddles (0 if it is completely
+   * inside).
+   */
+  public int testSphere(float x, float y, float z, float r, int mask) {
+    int result = 0;
+    for (int i = 0; i < 6; i++) {
+      if ((mask & (1 << i)) == 0)
+        continue;
+      float dist = nx[i] * x + ny[i] * y + nz[i] * z + d[i];
+      if (dist < -r)
+        return OUTSIDE;
+      if (dist < r)
+        result |= 1 << i;
+    }
+    return result;
+  }
+
+  /**
+   * True if any part of the box is inside the frustum.
+   */
+  public boolean intersects(Box box) {
+    return testBox(box.min.x(), box.min.y(), box.min.z(), box.max.x(), box.max.y(), box.max.z(),
+        ALL_PLANES) != OUTSIDE;
+  }
+
+  /**
+   * True if any part of the sphere is inside the frustum.
+   */
+  public boolean intersects(Sphere sphere) {
+    return testSphere(sphere.c.x(), sphere.c.y(), sphere.c.z(), sphere.r, ALL_PLANES) != OUTSIDE;
+  }
+
+  /**
+   * Creates a visibility set large enough for count objects.
+   */
+  public static long[] newVisibilitySet(int count) {
+    return new long[(count + 63) >>> 6];
+  }
+
+  /**
+   * True if bit i of the visibility set is on.
+   */
+  public static boolean isVisible(long[] visible, int i) {
+    return (visible[i >>> 6] & (1L << i)) != 0;
+  }
+
+  /**
+   * Tests all boxes; bit i of visible is set if box i intersects the frustum and cleared otherwise.
+   * Returns the number of visible boxes.
+   */
+  public int cull(BoxArray boxes, long[] visible) {
+    return cullBoxes(boxes, visible, 0, boxes.size());
+  }
+
+  /**
+   * Tests all boxes like {@link #cull(BoxArray, long[])}, splitting the work across the pool.
+   */
+  public int cull(BoxArray boxes, long[] visible, ForkJoinPool pool) {
+    return pool.invoke(new CullTask(boxes, null, visible, 0, boxes.size()));
+  }
+
+  /**
+   * Tests all spheres; bit i of visible is set if sphere i intersects the frustum and cleared
+   * otherwise. Returns the number of visible spheres.
+   */
+  public int cull(SphereArray spheres, long[] visible) {
+    return cullSpheres(spheres, visible, 0, spheres.size());
+  }
+
+  /**
+   * Tests all spheres like {@link #cull(SphereArray, long[])}, splitting the work across the pool.
+   */
+  public int cull(SphereArray spheres, long[] visible, ForkJoinPool pool) {
+    return pool.invoke(new CullTask(null, spheres, visible, 0, spheres.size()));
+  }
+
+  private int cullBoxes(BoxArray boxes, long[] visible, int start, int end) {
+    float[] minX = boxes.minX, minY = boxes.minY, minZ = boxes.minZ;
+    float[] maxX = boxes.maxX, maxY = boxes.maxY, maxZ = boxes.maxZ;
+    byte[] lastPlane = boxes.lastPlane;
+    int count = 0;
+
+    for (int i = start; i < end; i++) {
+      float cx = (minX[i] + maxX[i]) * 0.5f, ex = (maxX[i] - minX[i]) * 0.5f;
+      float cy = (minY[i] + maxY[i]) * 0.5f, ey = (maxY[i] - minY[i]) * 0.5f;
+      float cz = (minZ[i] + maxZ[i]) * 0.5f, ez = (maxZ[i] - minZ[i]) * 0.5f;
+
+      // start with the plane that rejected this box last time
+      int first = lastPlane[i];
+      int rejected = -1;
+      for (int k = 0; k < 6; k++) {
+        int p = (k == 0) ? first : (k == first ? 0 : k);
+        float dist = nx[p] * cx + ny[p] * cy + nz[p] * cz + d[p];
+        if (dist < -(ax[p] * ex + ay[p] * ey + az[p] * ez)) {
+          rejected = p;
+          break;
+        }
+      }
+
+      count += setVisible(visible, i, rejected < 0);
+      if (rejected >= 0)
+        lastPlane[i] = (byte) rejected;
+    }
+    return count;
+  }
+
+  private int cullSpheres(SphereArray spheres, long[] visible, int start, int end) {
+    float[] x = spheres.x, y = spheres.y, z = spheres.z, r = spheres.r;
+    byte[] lastPlane = spheres.lastPlane;
+    int count = 0;
+
+    for (int i = start; i < end; i++) {
+      // start with the plane that rejected this sphere last time
+      int first = lastPlane[i];
+      int rejected = -1;
+      for (int k = 0; k < 6; k++) {
+        int p = (k == 0) ? first : (k == first ? 0 : k);
+        if (nx[p] * x[i] + ny[p] * y[i] + nz[p] * z[i] + d[p] < -r[i]) {
+          rejected = p;
+          break;
+        }
+      }
+
+      count += setVisible(visible, i, rejected < 0);
+      if (rejected >= 0)
+        lastPlane[i] = (byte) rejected;
+    }
+    return count;
+  }
+
+  private static int setVisible(long[] visible, int i, boolean value) {
+    if (value) {
+      visible[i >>> 6] |= 1L << i;
+      return 1;
+    }
+    visible[i >>> 6] &= ~(1L << i);
+    return 0;
+  }
+
+  /**
+   * Culls the range [start, end) of either a box or sphere array. Ranges are split on multiples of
+   * 64 so that no two tasks write to the same word of the visibility set.
+   */
+  @SuppressWarnings("serial")
+  private class CullTask extends RecursiveTask<Integer> {
+
+    final BoxArray    boxes;
+    final SphereArray spheres;
+    final long[]      visible;
+    final int         start;
+    final int         end;
+
+    CullTask(BoxArray boxes, SphereArray spheres, long[] visible, int start, int end) {
+      this.boxes = boxes;
+      this.spheres = spheres;
+      this.visible = visible;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected Integer compute() {
+      if (end - start > PARALLEL_THRESHOLD) {
+        int mid = ((start + end) >>> 1) & ~63;
+        CullTask left = new CullTask(boxes, spheres, visible, start, mid);
+        CullTask right = new CullTask(boxes, spheres, visible, mid, end);
+        left.fork();
+        return right.compute() + left.join();
+      }
+      if (boxes != null)
+        return cullBoxes(boxes, visible, start, end);
+      return cullSpheres(spheres, visible, start, end);
+    }
+  }
+}
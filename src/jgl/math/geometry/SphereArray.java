@@ -0,0 +1,53 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.math.geometry;
+
+/**
+ * Fixed-size array of spheres stored as one primitive array per component (struct-of-arrays), so
+ * bulk tests run over contiguous floats without touching sphere objects.
+ * 
+ * @author justin
+ */
+public class SphereArray {
+
+  public final float[] x;
+  public final float[] y;
+  public final float[] z;
+  public final float[] r;
+
+  /** Index of the frustum plane that last rejected each sphere; tested first next time. */
+  final byte[]         lastPlane;
+
+  public SphereArray(int size) {
+    x = new float[size];
+    y = new float[size];
+    z = new float[size];
+    r = new float[size];
+    lastPlane = new byte[size];
+  }
+
+  /**
+   * Number of spheres in the array.
+   */
+  public int size() {
+    return x.length;
+  }
+
+  /**
+   * Sets sphere i to center (x, y, z) and radius r.
+   */
+  public void set(int i, float x, float y, float z, float r) {
+    this.x[i] = x;
+    this.y[i] = y;
+    this.z[i] = z;
+    this.r[i] = r;
+  }
+
+  /**
+   * Sets sphere i to the center and radius of sphere.
+   */
+  public void set(int i, Sphere sphere) {
+    set(i, sphere.c.x(), sphere.c.y(), sphere.c.z(), sphere.r);
+  }
+}
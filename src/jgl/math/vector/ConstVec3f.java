@@ -113,6 +113,52 @@ public interface ConstVec3f extends Swizzle3<Vec2f, Vec3f> {
    */
   Vec3f negated();
 
+  /**
+   *  Component-wise addition. Stores the result in dest and returns dest.
+   */
+  Vec3f plus(ConstVec3f v, Vec3f dest);
+
+  /**
+   *  Component-wise subtraction. Stores the result in dest and returns dest.
+   */
+  Vec3f minus(ConstVec3f v, Vec3f dest);
+
+  /**
+   *  Component-wise multiplication. Stores the result in dest and returns dest.
+   */
+  Vec3f times(ConstVec3f v, Vec3f dest);
+
+  /**
+   *  Multiplies scalar with each component. Stores the result in dest and returns dest.
+   */
+  Vec3f times(float s, Vec3f dest);
+
+  /**
+   *  Component-wise division. Stores the result in dest and returns dest.
+   */
+  Vec3f over(ConstVec3f v, Vec3f dest);
+
+  /**
+   *  Divides each component by scalar. Stores the result in dest and returns dest.
+   */
+  Vec3f over(float s, Vec3f dest);
+
+  /**
+   *  The 3D cross product: (this) x (v). Stores the result in dest (which may be this vector or v)
+   * and returns dest.
+   */
+  Vec3f cross(ConstVec3f v, Vec3f dest);
+
+  /**
+   *  This vector with length 1. Stores the result in dest and returns dest.
+   */
+  Vec3f normalized(Vec3f dest);
+
+  /**
+   *  This vector with its components negated. Stores the result in dest and returns dest.
+   */
+  Vec3f negated(Vec3f dest);
+
   /**
    *  The length/magnitude of this vector.
    */
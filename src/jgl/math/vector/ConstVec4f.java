@@ -107,6 +107,46 @@ public interface ConstVec4f extends Swizzle4<Vec2f, Vec3f, Vec4f> {
    */
   Vec4f negated();
 
+  /**
+   *  Component-wise addition. Stores the result in dest and returns dest.
+   */
+  Vec4f plus(ConstVec4f v, Vec4f dest);
+
+  /**
+   *  Component-wise subtraction. Stores the result in dest and returns dest.
+   */
+  Vec4f minus(ConstVec4f v, Vec4f dest);
+
+  /**
+   *  Component-wise multiplication. Stores the result in dest and returns dest.
+   */
+  Vec4f times(ConstVec4f v, Vec4f dest);
+
+  /**
+   *  Multiplies scalar with each component. Stores the result in dest and returns dest.
+   */
+  Vec4f times(float s, Vec4f dest);
+
+  /**
+   *  Component-wise division. Stores the result in dest and returns dest.
+   */
+  Vec4f over(ConstVec4f v, Vec4f dest);
+
+  /**
+   *  Divides each component by scalar. Stores the result in dest and returns dest.
+   */
+  Vec4f over(float s, Vec4f dest);
+
+  /**
+   *  This vector with length 1. Stores the result in dest and returns dest.
+   */
+  Vec4f normalized(Vec4f dest);
+
+  /**
+   *  This vector with its components negated. Stores the result in dest and returns dest.
+   */
+  Vec4f negated(Vec4f dest);
+
   /**
    *  The length/magnitude of this vector.
    */
@@ -79,19 +79,50 @@ public class Mat4f {
     this.a[15] = w.w();
   }
 
+  /**
+   * Copies the values of m into this matrix. Returns this matrix.
+   */
+  public Mat4f set(Mat4f m) {
+    System.arraycopy(m.a, 0, a, 0, 16);
+    return this;
+  }
+
+  /**
+   * Sets this matrix to the identity matrix. Returns this matrix.
+   */
+  public Mat4f setIdentity() {
+    for (int i = 0; i < 16; i++)
+      a[i] = (i % 5 == 0) ? 1 : 0;
+    return this;
+  }
+
   /**
    * The column vector i in [0,3]. Returns a new vector.
    */
   public Vec4f col(int i) {
+    return col(i, new Vec4f());
+  }
+
+  /**
+   * The column vector i in [0,3]. Stores the result in dest and returns dest.
+   */
+  public Vec4f col(int i, Vec4f dest) {
     int j = i * 4;
-    return new Vec4f(a[j], a[j + 1], a[j + 2], a[j + 3]);
+    return dest.set(a[j], a[j + 1], a[j + 2], a[j + 3]);
   }
 
   /**
    * The row vector i in [0,3]. Returns a new vector.
    */
   public Vec4f row(int i) {
-    return new Vec4f(a[i], a[i + 4], a[i + 8], a[i + 12]);
+    return row(i, new Vec4f());
+  }
+
+  /**
+   * The row vector i in [0,3]. Stores the result in dest and returns dest.
+   */
+  public Vec4f row(int i, Vec4f dest) {
+    return dest.set(a[i], a[i + 4], a[i + 8], a[i + 12]);
   }
 
   /**
@@ -105,123 +136,315 @@ public class Mat4f {
    * Multiplication with (v.x, v.y, v.z, v.w). Returns a new vector.
    */
   public Vec4f times(ConstVec4f v) {
-    return times(v.x(), v.y(), v.z(), v.w());
+    return times(v.x(), v.y(), v.z(), v.w(), new Vec4f());
+  }
+
+  /**
+   * Multiplication with (v.x, v.y, v.z, v.w). Stores the result in dest (which may be v) and
+   * returns dest.
+   */
+  public Vec4f times(ConstVec4f v, Vec4f dest) {
+    return times(v.x(), v.y(), v.z(), v.w(), dest);
   }
   
   /**
    * Multiplication with (v.x, v.y, v.z, 0). Returns a new vector.
    */
   public Vec3f times(ConstVec3f v) {
-    float vx = v.x() * a[0] + v.y() * a[4] + v.z() * a[8];
-    float vy = v.x() * a[1] + v.y() * a[5] + v.z() * a[9];
-    float vz = v.x() * a[2] + v.y() * a[6] + v.z() * a[10];
-    return new Vec3f(vx, vy, vz);
+    return times(v, new Vec3f());
+  }
+
+  /**
+   * Multiplication with (v.x, v.y, v.z, 0). Stores the result in dest (which may be v) and returns
+   * dest.
+   */
+  public Vec3f times(ConstVec3f v, Vec3f dest) {
+    float x = v.x(), y = v.y(), z = v.z();
+    float vx = x * a[0] + y * a[4] + z * a[8];
+    float vy = x * a[1] + y * a[5] + z * a[9];
+    float vz = x * a[2] + y * a[6] + z * a[10];
+    return dest.set(vx, vy, vz);
+  }
+
+  /**
+   * Multiplication with (p.x, p.y, p.z, 1); the w component of the product is discarded. Stores the
+   * result in dest (which may be p) and returns dest.
+   */
+  public Vec3f transformPoint(ConstVec3f p, Vec3f dest) {
+    float x = p.x(), y = p.y(), z = p.z();
+    float vx = x * a[0] + y * a[4] + z * a[8] + a[12];
+    float vy = x * a[1] + y * a[5] + z * a[9] + a[13];
+    float vz = x * a[2] + y * a[6] + z * a[10] + a[14];
+    return dest.set(vx, vy, vz);
   }
 
   /**
    * Multiplication with (x, y, z, w). Returns a new vector.
    */
   public Vec4f times(float x, float y, float z, float w) {
+    return times(x, y, z, w, new Vec4f());
+  }
+
+  /**
+   * Multiplication with (x, y, z, w). Stores the result in dest and returns dest.
+   */
+  public Vec4f times(float x, float y, float z, float w, Vec4f dest) {
     float vx = x * a[0] + y * a[4] + z * a[8] + w * a[12];
     float vy = x * a[1] + y * a[5] + z * a[9] + w * a[13];
     float vz = x * a[2] + y * a[6] + z * a[10] + w * a[14];
     float vw = x * a[3] + y * a[7] + z * a[11] + w * a[15];
-    return new Vec4f(vx, vy, vz, vw);
+    return dest.set(vx, vy, vz, vw);
   }
 
   /**
    * Matrix multiplication: (this) * (m), in place. Returns this matrix.
    */
   public Mat4f multiply(Mat4f m) {
-    System.arraycopy(this.times(m).a, 0, this.a, 0, 16);
-    return this;
+    return mul(this, m, this);
   }
 
   /**
    * Matrix multiplication: (this) * (m). Returns a new matrix.
    */
   public Mat4f times(Mat4f m) {
-    Mat4f mat = new Mat4f();
-    for (int i = 0; i < 4; i++) {
-      for (int j = 0; j < 4; j++) {
-        float sum = 0;
-        for (int k = 0; k < 4; k++)
-          sum += a[i + 4 * k] * m.a[k + 4 * j];
-        mat.a[i + 4 * j] = sum;
-      }
+    return mul(this, m, new Mat4f());
+  }
+
+  /**
+   * Matrix multiplication: (this) * (m). Stores the result in dest and returns dest.
+   */
+  public Mat4f times(Mat4f m, Mat4f dest) {
+    return mul(this, m, dest);
+  }
+
+  /**
+   * Matrix multiplication: (a) * (b). Stores the result in dest, which may be the same object as a
+   * or b. Returns dest.
+   */
+  public static Mat4f mul(Mat4f a, Mat4f b, Mat4f dest) {
+    float[] m = a.a;
+    float m00 = m[0], m10 = m[1], m20 = m[2], m30 = m[3];
+    float m01 = m[4], m11 = m[5], m21 = m[6], m31 = m[7];
+    float m02 = m[8], m12 = m[9], m22 = m[10], m32 = m[11];
+    float m03 = m[12], m13 = m[13], m23 = m[14], m33 = m[15];
+
+    // each column of the product only depends on the same column of b
+    float[] n = b.a;
+    float[] d = dest.a;
+    for (int j = 0; j < 16; j += 4) {
+      float n0 = n[j], n1 = n[j + 1], n2 = n[j + 2], n3 = n[j + 3];
+      d[j] = m00 * n0 + m01 * n1 + m02 * n2 + m03 * n3;
+      d[j + 1] = m10 * n0 + m11 * n1 + m12 * n2 + m13 * n3;
+      d[j + 2] = m20 * n0 + m21 * n1 + m22 * n2 + m23 * n3;
+      d[j + 3] = m30 * n0 + m31 * n1 + m32 * n2 + m33 * n3;
     }
-    return mat;
+    return dest;
   }
 
   /**
    * Transposes this matrix, in place. Returns this matrix.
    */
   public Mat4f transpose() {
-    System.arraycopy(transposed().a, 0, this.a, 0, 16);
-    return this;
+    return transposed(this);
   }
 
   /**
    * Returns the transpose of this matrix. Returns a new matrix.
    */
   public Mat4f transposed() {
-    return new Mat4f(a[0], a[4], a[8], a[12], a[1], a[5], a[9], a[13], a[2], a[6], a[10], a[14],
-        a[3], a[7], a[11], a[15]);
+    return transposed(new Mat4f());
   }
 
   /**
-   * Computes the inverse of the matrix; returns null if none exists.
+   * Stores the transpose of this matrix in dest (which may be this matrix). Returns dest.
+   */
+  public Mat4f transposed(Mat4f dest) {
+    float[] d = dest.a;
+    for (int i = 0; i < 4; i++) {
+      d[i * 5] = a[i * 5];
+      for (int j = i + 1; j < 4; j++) {
+        float t = a[i + 4 * j];
+        d[i + 4 * j] = a[j + 4 * i];
+        d[j + 4 * i] = t;
+      }
+    }
+    return dest;
+  }
+
+  /**
+   * Post-multiplies this matrix by a translation matrix, in place. Returns this matrix.
+   */
+  public Mat4f translate(float x, float y, float z) {
+    a[12] += a[0] * x + a[4] * y + a[8] * z;
+    a[13] += a[1] * x + a[5] * y + a[9] * z;
+    a[14] += a[2] * x + a[6] * y + a[10] * z;
+    a[15] += a[3] * x + a[7] * y + a[11] * z;
+    return this;
+  }
+
+  /**
+   * Post-multiplies this matrix by a rotation around the x-axis, in place. Returns this matrix.
+   */
+  public Mat4f rotateX(double radians) {
+    return rotateColumns(4, 8, (float) Math.cos(radians), (float) Math.sin(radians));
+  }
+
+  /**
+   * Post-multiplies this matrix by a rotation around the y-axis, in place. Returns this matrix.
+   */
+  public Mat4f rotateY(double radians) {
+    return rotateColumns(8, 0, (float) Math.cos(radians), (float) Math.sin(radians));
+  }
+
+  /**
+   * Post-multiplies this matrix by a rotation around the z-axis, in place. Returns this matrix.
+   */
+  public Mat4f rotateZ(double radians) {
+    return rotateColumns(0, 4, (float) Math.cos(radians), (float) Math.sin(radians));
+  }
+
+  /**
+   * Replaces columns (u, v) starting at indices i and j with (c*u + s*v, c*v - s*u).
+   */
+  private Mat4f rotateColumns(int i, int j, float c, float s) {
+    for (int k = 0; k < 4; k++) {
+      float u = a[i + k];
+      float v = a[j + k];
+      a[i + k] = c * u + s * v;
+      a[j + k] = c * v - s * u;
+    }
+    return this;
+  }
+
+  /**
+   * Computes the inverse of a rigid-body transformation (a rotation followed by a translation, such
+   * as a view matrix) by transposing the rotation and rotating the negated translation. This is
+   * much cheaper than {@link #inverse(Mat4f)} but only valid if the upper 3x3 is orthonormal and the
+   * bottom row is (0, 0, 0, 1). Stores the result in dest (which may be this matrix) and returns
+   * dest.
+   */
+  public Mat4f rigidInverse(Mat4f dest) {
+    float r00 = a[0], r10 = a[1], r20 = a[2];
+    float r01 = a[4], r11 = a[5], r21 = a[6];
+    float r02 = a[8], r12 = a[9], r22 = a[10];
+    float tx = a[12], ty = a[13], tz = a[14];
+
+    float[] d = dest.a;
+    d[0] = r00;
+    d[1] = r01;
+    d[2] = r02;
+    d[3] = 0;
+    d[4] = r10;
+    d[5] = r11;
+    d[6] = r12;
+    d[7] = 0;
+    d[8] = r20;
+    d[9] = r21;
+    d[10] = r22;
+    d[11] = 0;
+    d[12] = -(r00 * tx + r10 * ty + r20 * tz);
+    d[13] = -(r01 * tx + r11 * ty + r21 * tz);
+    d[14] = -(r02 * tx + r12 * ty + r22 * tz);
+    d[15] = 1;
+    return dest;
+  }
+
+  /**
+   * True if the upper 3x3 of this matrix is orthonormal and the bottom row is (0, 0, 0, 1), each
+   * within epsilon; that is, if {@link #rigidInverse(Mat4f)} can be used in place of
+   * {@link #inverse(Mat4f)}.
+   */
+  public boolean isRigid(float epsilon) {
+    if (Math.abs(a[3]) > epsilon || Math.abs(a[7]) > epsilon || Math.abs(a[11]) > epsilon
+        || Math.abs(a[15] - 1) > epsilon)
+      return false;
+
+    for (int i = 0; i < 12; i += 4) {
+      for (int j = i; j < 12; j += 4) {
+        float dot = a[i] * a[j] + a[i + 1] * a[j + 1] + a[i + 2] * a[j + 2];
+        if (Math.abs(dot - (i == j ? 1 : 0)) > epsilon)
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Computes the inverse of the matrix; returns null if none exists. Returns a new matrix.
    */
   public Mat4f inverse() {
+    return inverse(new Mat4f());
+  }
+
+  /**
+   * Computes the inverse of the matrix and stores it in dest (which may be this matrix). Returns
+   * dest, or null (leaving dest unchanged) if no inverse exists.
+   */
+  public Mat4f inverse(Mat4f dest) {
     // adapted from MESA implementation of gluInvertMatrix
-    float[] inv = new float[16];
-    float det;
-    int i;
-
-    inv[0] = a[5] * a[10] * a[15] - a[5] * a[11] * a[14] - a[9] * a[6] * a[15] + a[9] * a[7]
-        * a[14] + a[13] * a[6] * a[11] - a[13] * a[7] * a[10];
-    inv[4] = -a[4] * a[10] * a[15] + a[4] * a[11] * a[14] + a[8] * a[6] * a[15] - a[8] * a[7]
-        * a[14] - a[12] * a[6] * a[11] + a[12] * a[7] * a[10];
-    inv[8] = a[4] * a[9] * a[15] - a[4] * a[11] * a[13] - a[8] * a[5] * a[15] + a[8] * a[7] * a[13]
-        + a[12] * a[5] * a[11] - a[12] * a[7] * a[9];
-    inv[12] = -a[4] * a[9] * a[14] + a[4] * a[10] * a[13] + a[8] * a[5] * a[14] - a[8] * a[6]
-        * a[13] - a[12] * a[5] * a[10] + a[12] * a[6] * a[9];
-    inv[1] = -a[1] * a[10] * a[15] + a[1] * a[11] * a[14] + a[9] * a[2] * a[15] - a[9] * a[3]
-        * a[14] - a[13] * a[2] * a[11] + a[13] * a[3] * a[10];
-    inv[5] = a[0] * a[10] * a[15] - a[0] * a[11] * a[14] - a[8] * a[2] * a[15] + a[8] * a[3]
-        * a[14] + a[12] * a[2] * a[11] - a[12] * a[3] * a[10];
-    inv[9] = -a[0] * a[9] * a[15] + a[0] * a[11] * a[13] + a[8] * a[1] * a[15] - a[8] * a[3]
-        * a[13] - a[12] * a[1] * a[11] + a[12] * a[3] * a[9];
-    inv[13] = a[0] * a[9] * a[14] - a[0] * a[10] * a[13] - a[8] * a[1] * a[14] + a[8] * a[2]
-        * a[13] + a[12] * a[1] * a[10] - a[12] * a[2] * a[9];
-    inv[2] = a[1] * a[6] * a[15] - a[1] * a[7] * a[14] - a[5] * a[2] * a[15] + a[5] * a[3] * a[14]
-        + a[13] * a[2] * a[7] - a[13] * a[3] * a[6];
-    inv[6] = -a[0] * a[6] * a[15] + a[0] * a[7] * a[14] + a[4] * a[2] * a[15] - a[4] * a[3] * a[14]
-        - a[12] * a[2] * a[7] + a[12] * a[3] * a[6];
-    inv[10] = a[0] * a[5] * a[15] - a[0] * a[7] * a[13] - a[4] * a[1] * a[15] + a[4] * a[3] * a[13]
-        + a[12] * a[1] * a[7] - a[12] * a[3] * a[5];
-    inv[14] = -a[0] * a[5] * a[14] + a[0] * a[6] * a[13] + a[4] * a[1] * a[14] - a[4] * a[2]
-        * a[13] - a[12] * a[1] * a[6] + a[12] * a[2] * a[5];
-    inv[3] = -a[1] * a[6] * a[11] + a[1] * a[7] * a[10] + a[5] * a[2] * a[11] - a[5] * a[3] * a[10]
-        - a[9] * a[2] * a[7] + a[9] * a[3] * a[6];
-    inv[7] = a[0] * a[6] * a[11] - a[0] * a[7] * a[10] - a[4] * a[2] * a[11] + a[4] * a[3] * a[10]
-        + a[8] * a[2] * a[7] - a[8] * a[3] * a[6];
-    inv[11] = -a[0] * a[5] * a[11] + a[0] * a[7] * a[9] + a[4] * a[1] * a[11] - a[4] * a[3] * a[9]
-        - a[8] * a[1] * a[7] + a[8] * a[3] * a[5];
-    inv[15] = a[0] * a[5] * a[10] - a[0] * a[6] * a[9] - a[4] * a[1] * a[10] + a[4] * a[2] * a[9]
-        + a[8] * a[1] * a[6] - a[8] * a[2] * a[5];
-
-    det = a[0] * inv[0] + a[1] * inv[4] + a[2] * inv[8] + a[3] * inv[12];
+    float m0 = a[0], m1 = a[1], m2 = a[2], m3 = a[3];
+    float m4 = a[4], m5 = a[5], m6 = a[6], m7 = a[7];
+    float m8 = a[8], m9 = a[9], m10 = a[10], m11 = a[11];
+    float m12 = a[12], m13 = a[13], m14 = a[14], m15 = a[15];
+
+    float i0 = m5 * m10 * m15 - m5 * m11 * m14 - m9 * m6 * m15 + m9 * m7 * m14 + m13 * m6 * m11
+        - m13 * m7 * m10;
+    float i4 = -m4 * m10 * m15 + m4 * m11 * m14 + m8 * m6 * m15 - m8 * m7 * m14 - m12 * m6 * m11
+        + m12 * m7 * m10;
+    float i8 = m4 * m9 * m15 - m4 * m11 * m13 - m8 * m5 * m15 + m8 * m7 * m13 + m12 * m5 * m11
+        - m12 * m7 * m9;
+    float i12 = -m4 * m9 * m14 + m4 * m10 * m13 + m8 * m5 * m14 - m8 * m6 * m13 - m12 * m5 * m10
+        + m12 * m6 * m9;
+    float i1 = -m1 * m10 * m15 + m1 * m11 * m14 + m9 * m2 * m15 - m9 * m3 * m14 - m13 * m2 * m11
+        + m13 * m3 * m10;
+    float i5 = m0 * m10 * m15 - m0 * m11 * m14 - m8 * m2 * m15 + m8 * m3 * m14 + m12 * m2 * m11
+        - m12 * m3 * m10;
+    float i9 = -m0 * m9 * m15 + m0 * m11 * m13 + m8 * m1 * m15 - m8 * m3 * m13 - m12 * m1 * m11
+        + m12 * m3 * m9;
+    float i13 = m0 * m9 * m14 - m0 * m10 * m13 - m8 * m1 * m14 + m8 * m2 * m13 + m12 * m1 * m10
+        - m12 * m2 * m9;
+    float i2 = m1 * m6 * m15 - m1 * m7 * m14 - m5 * m2 * m15 + m5 * m3 * m14 + m13 * m2 * m7
+        - m13 * m3 * m6;
+    float i6 = -m0 * m6 * m15 + m0 * m7 * m14 + m4 * m2 * m15 - m4 * m3 * m14 - m12 * m2 * m7
+        + m12 * m3 * m6;
+    float i10 = m0 * m5 * m15 - m0 * m7 * m13 - m4 * m1 * m15 + m4 * m3 * m13 + m12 * m1 * m7
+        - m12 * m3 * m5;
+    float i14 = -m0 * m5 * m14 + m0 * m6 * m13 + m4 * m1 * m14 - m4 * m2 * m13 - m12 * m1 * m6
+        + m12 * m2 * m5;
+    float i3 = -m1 * m6 * m11 + m1 * m7 * m10 + m5 * m2 * m11 - m5 * m3 * m10 - m9 * m2 * m7
+        + m9 * m3 * m6;
+    float i7 = m0 * m6 * m11 - m0 * m7 * m10 - m4 * m2 * m11 + m4 * m3 * m10 + m8 * m2 * m7
+        - m8 * m3 * m6;
+    float i11 = -m0 * m5 * m11 + m0 * m7 * m9 + m4 * m1 * m11 - m4 * m3 * m9 - m8 * m1 * m7
+        + m8 * m3 * m5;
+    float i15 = m0 * m5 * m10 - m0 * m6 * m9 - m4 * m1 * m10 + m4 * m2 * m9 + m8 * m1 * m6
+        - m8 * m2 * m5;
+
+    float det = m0 * i0 + m1 * i4 + m2 * i8 + m3 * i12;
 
     if (det == 0)
       return null;
 
     det = 1.0f / det;
 
-    for (i = 0; i < 16; i++)
-      inv[i] *= det;
-
-    return new Mat4f(inv);
+    float[] d = dest.a;
+    d[0] = i0 * det;
+    d[1] = i1 * det;
+    d[2] = i2 * det;
+    d[3] = i3 * det;
+    d[4] = i4 * det;
+    d[5] = i5 * det;
+    d[6] = i6 * det;
+    d[7] = i7 * det;
+    d[8] = i8 * det;
+    d[9] = i9 * det;
+    d[10] = i10 * det;
+    d[11] = i11 * det;
+    d[12] = i12 * det;
+    d[13] = i13 * det;
+    d[14] = i14 * det;
+    d[15] = i15 * det;
+    return dest;
   }
 
   @Override
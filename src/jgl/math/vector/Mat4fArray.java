@@ -0,0 +1,199 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.math.vector;
+
+import java.nio.FloatBuffer;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Fixed-size array of 4x4 float matrices stored off-heap in a single direct buffer. Each matrix
+ * occupies 16 consecutive floats in column-major order (the same layout as {@link Mat4f#a}), so the
+ * buffer can be uploaded as per-instance transforms or a uniform array without copying.
+ *
+ * @author justin
+ */
+public class Mat4fArray {
+
+  private final FloatBuffer buf;
+  private final int         size;
+
+  /**
+   * Creates an array of size matrices with all elements set to 0.
+   */
+  public Mat4fArray(int size) {
+    this.size = size;
+    this.buf = Buffers.newDirectFloatBuffer(size * 16);
+  }
+
+  /**
+   * Number of matrices in the array.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The backing direct buffer (16 floats per matrix). Its position is not used by this class.
+   */
+  public FloatBuffer buffer() {
+    return buf;
+  }
+
+  /**
+   * The value at [row][col] of matrix i.
+   */
+  public float value(int i, int row, int col) {
+    return buf.get(i * 16 + col * 4 + row);
+  }
+
+  /**
+   * Copies m into matrix i. Returns this array.
+   */
+  public Mat4fArray set(int i, Mat4f m) {
+    int j = i * 16;
+    for (int k = 0; k < 16; k++)
+      buf.put(j + k, m.a[k]);
+    return this;
+  }
+
+  /**
+   * Sets every matrix to the identity matrix. Returns this array.
+   */
+  public Mat4fArray setIdentity() {
+    for (int j = 0, n = size * 16; j < n; j++)
+      buf.put(j, ((j & 15) % 5 == 0) ? 1 : 0);
+    return this;
+  }
+
+  /**
+   * Copies matrix i into dest. Returns dest.
+   */
+  public Mat4f get(int i, Mat4f dest) {
+    int j = i * 16;
+    for (int k = 0; k < 16; k++)
+      dest.a[k] = buf.get(j + k);
+    return dest;
+  }
+
+  /**
+   * Creates a view of matrix i. The view can be moved to other indices with {@link Element#at}.
+   */
+  public Element element(int i) {
+    return new Element().at(i);
+  }
+
+  /**
+   * Replaces every matrix e with (m) * (e). Returns this array.
+   */
+  public Mat4fArray preMultiply(Mat4f m) {
+    float[] a = m.a;
+    float m00 = a[0], m10 = a[1], m20 = a[2], m30 = a[3];
+    float m01 = a[4], m11 = a[5], m21 = a[6], m31 = a[7];
+    float m02 = a[8], m12 = a[9], m22 = a[10], m32 = a[11];
+    float m03 = a[12], m13 = a[13], m23 = a[14], m33 = a[15];
+
+    // each column of the product only depends on the same column of e
+    for (int j = 0, n = size * 16; j < n; j += 4) {
+      float n0 = buf.get(j), n1 = buf.get(j + 1), n2 = buf.get(j + 2), n3 = buf.get(j + 3);
+      buf.put(j, m00 * n0 + m01 * n1 + m02 * n2 + m03 * n3);
+      buf.put(j + 1, m10 * n0 + m11 * n1 + m12 * n2 + m13 * n3);
+      buf.put(j + 2, m20 * n0 + m21 * n1 + m22 * n2 + m23 * n3);
+      buf.put(j + 3, m30 * n0 + m31 * n1 + m32 * n2 + m33 * n3);
+    }
+    return this;
+  }
+
+  /**
+   * Replaces every matrix e with (e) * (m). Returns this array.
+   */
+  public Mat4fArray postMultiply(Mat4f m) {
+    float[] b = m.a;
+    for (int j = 0, n = size * 16; j < n; j += 16) {
+      // each row of the product only depends on the same row of e
+      for (int r = 0; r < 4; r++) {
+        float e0 = buf.get(j + r), e1 = buf.get(j + r + 4);
+        float e2 = buf.get(j + r + 8), e3 = buf.get(j + r + 12);
+        for (int c = 0; c < 16; c += 4)
+          buf.put(j + r + c, e0 * b[c] + e1 * b[c + 1] + e2 * b[c + 2] + e3 * b[c + 3]);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Multiplies the points in src as (x, y, z, 1) by matrix i and stores them in dest (which may be
+   * src); the w component of each product is discarded. Returns dest.
+   */
+  public Vec3fArray transformPoints(int i, Vec3fArray src, Vec3fArray dest) {
+    int j = i * 16;
+    float m00 = buf.get(j), m10 = buf.get(j + 1), m20 = buf.get(j + 2);
+    float m01 = buf.get(j + 4), m11 = buf.get(j + 5), m21 = buf.get(j + 6);
+    float m02 = buf.get(j + 8), m12 = buf.get(j + 9), m22 = buf.get(j + 10);
+    float m03 = buf.get(j + 12), m13 = buf.get(j + 13), m23 = buf.get(j + 14);
+    for (int k = 0, n = Math.min(src.size(), dest.size()); k < n; k++) {
+      float x = src.x(k), y = src.y(k), z = src.z(k);
+      dest.set(k, m00 * x + m01 * y + m02 * z + m03, m10 * x + m11 * y + m12 * z + m13, m20 * x
+          + m21 * y + m22 * z + m23);
+    }
+    return dest;
+  }
+
+  /**
+   * Flyweight view of one matrix in the array. A single view can be moved across the whole array,
+   * so iterating does not create an object per element.
+   */
+  public class Element {
+
+    private int j;
+
+    /**
+     * Moves this view to matrix i. Returns this view.
+     */
+    public Element at(int i) {
+      j = i * 16;
+      return this;
+    }
+
+    /**
+     * The index of the matrix this view refers to.
+     */
+    public int index() {
+      return j / 16;
+    }
+
+    /**
+     * The value at [row][col].
+     */
+    public float value(int row, int col) {
+      return buf.get(j + col * 4 + row);
+    }
+
+    /**
+     * Sets the value at [row][col]. Returns this view.
+     */
+    public Element value(int row, int col, float value) {
+      buf.put(j + col * 4 + row, value);
+      return this;
+    }
+
+    /**
+     * Copies m into the viewed matrix. Returns this view.
+     */
+    public Element set(Mat4f m) {
+      for (int k = 0; k < 16; k++)
+        buf.put(j + k, m.a[k]);
+      return this;
+    }
+
+    /**
+     * Copies the viewed matrix into dest. Returns dest.
+     */
+    public Mat4f get(Mat4f dest) {
+      for (int k = 0; k < 16; k++)
+        dest.a[k] = buf.get(j + k);
+      return dest;
+    }
+  }
+}
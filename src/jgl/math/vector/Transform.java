@@ -29,7 +29,18 @@ public final class Transform {
    * A translation matrix
    */
   public static Mat4f translation(float x, float y, float z) {
-    return new Mat4f(new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, x, y, z, 1 });
+    return translation(x, y, z, new Mat4f());
+  }
+
+  /**
+   * A translation matrix. Stores the result in dest and returns dest.
+   */
+  public static Mat4f translation(float x, float y, float z, Mat4f dest) {
+    dest.setIdentity();
+    dest.a[12] = x;
+    dest.a[13] = y;
+    dest.a[14] = z;
+    return dest;
   }
 
   /**
@@ -43,7 +54,18 @@ public final class Transform {
    * A scale matrix.
    */
   public static Mat4f scale(float x, float y, float z) {
-    return new Mat4f(new float[] { x, 0, 0, 0, 0, y, 0, 0, 0, 0, z, 0, 0, 0, 0, 1 });
+    return scale(x, y, z, new Mat4f());
+  }
+
+  /**
+   * A scale matrix. Stores the result in dest and returns dest.
+   */
+  public static Mat4f scale(float x, float y, float z, Mat4f dest) {
+    dest.setIdentity();
+    dest.a[0] = x;
+    dest.a[5] = y;
+    dest.a[10] = z;
+    return dest;
   }
 
   /**
@@ -57,40 +79,84 @@ public final class Transform {
    * A rotation matrix around the x-axis
    */
   public static Mat4f rotationX(double radians) {
+    return rotationX(radians, new Mat4f());
+  }
+
+  /**
+   * A rotation matrix around the x-axis. Stores the result in dest and returns dest.
+   */
+  public static Mat4f rotationX(double radians, Mat4f dest) {
     float c = (float) Math.cos(radians);
     float s = (float) Math.sin(radians);
-    return new Mat4f(new float[] { 1, 0, 0, 0, 0, c, s, 0, 0, -s, c, 0, 0, 0, 0, 1 });
+    dest.setIdentity();
+    dest.a[5] = c;
+    dest.a[6] = s;
+    dest.a[9] = -s;
+    dest.a[10] = c;
+    return dest;
   }
 
   /**
    * A rotation matrix around the y-axis
    */
   public static Mat4f rotationY(double radians) {
+    return rotationY(radians, new Mat4f());
+  }
+
+  /**
+   * A rotation matrix around the y-axis. Stores the result in dest and returns dest.
+   */
+  public static Mat4f rotationY(double radians, Mat4f dest) {
     float c = (float) Math.cos(radians);
     float s = (float) Math.sin(radians);
-    return new Mat4f(new float[] { c, 0, -s, 0, 0, 1, 0, 0, s, 0, c, 0, 0, 0, 0, 1 });
+    dest.setIdentity();
+    dest.a[0] = c;
+    dest.a[2] = -s;
+    dest.a[8] = s;
+    dest.a[10] = c;
+    return dest;
   }
 
   /**
    * A rotation matrix around the z-axis
    */
   public static Mat4f rotationZ(double radians) {
+    return rotationZ(radians, new Mat4f());
+  }
+
+  /**
+   * A rotation matrix around the z-axis. Stores the result in dest and returns dest.
+   */
+  public static Mat4f rotationZ(double radians, Mat4f dest) {
     float c = (float) Math.cos(radians);
     float s = (float) Math.sin(radians);
-    return new Mat4f(new float[] { c, s, 0, 0, -s, c, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 });
+    dest.setIdentity();
+    dest.a[0] = c;
+    dest.a[1] = s;
+    dest.a[4] = -s;
+    dest.a[5] = c;
+    return dest;
   }
 
   /**
    * A rotation matrix around the u-axis = {x,y,z} with length 1.
    */
   public static Mat4f rotation(float x, float y, float z, double radians) {
+    return rotation(x, y, z, radians, new Mat4f());
+  }
+
+  /**
+   * A rotation matrix around the u-axis = {x,y,z} with length 1. Stores the result in dest and
+   * returns dest.
+   */
+  public static Mat4f rotation(float x, float y, float z, double radians, Mat4f dest) {
     // http://en.wikipedia.org/wiki/Rotation_matrix#Rotation_matrix_from_axis_and_angle
 
     float c = (float) Math.cos(radians);
     float s = (float) Math.sin(radians);
     float ic = 1 - c;
 
-    float[] a = new float[16];
+    float[] a = dest.a;
     // column 1
     a[0] = x * x * ic + c;
     a[1] = x * y * ic + z * s;
@@ -112,7 +178,7 @@ public final class Transform {
     a[14] = 0;
     a[15] = 1;
 
-    return new Mat4f(a);
+    return dest;
   }
 
   /**
@@ -122,6 +188,13 @@ public final class Transform {
     return rotation(u.x(), u.y(), u.z(), radians);
   }
 
+  /**
+   * A rotation matrix around the u-axis with length 1. Stores the result in dest and returns dest.
+   */
+  public static Mat4f rotation(ConstVec3f u, double radians, Mat4f dest) {
+    return rotation(u.x(), u.y(), u.z(), radians, dest);
+  }
+
   /**
    * A rotation matrix using yaw, pitch, and roll (in radians).
    */
@@ -190,14 +263,61 @@ public final class Transform {
    */
   public static Mat4f lookAt(float eyeX, float eyeY, float eyeZ, float centerX, float centerY,
       float centerZ, float upX, float upY, float upZ) {
-    Vec3f f = new Vec3f(centerX - eyeX, centerY - eyeY, centerZ - eyeZ).normalize();
-    Vec3f up = new Vec3f(upX, upY, upZ).normalize();
-    Vec3f s = f.cross(up).normalize();
-    Vec3f u = s.cross(f).normalize();
-    Mat4f m1 = new Mat4f(new float[] { s.x, u.x, -f.x, 0, s.y, u.y, -f.y, 0, s.z, u.z, -f.z, 0, 0,
-        0, 0, 1 });
-    Mat4f m2 = translation(-eyeX, -eyeY, -eyeZ);
-    return m1.times(m2);
+    return lookAt(eyeX, eyeY, eyeZ, centerX, centerY, centerZ, upX, upY, upZ, new Mat4f());
+  }
+
+  /**
+   * A view matrix defined by an eye and target position (same as gluLookAt). Stores the result in
+   * dest and returns dest.
+   */
+  public static Mat4f lookAt(float eyeX, float eyeY, float eyeZ, float centerX, float centerY,
+      float centerZ, float upX, float upY, float upZ, Mat4f dest) {
+    // f = normalize(center - eye)
+    float fx = centerX - eyeX, fy = centerY - eyeY, fz = centerZ - eyeZ;
+    float len = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+    fx /= len;
+    fy /= len;
+    fz /= len;
+
+    // up = normalize(up)
+    len = (float) Math.sqrt(upX * upX + upY * upY + upZ * upZ);
+    upX /= len;
+    upY /= len;
+    upZ /= len;
+
+    // s = normalize(f x up)
+    float sx = fy * upZ - fz * upY, sy = fz * upX - fx * upZ, sz = fx * upY - fy * upX;
+    len = (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+    sx /= len;
+    sy /= len;
+    sz /= len;
+
+    // u = normalize(s x f)
+    float ux = sy * fz - sz * fy, uy = sz * fx - sx * fz, uz = sx * fy - sy * fx;
+    len = (float) Math.sqrt(ux * ux + uy * uy + uz * uz);
+    ux /= len;
+    uy /= len;
+    uz /= len;
+
+    // rotation rows (s, u, -f) followed by a translation of -eye
+    float[] a = dest.a;
+    a[0] = sx;
+    a[1] = ux;
+    a[2] = -fx;
+    a[3] = 0;
+    a[4] = sy;
+    a[5] = uy;
+    a[6] = -fy;
+    a[7] = 0;
+    a[8] = sz;
+    a[9] = uz;
+    a[10] = -fz;
+    a[11] = 0;
+    a[12] = -(sx * eyeX + sy * eyeY + sz * eyeZ);
+    a[13] = -(ux * eyeX + uy * eyeY + uz * eyeZ);
+    a[14] = fx * eyeX + fy * eyeY + fz * eyeZ;
+    a[15] = 1;
+    return dest;
   }
 
   /**
@@ -212,9 +332,9 @@ public final class Transform {
    * Transforms a point in world coordinates to a pixel in window coordinates.
    */
   public static Point worldToWindow(Camera camera, Viewport viewport, Vec3f worldCoords) {
-    Vec4f clip = camera.getProjection().times(camera.getView().times(new Vec4f(worldCoords, 1)));
-    Vec2f ndc = clip.over(clip.w).xy();
-    return viewport.ndcToWindow(ndc);
+    Vec4f clip = camera.getViewProjection().times(worldCoords.x, worldCoords.y, worldCoords.z, 1,
+        new Vec4f());
+    return viewport.ndcToWindow(new Vec2f(clip.x / clip.w, clip.y / clip.w));
   }
 
   /**
@@ -222,10 +342,11 @@ public final class Transform {
    */
   public static Ray windowToWorld(Camera camera, Viewport viewport, Point windowCoords) {
     Vec2f ndc = viewport.windowToNDC(windowCoords);
-    Vec4f n = camera.getViewInverse().times(camera.getProjectionInverse().times(new Vec4f(ndc.x, ndc.y, -1, 1)));
+    Mat4f viewProjectionInverse = camera.getViewProjectionInverse();
+    Vec4f n = viewProjectionInverse.times(ndc.x, ndc.y, -1, 1, new Vec4f());
     n.divide(n.w);
-    Vec4f f = camera.getViewInverse().times(camera.getProjectionInverse().times(new Vec4f(ndc.x, ndc.y, 1, 1)));
+    Vec4f f = viewProjectionInverse.times(ndc.x, ndc.y, 1, 1, new Vec4f());
     f.divide(f.w);
-    return new Ray(n.xyz(), f.minus(n).xyz().normalized());
+    return new Ray(n.xyz(), f.subtract(n).xyz());
   }
 }
@@ -319,6 +319,51 @@ public class Vec3f implements ConstVec3f {
     return copy().negate();
   }
 
+  @Override
+  public Vec3f plus(ConstVec3f v, Vec3f dest) {
+    return dest.set(x + v.x(), y + v.y(), z + v.z());
+  }
+
+  @Override
+  public Vec3f minus(ConstVec3f v, Vec3f dest) {
+    return dest.set(x - v.x(), y - v.y(), z - v.z());
+  }
+
+  @Override
+  public Vec3f times(ConstVec3f v, Vec3f dest) {
+    return dest.set(x * v.x(), y * v.y(), z * v.z());
+  }
+
+  @Override
+  public Vec3f times(float s, Vec3f dest) {
+    return dest.set(x * s, y * s, z * s);
+  }
+
+  @Override
+  public Vec3f over(ConstVec3f v, Vec3f dest) {
+    return dest.set(x / v.x(), y / v.y(), z / v.z());
+  }
+
+  @Override
+  public Vec3f over(float s, Vec3f dest) {
+    return dest.set(x / s, y / s, z / s);
+  }
+
+  @Override
+  public Vec3f cross(ConstVec3f v, Vec3f dest) {
+    return cross(this, v, dest);
+  }
+
+  @Override
+  public Vec3f normalized(Vec3f dest) {
+    return over(length(), dest);
+  }
+
+  @Override
+  public Vec3f negated(Vec3f dest) {
+    return dest.set(-x, -y, -z);
+  }
+
   @Override
   public float length() {
     return (float) Math.sqrt(lengthSquared());
@@ -351,6 +396,16 @@ public class Vec3f implements ConstVec3f {
     buf.put(z);
   }
   
+  /**
+   * The 3D cross product: (a) x (b). Stores the result in dest (which may be a or b) and returns
+   * dest.
+   */
+  public static Vec3f cross(ConstVec3f a, ConstVec3f b, Vec3f dest) {
+    float ax = a.x(), ay = a.y(), az = a.z();
+    float bx = b.x(), by = b.y(), bz = b.z();
+    return dest.set(ay * bz - az * by, az * bx - ax * bz, ax * by - ay * bx);
+  }
+
   /**
    * Creates a unit vector along the x axis (1, 0, 0).
    */
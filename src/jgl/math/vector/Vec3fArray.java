@@ -0,0 +1,261 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.math.vector;
+
+import java.nio.FloatBuffer;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Fixed-size array of 3D float vectors stored off-heap in a single direct buffer. Components are
+ * packed as (x, y, z) triples so the buffer can be handed to OpenGL as a vertex attribute array
+ * without copying. Elements are not objects; they are read and written by index or through a
+ * reusable {@link Element} view.
+ *
+ * @author justin
+ */
+public class Vec3fArray {
+
+  private final FloatBuffer buf;
+  private final int         size;
+
+  /**
+   * Creates an array of size vectors with all components set to 0.
+   */
+  public Vec3fArray(int size) {
+    this.size = size;
+    this.buf = Buffers.newDirectFloatBuffer(size * 3);
+  }
+
+  /**
+   * Number of vectors in the array.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The backing direct buffer (3 floats per vector). Its position is not used by this class.
+   */
+  public FloatBuffer buffer() {
+    return buf;
+  }
+
+  public float x(int i) {
+    return buf.get(i * 3);
+  }
+
+  public float y(int i) {
+    return buf.get(i * 3 + 1);
+  }
+
+  public float z(int i) {
+    return buf.get(i * 3 + 2);
+  }
+
+  /**
+   * Sets vector i to (x, y, z). Returns this array.
+   */
+  public Vec3fArray set(int i, float x, float y, float z) {
+    int j = i * 3;
+    buf.put(j, x);
+    buf.put(j + 1, y);
+    buf.put(j + 2, z);
+    return this;
+  }
+
+  /**
+   * Sets vector i to (v.x, v.y, v.z). Returns this array.
+   */
+  public Vec3fArray set(int i, ConstVec3f v) {
+    return set(i, v.x(), v.y(), v.z());
+  }
+
+  /**
+   * Copies vector i into dest. Returns dest.
+   */
+  public Vec3f get(int i, Vec3f dest) {
+    int j = i * 3;
+    return dest.set(buf.get(j), buf.get(j + 1), buf.get(j + 2));
+  }
+
+  /**
+   * Creates a view of vector i. The view can be moved to other indices with {@link Element#at}.
+   */
+  public Element element(int i) {
+    return new Element().at(i);
+  }
+
+  /**
+   * Component-wise addition of v to every vector, in place. Returns this array.
+   */
+  public Vec3fArray add(ConstVec3f v) {
+    float x = v.x(), y = v.y(), z = v.z();
+    for (int j = 0, n = size * 3; j < n; j += 3) {
+      buf.put(j, buf.get(j) + x);
+      buf.put(j + 1, buf.get(j + 1) + y);
+      buf.put(j + 2, buf.get(j + 2) + z);
+    }
+    return this;
+  }
+
+  /**
+   * Component-wise addition of the vectors in a (which must have the same size), in place. Returns
+   * this array.
+   */
+  public Vec3fArray add(Vec3fArray a) {
+    checkSize(a);
+    FloatBuffer src = a.buf;
+    for (int j = 0, n = size * 3; j < n; j++)
+      buf.put(j, buf.get(j) + src.get(j));
+    return this;
+  }
+
+  /**
+   * Multiplies every component by s, in place. Returns this array.
+   */
+  public Vec3fArray scale(float s) {
+    for (int j = 0, n = size * 3; j < n; j++)
+      buf.put(j, buf.get(j) * s);
+    return this;
+  }
+
+  /**
+   * Scales every vector to length 1, in place. Zero-length vectors are left unchanged. Returns this
+   * array.
+   */
+  public Vec3fArray normalize() {
+    for (int j = 0, n = size * 3; j < n; j += 3) {
+      float x = buf.get(j), y = buf.get(j + 1), z = buf.get(j + 2);
+      float lengthSquared = x * x + y * y + z * z;
+      if (lengthSquared > 0) {
+        float s = 1.0f / (float) Math.sqrt(lengthSquared);
+        buf.put(j, x * s);
+        buf.put(j + 1, y * s);
+        buf.put(j + 2, z * s);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Dot product of each vector in this array with the vector at the same index in a. The results
+   * are stored in dest (length at least size) and dest is returned.
+   */
+  public float[] dot(Vec3fArray a, float[] dest) {
+    checkSize(a);
+    FloatBuffer src = a.buf;
+    for (int i = 0, j = 0; i < size; i++, j += 3)
+      dest[i] = buf.get(j) * src.get(j) + buf.get(j + 1) * src.get(j + 1) + buf.get(j + 2)
+          * src.get(j + 2);
+    return dest;
+  }
+
+  /**
+   * Cross product (this[i]) x (a[i]) for every index. The results are stored in dest, which may be
+   * this array or a. Returns dest.
+   */
+  public Vec3fArray cross(Vec3fArray a, Vec3fArray dest) {
+    checkSize(a);
+    checkSize(dest);
+    FloatBuffer src = a.buf;
+    FloatBuffer dst = dest.buf;
+    for (int j = 0, n = size * 3; j < n; j += 3) {
+      float ax = buf.get(j), ay = buf.get(j + 1), az = buf.get(j + 2);
+      float bx = src.get(j), by = src.get(j + 1), bz = src.get(j + 2);
+      dst.put(j, ay * bz - az * by);
+      dst.put(j + 1, az * bx - ax * bz);
+      dst.put(j + 2, ax * by - ay * bx);
+    }
+    return dest;
+  }
+
+  /**
+   * Multiplies every vector as a point (x, y, z, 1) by m, in place; the w component of the product
+   * is discarded. Returns this array.
+   */
+  public Vec3fArray transformPoints(Mat4f m) {
+    return transform(m, 1);
+  }
+
+  /**
+   * Multiplies every vector as a direction (x, y, z, 0) by m, in place. Returns this array.
+   */
+  public Vec3fArray transformDirections(Mat4f m) {
+    return transform(m, 0);
+  }
+
+  private Vec3fArray transform(Mat4f m, float w) {
+    float[] a = m.a;
+    float m00 = a[0], m10 = a[1], m20 = a[2];
+    float m01 = a[4], m11 = a[5], m21 = a[6];
+    float m02 = a[8], m12 = a[9], m22 = a[10];
+    float m03 = a[12] * w, m13 = a[13] * w, m23 = a[14] * w;
+    for (int j = 0, n = size * 3; j < n; j += 3) {
+      float x = buf.get(j), y = buf.get(j + 1), z = buf.get(j + 2);
+      buf.put(j, m00 * x + m01 * y + m02 * z + m03);
+      buf.put(j + 1, m10 * x + m11 * y + m12 * z + m13);
+      buf.put(j + 2, m20 * x + m21 * y + m22 * z + m23);
+    }
+    return this;
+  }
+
+  private void checkSize(Vec3fArray a) {
+    if (a.size != size)
+      throw new IllegalArgumentException("Array sizes differ: " + size + " and " + a.size);
+  }
+
+  /**
+   * Flyweight view of one vector in the array. A single view can be moved across the whole array,
+   * so iterating does not create an object per element.
+   */
+  public class Element {
+
+    private int j;
+
+    /**
+     * Moves this view to vector i. Returns this view.
+     */
+    public Element at(int i) {
+      j = i * 3;
+      return this;
+    }
+
+    /**
+     * The index of the vector this view refers to.
+     */
+    public int index() {
+      return j / 3;
+    }
+
+    public float x() {
+      return buf.get(j);
+    }
+
+    public float y() {
+      return buf.get(j + 1);
+    }
+
+    public float z() {
+      return buf.get(j + 2);
+    }
+
+    /**
+     * Sets the viewed vector to (x, y, z). Returns this view.
+     */
+    public Element set(float x, float y, float z) {
+      buf.put(j, x);
+      buf.put(j + 1, y);
+      buf.put(j + 2, z);
+      return this;
+    }
+
+    /**
+     * Copies the viewed vector into dest. Returns dest.
+     */
+    public Vec3f get(Vec3f dest) {
+      return dest.set(buf.get(j), buf.get(j + 1), buf.get(j + 2));
+    }
+  }
+}
@@ -313,6 +313,46 @@ public class Vec4f implements ConstVec4f {
     return copy().negate();
   }
 
+  @Override
+  public Vec4f plus(ConstVec4f v, Vec4f dest) {
+    return dest.set(x + v.x(), y + v.y(), z + v.z(), w + v.w());
+  }
+
+  @Override
+  public Vec4f minus(ConstVec4f v, Vec4f dest) {
+    return dest.set(x - v.x(), y - v.y(), z - v.z(), w - v.w());
+  }
+
+  @Override
+  public Vec4f times(ConstVec4f v, Vec4f dest) {
+    return dest.set(x * v.x(), y * v.y(), z * v.z(), w * v.w());
+  }
+
+  @Override
+  public Vec4f times(float s, Vec4f dest) {
+    return dest.set(x * s, y * s, z * s, w * s);
+  }
+
+  @Override
+  public Vec4f over(ConstVec4f v, Vec4f dest) {
+    return dest.set(x / v.x(), y / v.y(), z / v.z(), w / v.w());
+  }
+
+  @Override
+  public Vec4f over(float s, Vec4f dest) {
+    return dest.set(x / s, y / s, z / s, w / s);
+  }
+
+  @Override
+  public Vec4f normalized(Vec4f dest) {
+    return over(length(), dest);
+  }
+
+  @Override
+  public Vec4f negated(Vec4f dest) {
+    return dest.set(-x, -y, -z, -w);
+  }
+
   @Override
   public float length() {
     return (float) Math.sqrt(lengthSquared());
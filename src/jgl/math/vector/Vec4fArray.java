@@ -0,0 +1,242 @@
+/*******************************************************************************
+ *  Copyright (C) 2013 Justin Stoecker. The MIT License.
+ *******************************************************************************/
+package jgl.math.vector;
+
+import java.nio.FloatBuffer;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Fixed-size array of 4D float vectors stored off-heap in a single direct buffer. Components are
+ * packed as (x, y, z, w) tuples so the buffer can be handed to OpenGL without copying. Elements are
+ * read and written by index or through a reusable {@link Element} view.
+ *
+ * @author justin
+ */
+public class Vec4fArray {
+
+  private final FloatBuffer buf;
+  private final int         size;
+
+  /**
+   * Creates an array of size vectors with all components set to 0.
+   */
+  public Vec4fArray(int size) {
+    this.size = size;
+    this.buf = Buffers.newDirectFloatBuffer(size * 4);
+  }
+
+  /**
+   * Number of vectors in the array.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The backing direct buffer (4 floats per vector). Its position is not used by this class.
+   */
+  public FloatBuffer buffer() {
+    return buf;
+  }
+
+  public float x(int i) {
+    return buf.get(i * 4);
+  }
+
+  public float y(int i) {
+    return buf.get(i * 4 + 1);
+  }
+
+  public float z(int i) {
+    return buf.get(i * 4 + 2);
+  }
+
+  public float w(int i) {
+    return buf.get(i * 4 + 3);
+  }
+
+  /**
+   * Sets vector i to (x, y, z, w). Returns this array.
+   */
+  public Vec4fArray set(int i, float x, float y, float z, float w) {
+    int j = i * 4;
+    buf.put(j, x);
+    buf.put(j + 1, y);
+    buf.put(j + 2, z);
+    buf.put(j + 3, w);
+    return this;
+  }
+
+  /**
+   * Sets vector i to (v.x, v.y, v.z, v.w). Returns this array.
+   */
+  public Vec4fArray set(int i, ConstVec4f v) {
+    return set(i, v.x(), v.y(), v.z(), v.w());
+  }
+
+  /**
+   * Copies vector i into dest. Returns dest.
+   */
+  public Vec4f get(int i, Vec4f dest) {
+    int j = i * 4;
+    return dest.set(buf.get(j), buf.get(j + 1), buf.get(j + 2), buf.get(j + 3));
+  }
+
+  /**
+   * Creates a view of vector i. The view can be moved to other indices with {@link Element#at}.
+   */
+  public Element element(int i) {
+    return new Element().at(i);
+  }
+
+  /**
+   * Component-wise addition of v to every vector, in place. Returns this array.
+   */
+  public Vec4fArray add(ConstVec4f v) {
+    float x = v.x(), y = v.y(), z = v.z(), w = v.w();
+    for (int j = 0, n = size * 4; j < n; j += 4) {
+      buf.put(j, buf.get(j) + x);
+      buf.put(j + 1, buf.get(j + 1) + y);
+      buf.put(j + 2, buf.get(j + 2) + z);
+      buf.put(j + 3, buf.get(j + 3) + w);
+    }
+    return this;
+  }
+
+  /**
+   * Component-wise addition of the vectors in a (which must have the same size), in place. Returns
+   * this array.
+   */
+  public Vec4fArray add(Vec4fArray a) {
+    checkSize(a);
+    FloatBuffer src = a.buf;
+    for (int j = 0, n = size * 4; j < n; j++)
+      buf.put(j, buf.get(j) + src.get(j));
+    return this;
+  }
+
+  /**
+   * Multiplies every component by s, in place. Returns this array.
+   */
+  public Vec4fArray scale(float s) {
+    for (int j = 0, n = size * 4; j < n; j++)
+      buf.put(j, buf.get(j) * s);
+    return this;
+  }
+
+  /**
+   * Scales every vector to length 1, in place. Zero-length vectors are left unchanged. Returns this
+   * array.
+   */
+  public Vec4fArray normalize() {
+    for (int j = 0, n = size * 4; j < n; j += 4) {
+      float x = buf.get(j), y = buf.get(j + 1), z = buf.get(j + 2), w = buf.get(j + 3);
+      float lengthSquared = x * x + y * y + z * z + w * w;
+      if (lengthSquared > 0) {
+        float s = 1.0f / (float) Math.sqrt(lengthSquared);
+        buf.put(j, x * s);
+        buf.put(j + 1, y * s);
+        buf.put(j + 2, z * s);
+        buf.put(j + 3, w * s);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Dot product of each vector in this array with the vector at the same index in a. The results
+   * are stored in dest (length at least size) and dest is returned.
+   */
+  public float[] dot(Vec4fArray a, float[] dest) {
+    checkSize(a);
+    FloatBuffer src = a.buf;
+    for (int i = 0, j = 0; i < size; i++, j += 4)
+      dest[i] = buf.get(j) * src.get(j) + buf.get(j + 1) * src.get(j + 1) + buf.get(j + 2)
+          * src.get(j + 2) + buf.get(j + 3) * src.get(j + 3);
+    return dest;
+  }
+
+  /**
+   * Multiplies every vector by m, in place. Returns this array.
+   */
+  public Vec4fArray transform(Mat4f m) {
+    float[] a = m.a;
+    float m00 = a[0], m10 = a[1], m20 = a[2], m30 = a[3];
+    float m01 = a[4], m11 = a[5], m21 = a[6], m31 = a[7];
+    float m02 = a[8], m12 = a[9], m22 = a[10], m32 = a[11];
+    float m03 = a[12], m13 = a[13], m23 = a[14], m33 = a[15];
+    for (int j = 0, n = size * 4; j < n; j += 4) {
+      float x = buf.get(j), y = buf.get(j + 1), z = buf.get(j + 2), w = buf.get(j + 3);
+      buf.put(j, m00 * x + m01 * y + m02 * z + m03 * w);
+      buf.put(j + 1, m10 * x + m11 * y + m12 * z + m13 * w);
+      buf.put(j + 2, m20 * x + m21 * y + m22 * z + m23 * w);
+      buf.put(j + 3, m30 * x + m31 * y + m32 * z + m33 * w);
+    }
+    return this;
+  }
+
+  private void checkSize(Vec4fArray a) {
+    if (a.size != size)
+      throw new IllegalArgumentException("Array sizes differ: " + size + " and " + a.size);
+  }
+
+  /**
+   * Flyweight view of one vector in the array. A single view can be moved across the whole array,
+   * so iterating does not create an object per element.
+   */
+  public class Element {
+
+    private int j;
+
+    /**
+     * Moves this view to vector i. Returns this view.
+     */
+    public Element at(int i) {
+      j = i * 4;
+      return this;
+    }
+
+    /**
+     * The index of the vector this view refers to.
+     */
+    public int index() {
+      return j / 4;
+    }
+
+    public float x() {
+      return buf.get(j);
+    }
+
+    public float y() {
+      return buf.get(j + 1);
+    }
+
+    public float z() {
+      return buf.get(j + 2);
+    }
+
+    public float w() {
+      return buf.get(j + 3);
+    }
+
+    /**
+     * Sets the viewed vector to (x, y, z, w). Returns this view.
+     */
+    public Element set(float x, float y, float z, float w) {
+      buf.put(j, x);
+      buf.put(j + 1, y);
+      buf.put(j + 2, z);
+      buf.put(j + 3, w);
+      return this;
+    }
+
+    /**
+     * Copies the viewed vector into dest. Returns dest.
+     */
+    public Vec4f get(Vec4f dest) {
+      return dest.set(buf.get(j), buf.get(j + 1), buf.get(j + 2), buf.get(j + 3));
+    }
+  }
+}
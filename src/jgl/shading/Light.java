@@ -6,6 +6,8 @@ package jgl.shading;
 import javax.media.opengl.GL2;
 import javax.media.opengl.fixedfunc.GLLightingFunc;
 
+import jgl.core.BlockWriter;
+
 /**
  * Data structure used to store information necessary for lighting. This class does not correspond
  * to an OpenGL fixed-function light; that is, modifying its members will not have an effect on the
@@ -17,6 +19,9 @@ import javax.media.opengl.fixedfunc.GLLightingFunc;
  */
 public abstract class Light {
 
+  /** Size in bytes of a light written with {@link #write(BlockWriter)}. */
+  public static final int BLOCK_SIZE = 112;
+
   protected float[] ambient  = new float[] { 0, 0, 0, 1 };
   protected float[] diffuse  = new float[] { 1, 1, 1, 1 };
   protected float[] specular = new float[] { 1, 1, 1, 1 };
@@ -74,6 +79,44 @@ public abstract class Light {
     position[3] = w;
   }
 
+  /**
+   * Writes the light to a uniform block as a structure declared as:
+   * 
+   * <pre>
+   * struct Light {
+   *   vec4 ambient;
+   *   vec4 diffuse;
+   *   vec4 specular;
+   *   vec4 position;
+   *   vec4 attenuation;   // constant, linear, quadratic
+   *   vec4 spotDirection; // w: cutoff angle in degrees (180 if not a spot light)
+   *   float spotExponent;
+   * };
+   * </pre>
+   */
+  public void write(BlockWriter w) {
+    w.align(16);
+    put(w, ambient);
+    put(w, diffuse);
+    put(w, specular);
+    put(w, position);
+    writeAttenuation(w);
+    writeSpot(w);
+    w.align(16);
+  }
+
+  protected void writeAttenuation(BlockWriter w) {
+    w.put(1f, 0f, 0f, 0f);
+  }
+
+  protected void writeSpot(BlockWriter w) {
+    w.put(0f, 0f, -1f, 180f).put(0f);
+  }
+
+  private static void put(BlockWriter w, float[] v) {
+    w.put(v[0], v[1], v[2], v[3]);
+  }
+
   /**
    * Applies this light's values to an OpenGL fixed-function light
    * 
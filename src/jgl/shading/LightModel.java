@@ -7,6 +7,9 @@ import javax.media.opengl.GL2;
 import javax.media.opengl.GL2ES1;
 import javax.media.opengl.fixedfunc.GLLightingFunc;
 
+import jgl.core.BlockWriter;
+import jgl.core.GLState;
+
 /**
  * An arrangement of lights that can be applied to a scene
  * 
@@ -43,11 +46,34 @@ public class LightModel {
     return lights[i];
   }
 
+  /**
+   * Writes the lights to a uniform block (std140 or std430) declared as:
+   * 
+   * <pre>
+   * uniform Lights {
+   *   vec4 globalAmbient;
+   *   int numLights;
+   *   Light lights[8];
+   * };
+   * </pre>
+   * 
+   * See {@link Light#write(BlockWriter)} for the Light structure. Elements past numLights are
+   * left unwritten.
+   */
+  public void write(BlockWriter w) {
+    w.put(globalAmbient[0], globalAmbient[1], globalAmbient[2], globalAmbient[3]);
+    w.put(numLights).align(16);
+    int start = w.position();
+    for (int i = 0; i < numLights; i++)
+      lights[i].write(w);
+    w.position(start + lights.length * Light.BLOCK_SIZE);
+  }
+
   public void apply(GL2 gl) {
     gl.glLightModelfv(GL2ES1.GL_LIGHT_MODEL_AMBIENT, globalAmbient, 0);
     for (int i = 0; i < lights.length; i++) {
       if (lights[i] != null) {
-        gl.glEnable(GLLightingFunc.GL_LIGHT0 + i);
+        GLState.get(gl).enable(gl, GLLightingFunc.GL_LIGHT0 + i);
         lights[i].applyTo(gl, GLLightingFunc.GL_LIGHT0 + i);
       }
     }
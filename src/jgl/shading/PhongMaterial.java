@@ -18,7 +18,7 @@ public class PhongMaterial implements Material {
   public Vec4f   specular          = new Vec4f(0.0f, 0.0f, 0.0f, 1.0f);
   public int     shininess         = 96;
   public Texture diffuseMap        = null;
-  public boolean disposeDiffuseMap = true; // set to false if texture is shared
+  public boolean disposeDiffuseMap = true; // set to false if shared (e.g. from a TextureCache)
 
   public void enable(GL gl) {
     if (diffuseMap != null) {
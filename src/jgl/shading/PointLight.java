@@ -6,6 +6,8 @@ package jgl.shading;
 import javax.media.opengl.GL2;
 import javax.media.opengl.fixedfunc.GLLightingFunc;
 
+import jgl.core.BlockWriter;
+
 import jgl.math.vector.Vec3f;
 
 /**
@@ -53,6 +55,11 @@ public class PointLight extends Light {
     quadraticAttenuation = c;
   }
 
+  @Override
+  protected void writeAttenuation(BlockWriter w) {
+    w.put(constantAttenuation, linearAttenuation, quadraticAttenuation, 0f);
+  }
+
   @Override
   public void applyTo(GL2 gl, int light) {
     super.applyTo(gl, light);
@@ -6,6 +6,7 @@ package jgl.shading;
 import javax.media.opengl.GL2;
 import javax.media.opengl.fixedfunc.GLLightingFunc;
 
+import jgl.core.BlockWriter;
 import jgl.math.Maths;
 import jgl.math.vector.Vec3f;
 
@@ -83,6 +84,11 @@ public class SpotLight extends PointLight {
     spotExponent = Maths.clamp(e, MIN_EXPONENT, MAX_EXPONENT);
   }
 
+  @Override
+  protected void writeSpot(BlockWriter w) {
+    w.put(spotDirection[0], spotDirection[1], spotDirection[2], spotCutoff).put(spotExponent);
+  }
+
   @Override
   public void applyTo(GL2 gl, int glLight) {
     super.applyTo(gl, glLight);